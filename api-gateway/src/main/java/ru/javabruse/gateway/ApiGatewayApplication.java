@@ -3,10 +3,15 @@ package ru.javabruse.gateway;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import ru.javabruse.loadbalancer.LoadBalancerConfig;
 
 
 @EnableDiscoveryClient
+@EnableScheduling
 @SpringBootApplication
+@Import(LoadBalancerConfig.class)
 public class ApiGatewayApplication {
     public static void main(String[] args) {
         SpringApplication.run(ApiGatewayApplication.class, args);
@@ -0,0 +1,142 @@
+package ru.javabruse.gateway.cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One copy of a catalog response for every client, bounded by entry count and total body bytes
+@Component
+public class SharedResponseCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int maxEntryBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, Long> changeStamps = new HashMap<>();
+    private long totalBytes;
+
+    public SharedResponseCache(@Value("${gateway.response-cache.max-entries:1000}") int maxEntries,
+                               @Value("${gateway.response-cache.max-bytes:67108864}") long maxBytes,
+                               @Value("${gateway.response-cache.max-entry-bytes:2097152}") int maxEntryBytes,
+                               MeterRegistry meterRegistry) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        Gauge.builder("gateway.response.cache.entries", this, SharedResponseCache::size).register(meterRegistry);
+        Gauge.builder("gateway.response.cache.bytes", this, SharedResponseCache::bytes).register(meterRegistry);
+    }
+
+    public boolean fits(int bodyLength) {
+        return bodyLength <= maxEntryBytes;
+    }
+
+    public Optional<Entry> get(Key key, long now) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            if (entry.expiresAt() - now <= 0) {
+                remove(key);
+                return Optional.empty();
+            }
+            return Optional.of(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Taken before the request goes to the service; a write through the route in the meantime moves it on
+    public long changeStamp(String routeId) {
+        lock.lock();
+        try {
+            return changeStamps.getOrDefault(routeId, 0L);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Dropped when the route was written to since changeStamp, since the body may predate the write
+    public void put(Key key, Entry entry, long changeStamp) {
+        if (!fits(entry.body().length)) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (changeStamps.getOrDefault(key.routeId(), 0L) != changeStamp) {
+                return;
+            }
+            remove(key);
+            entries.put(key, entry);
+            totalBytes += entry.body().length;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while ((entries.size() > maxEntries || totalBytes > maxBytes) && eldest.hasNext()) {
+                totalBytes -= eldest.next().body().length;
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void evictRoute(String routeId) {
+        lock.lock();
+        try {
+            changeStamps.merge(routeId, 1L, Long::sum);
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Entry> next = it.next();
+                if (next.getKey().routeId().equals(routeId)) {
+                    totalBytes -= next.getValue().body().length;
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long bytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(Key key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.body().length;
+        }
+    }
+
+    // The representation depends on Accept (JSON or Smile), so it is part of the key
+    public record Key(String routeId, String pathAndQuery, String accept) {
+    }
+
+    public record Entry(int status, HttpHeaders headers, byte[] body, String etag, long expiresAt) {
+    }
+}
@@ -0,0 +1,200 @@
+package ru.javabruse.gateway.compression;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// gzip and deflate on pooled Deflaters; brotli has no pure-Java encoder, so it is not offered
+@Slf4j
+@Component
+public class ResponseCompressor {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final int minResponseSize;
+    private final List<MediaType> mimeTypes;
+    private final Map<String, ArrayBlockingQueue<Codec>> pools = new LinkedHashMap<>();
+    private final int level;
+    private final MeterRegistry meterRegistry;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    public ResponseCompressor(@Value("${gateway.compression.min-response-size:1024}") int minResponseSize,
+                              @Value("${gateway.compression.mime-types:application/json,application/problem+json,text/plain,text/html,text/css,application/javascript}") List<String> mimeTypes,
+                              @Value("${gateway.compression.encodings:gzip,deflate}") List<String> encodings,
+                              @Value("${gateway.compression.level:5}") int level,
+                              @Value("${gateway.compression.pool-size:16}") int poolSize,
+                              MeterRegistry meterRegistry) {
+        this.minResponseSize = Math.max(0, minResponseSize);
+        this.mimeTypes = mimeTypes.stream().map(MediaType::parseMediaType).toList();
+        this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+        this.meterRegistry = meterRegistry;
+        for (String encoding : encodings) {
+            String name = encoding.trim().toLowerCase(Locale.ROOT);
+            if (name.equals(GZIP) || name.equals(DEFLATE)) {
+                pools.put(name, new ArrayBlockingQueue<>(Math.max(1, poolSize)));
+            } else {
+                log.warn("Unsupported response encoding '{}' ignored, only gzip and deflate are available", encoding);
+            }
+        }
+    }
+
+    public int minResponseSize() {
+        return minResponseSize;
+    }
+
+    public boolean isCompressible(MediaType contentType) {
+        return contentType != null && mimeTypes.stream().anyMatch(type -> type.includes(contentType));
+    }
+
+    // The first configured encoding the client accepts, or null; q=0 refuses it, * stands for any other
+    public String negotiate(List<String> acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty() || pools.isEmpty()) {
+            return null;
+        }
+        Map<String, Double> accepted = new LinkedHashMap<>();
+        for (String header : acceptEncoding) {
+            for (String token : header.split(",")) {
+                String[] parts = token.split(";");
+                String name = parts[0].trim().toLowerCase(Locale.ROOT);
+                if (!name.isEmpty()) {
+                    accepted.put(name, quality(parts));
+                }
+            }
+        }
+        for (String encoding : pools.keySet()) {
+            Double quality = accepted.getOrDefault(encoding, accepted.get("*"));
+            if (quality != null && quality > 0) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    // Returns the compressed body in a buffer from the response's (pooled) factory; the input stays owned by the caller
+    public DataBuffer compress(DataBuffer input, String encoding, String routeId, DataBufferFactory bufferFactory) {
+        ArrayBlockingQueue<Codec> pool = pools.get(encoding);
+        if (pool == null) {
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+        Codec codec = pool.poll();
+        if (codec == null) {
+            codec = new Codec(new Deflater(level, encoding.equals(GZIP)));
+        }
+        int originalSize = input.readableByteCount();
+        long cpuStart = cpuTime();
+        DataBuffer output = bufferFactory.allocateBuffer(Math.max(64, originalSize / 4));
+        boolean done = false;
+        try {
+            codec.write(input, output, encoding.equals(GZIP));
+            done = true;
+        } finally {
+            if (!done) {
+                DataBufferUtils.release(output);
+            }
+            release(pool, codec);
+        }
+        meterRegistry.timer("gateway.compression.cpu", "route", routeId, "encoding", encoding)
+                .record(cpuTime() - cpuStart, TimeUnit.NANOSECONDS);
+        meterRegistry.counter("gateway.compression.bytes.original", "route", routeId, "encoding", encoding)
+                .increment(originalSize);
+        meterRegistry.counter("gateway.compression.bytes.saved", "route", routeId, "encoding", encoding)
+                .increment(Math.max(0, originalSize - output.readableByteCount()));
+        return output;
+    }
+
+    private static void release(ArrayBlockingQueue<Codec> pool, Codec codec) {
+        codec.deflater.reset();
+        if (!pool.offer(codec)) {
+            codec.deflater.end();
+        }
+    }
+
+    // Deflating runs on one thread without blocking, so its CPU time is the cost of the response
+    private long cpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    // A Deflater holds native memory and a window, so they are reused together with their scratch chunk
+    private static final class Codec {
+        private final Deflater deflater;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private final CRC32 crc = new CRC32();
+
+        private Codec(Deflater deflater) {
+            this.deflater = deflater;
+        }
+
+        private void write(DataBuffer input, DataBuffer output, boolean gzip) {
+            if (gzip) {
+                crc.reset();
+                output.write(GZIP_HEADER);
+            }
+            try (DataBuffer.ByteBufferIterator buffers = input.readableByteBuffers()) {
+                while (buffers.hasNext()) {
+                    ByteBuffer source = buffers.next();
+                    if (gzip) {
+                        crc.update(source.duplicate());
+                    }
+                    deflater.setInput(source);
+                    while (!deflater.needsInput()) {
+                        drain(output);
+                    }
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain(output);
+            }
+            if (gzip) {
+                writeIntLittleEndian(output, (int) crc.getValue());
+                writeIntLittleEndian(output, (int) deflater.getBytesRead());
+            }
+        }
+
+        private void drain(DataBuffer output) {
+            int length = deflater.deflate(chunk);
+            if (length > 0) {
+                output.write(chunk, 0, length);
+            }
+        }
+
+        private static void writeIntLittleEndian(DataBuffer output, int value) {
+            output.write(new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)});
+        }
+    }
+}
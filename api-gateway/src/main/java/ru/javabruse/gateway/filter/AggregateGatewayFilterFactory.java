@@ -0,0 +1,253 @@
+package ru.javabruse.gateway.filter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycleValidator;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerUriTools;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.support.HasRouteId;
+import org.springframework.cloud.gateway.support.NotFoundException;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+// Answers a GET with one JSON object built from several backend calls made in parallel, one field per leg.
+// A leg that fails or runs past its timeout is left null and named under "failed", so the page still renders
+// and takes as long as the slowest leg that made it, not the sum of all of them.
+@Component
+public class AggregateGatewayFilterFactory extends AbstractGatewayFilterFactory<AggregateGatewayFilterFactory.Config> {
+
+    public static final String FAILED_FIELD = "failed";
+
+    private final LoadBalancerClientFactory clientFactory;
+    private final HttpClient httpClient;
+    private final ObjectProvider<List<HttpHeadersFilter>> headersFilters;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    public AggregateGatewayFilterFactory(LoadBalancerClientFactory clientFactory,
+                                         HttpClient httpClient,
+                                         ObjectProvider<List<HttpHeadersFilter>> headersFilters,
+                                         ObjectMapper objectMapper,
+                                         MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.clientFactory = clientFactory;
+        this.httpClient = httpClient;
+        this.headersFilters = headersFilters;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        String routeId = String.valueOf(config.getRouteId());
+        Map<String, URI> legs = new LinkedHashMap<>();
+        config.getLegs().forEach((name, uri) -> legs.put(name, URI.create(uri)));
+
+        return (exchange, chain) -> {
+            if (exchange.getRequest().getMethod() != HttpMethod.GET) {
+                exchange.getResponse().setStatusCode(HttpStatus.METHOD_NOT_ALLOWED);
+                return exchange.getResponse().setComplete();
+            }
+            ServerWebExchangeUtils.setAlreadyRouted(exchange);
+            HttpHeaders headers = legHeaders(exchange);
+
+            return Flux.fromIterable(legs.entrySet())
+                    .flatMap(leg -> {
+                        long start = System.nanoTime();
+                        return call(exchange, leg.getValue(), headers)
+                                .timeout(config.timeoutOf(leg.getKey()))
+                                .map(body -> new LegResult(leg.getKey(), body, null))
+                                .onErrorResume(e -> Mono.just(new LegResult(leg.getKey(), null, reason(e))))
+                                .doOnNext(result -> meterRegistry.timer("gateway.aggregate.legs", "route", routeId,
+                                                "leg", result.name(), "outcome", result.failure() == null ? "ok" : "failed")
+                                        .record(Duration.ofNanos(System.nanoTime() - start)));
+                    }, legs.size())
+                    .collectMap(LegResult::name)
+                    .flatMap(results -> write(exchange, legs, results));
+        };
+    }
+
+    // The caller's headers as the proxy would forward them, identity included, but always asking for plain JSON
+    private HttpHeaders legHeaders(ServerWebExchange exchange) {
+        HttpHeaders headers = HttpHeadersFilter.filterRequest(headersFilters.getIfAvailable(), exchange);
+        headers.remove(HttpHeaders.HOST);
+        headers.remove(HttpHeaders.ACCEPT_ENCODING);
+        headers.remove(HttpHeaders.IF_NONE_MATCH);
+        headers.remove(HttpHeaders.IF_MODIFIED_SINCE);
+        headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+        return headers;
+    }
+
+    // The caller's query string is passed on to every leg, after the leg's own parameters
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Mono<JsonNode> call(ServerWebExchange exchange, URI leg, HttpHeaders headers) {
+        String query = exchange.getRequest().getURI().getRawQuery();
+        URI target = query == null ? leg : UriComponentsBuilder.fromUri(leg).query(query).build(true).toUri();
+        if (!"lb".equals(target.getScheme())) {
+            return send(target, headers);
+        }
+
+        String serviceId = target.getHost();
+        ReactorServiceInstanceLoadBalancer loadBalancer =
+                clientFactory.getInstance(serviceId, ReactorServiceInstanceLoadBalancer.class);
+        if (loadBalancer == null) {
+            return Mono.error(NotFoundException.create(true, "No load balancer for " + serviceId));
+        }
+        Set<LoadBalancerLifecycle> lifecycles = LoadBalancerLifecycleValidator.getSupportedLifecycleProcessors(
+                clientFactory.getInstances(serviceId, LoadBalancerLifecycle.class),
+                RequestDataContext.class, ResponseData.class, ServiceInstance.class);
+        DefaultRequest<RequestDataContext> request =
+                new DefaultRequest<>(new RequestDataContext(new RequestData(exchange.getRequest())));
+        lifecycles.forEach(lifecycle -> lifecycle.onStart(request));
+        return loadBalancer.choose(request)
+                .filter(Response::hasServer)
+                .switchIfEmpty(Mono.error(() -> NotFoundException.create(true, "Unable to find instance for " + serviceId)))
+                .flatMap(response -> {
+                    lifecycles.forEach(lifecycle -> lifecycle.onStartRequest(request, response));
+                    URI uri = LoadBalancerUriTools.reconstructURI(response.getServer(),
+                            UriComponentsBuilder.fromUri(target).scheme("http").build(true).toUri());
+                    return send(uri, headers)
+                            .doOnNext(body -> complete(lifecycles, CompletionContext.Status.SUCCESS, null, request, response))
+                            .doOnError(e -> complete(lifecycles, CompletionContext.Status.FAILED, e, request, response))
+                            .doOnCancel(() -> complete(lifecycles, CompletionContext.Status.DISCARD, null, request, response));
+                });
+    }
+
+    private Mono<JsonNode> send(URI uri, HttpHeaders headers) {
+        return httpClient
+                .headers(outbound -> headers.forEach(outbound::set))
+                .get()
+                .uri(uri)
+                .responseSingle((response, body) -> body.asByteArray()
+                        .defaultIfEmpty(new byte[0])
+                        .flatMap(bytes -> {
+                            int status = response.status().code();
+                            if (status < 200 || status >= 300) {
+                                return Mono.error(new LegStatusException(status));
+                            }
+                            try {
+                                return Mono.just(bytes.length == 0 ? objectMapper.nullNode() : objectMapper.readTree(bytes));
+                            } catch (IOException e) {
+                                return Mono.error(e);
+                            }
+                        }));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void complete(Set<LoadBalancerLifecycle> lifecycles, CompletionContext.Status status,
+                                 Throwable error, DefaultRequest<RequestDataContext> request,
+                                 Response<ServiceInstance> response) {
+        CompletionContext<ResponseData, ServiceInstance, RequestDataContext> context =
+                new CompletionContext<>(status, error, request, response);
+        lifecycles.forEach(lifecycle -> lifecycle.onComplete(context));
+    }
+
+    private Mono<Void> write(ServerWebExchange exchange, Map<String, URI> legs, Map<String, LegResult> results) {
+        ObjectNode body = objectMapper.createObjectNode();
+        ObjectNode failed = objectMapper.createObjectNode();
+        for (String name : legs.keySet()) {
+            LegResult result = results.get(name);
+            if (result.failure() == null) {
+                body.set(name, result.body());
+            } else {
+                body.putNull(name);
+                failed.put(name, result.failure());
+            }
+        }
+        body.set(FAILED_FIELD, failed);
+
+        byte[] bytes;
+        try {
+            bytes = objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
+        ServerHttpResponse response = exchange.getResponse();
+        // Nothing to show when every leg failed, otherwise the page gets what there is
+        response.setStatusCode(!legs.isEmpty() && failed.size() == legs.size() ? HttpStatus.BAD_GATEWAY : HttpStatus.OK);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        response.getHeaders().setCacheControl(CacheControl.noStore());
+        response.getHeaders().setContentLength(bytes.length);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(bytes)));
+    }
+
+    private static String reason(Throwable e) {
+        if (e instanceof TimeoutException) {
+            return "timeout";
+        }
+        if (e instanceof LegStatusException status) {
+            return "status " + status.status;
+        }
+        if (e instanceof JsonProcessingException) {
+            return "invalid body";
+        }
+        return "unavailable";
+    }
+
+    private record LegResult(String name, JsonNode body, String failure) {
+    }
+
+    private static final class LegStatusException extends RuntimeException {
+        private final int status;
+
+        private LegStatusException(int status) {
+            super("Leg answered " + status, null, false, false);
+            this.status = status;
+        }
+    }
+
+    @Data
+    public static class Config implements HasRouteId {
+        private String routeId;
+
+        // Field name in the combined response -> lb://service/path or http://host:port/path
+        private Map<String, String> legs = new LinkedHashMap<>();
+
+        // How long each leg may take before the response goes out without it
+        private Duration timeout = Duration.ofSeconds(1);
+
+        // Per-leg overrides of timeout
+        private Map<String, Duration> timeouts = new LinkedHashMap<>();
+
+        Duration timeoutOf(String leg) {
+            return timeouts.getOrDefault(leg, timeout);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package ru.javabruse.gateway.filter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycleValidator;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerUriTools;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.ResponseData;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.HasRouteId;
+import org.springframework.cloud.gateway.support.NotFoundException;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+// For idempotent requests on lb:// routes: if the chosen instance is slower than the route's recent p95,
+// the same request goes to a second instance and whichever answers first wins; the other is cancelled.
+// The filter proxies the request itself, so it must be the last filter of the route.
+@Component
+public class HedgeGatewayFilterFactory extends AbstractGatewayFilterFactory<HedgeGatewayFilterFactory.Config> {
+
+    private final LoadBalancerClientFactory clientFactory;
+    private final HttpClient httpClient;
+    private final HttpClientProperties httpClientProperties;
+    private final ObjectProvider<List<HttpHeadersFilter>> headersFilters;
+    private final MeterRegistry meterRegistry;
+
+    public HedgeGatewayFilterFactory(LoadBalancerClientFactory clientFactory,
+                                     HttpClient httpClient,
+                                     HttpClientProperties httpClientProperties,
+                                     ObjectProvider<List<HttpHeadersFilter>> headersFilters,
+                                     MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.clientFactory = clientFactory;
+        this.httpClient = httpClient;
+        this.httpClientProperties = httpClientProperties;
+        this.headersFilters = headersFilters;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        String routeId = String.valueOf(config.getRouteId());
+        LatencyWindow latencies = new LatencyWindow();
+        HedgeBudget budget = new HedgeBudget(config.getBudgetPercent(), config.getMaxBurst());
+        Counter sent = hedgeCounter(routeId, "sent");
+        Counter won = hedgeCounter(routeId, "won");
+        Counter exhausted = hedgeCounter(routeId, "budget_exhausted");
+        Counter noInstance = hedgeCounter(routeId, "no_other_instance");
+        Gauge.builder("gateway.hedge.delay", () -> hedgeDelay(config, latencies).toMillis())
+                .tag("route", routeId)
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+
+        return (exchange, chain) -> {
+            Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+            HttpMethod method = exchange.getRequest().getMethod();
+            if (route == null || !"lb".equals(route.getUri().getScheme())
+                    || (method != HttpMethod.GET && method != HttpMethod.HEAD)) {
+                return chain.filter(exchange);
+            }
+            String serviceId = route.getUri().getHost();
+            ReactorServiceInstanceLoadBalancer loadBalancer =
+                    clientFactory.getInstance(serviceId, ReactorServiceInstanceLoadBalancer.class);
+            if (loadBalancer == null) {
+                return chain.filter(exchange);
+            }
+            ServerWebExchangeUtils.setAlreadyRouted(exchange);
+            budget.deposit();
+
+            Attempts attempts = new Attempts(exchange, serviceId, loadBalancer, requestHeaders(exchange),
+                    LoadBalancerLifecycleValidator.getSupportedLifecycleProcessors(
+                            clientFactory.getInstances(serviceId, LoadBalancerLifecycle.class),
+                            RequestDataContext.class, ResponseData.class, ServiceInstance.class));
+            AtomicReference<ServiceInstance> primaryInstance = new AtomicReference<>();
+            long start = System.nanoTime();
+
+            Mono<Reply> primary = attempts.choose(null)
+                    .doOnNext(chosen -> primaryInstance.set(chosen.instance()))
+                    .flatMap(chosen -> attempts.send(chosen, false));
+            Mono<Reply> hedge = Mono.delay(hedgeDelay(config, latencies))
+                    .flatMap(tick -> {
+                        if (primaryInstance.get() == null) {
+                            return Mono.empty();
+                        }
+                        if (!budget.tryAcquire()) {
+                            exhausted.increment();
+                            return Mono.empty();
+                        }
+                        return attempts.choose(primaryInstance.get())
+                                .switchIfEmpty(Mono.fromRunnable(noInstance::increment))
+                                .doOnNext(chosen -> sent.increment())
+                                .flatMap(chosen -> attempts.send(chosen, true));
+                    });
+
+            return Mono.firstWithValue(primary, hedge)
+                    .onErrorMap(NoSuchElementException.class,
+                            e -> e.getSuppressed().length > 0 ? e.getSuppressed()[0] : e)
+                    .flatMap(reply -> {
+                        latencies.record(System.nanoTime() - start);
+                        if (reply.hedged()) {
+                            won.increment();
+                        }
+                        return write(exchange, reply);
+                    });
+        };
+    }
+
+    private static Duration hedgeDelay(Config config, LatencyWindow latencies) {
+        long p95 = latencies.p95Nanos();
+        Duration delay = p95 < 0 ? config.getInitialDelay() : Duration.ofNanos(p95);
+        return delay.compareTo(config.getMinDelay()) < 0 ? config.getMinDelay() : delay;
+    }
+
+    private HttpHeaders requestHeaders(ServerWebExchange exchange) {
+        HttpHeaders headers = HttpHeadersFilter.filterRequest(headersFilters.getIfAvailable(), exchange);
+        headers.remove(HttpHeaders.HOST);
+        return headers;
+    }
+
+    private Mono<Void> write(ServerWebExchange exchange, Reply reply) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatusCode.valueOf(reply.status()));
+        response.getHeaders().putAll(HttpHeadersFilter.filter(headersFilters.getIfAvailable(), reply.headers(),
+                exchange, HttpHeadersFilter.Type.RESPONSE));
+        response.getHeaders().setContentLength(reply.body().length);
+        if (exchange.getRequest().getMethod() == HttpMethod.HEAD || reply.body().length == 0) {
+            return response.setComplete();
+        }
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(reply.body())));
+    }
+
+    private Counter hedgeCounter(String routeId, String outcome) {
+        return Counter.builder("gateway.hedge.requests")
+                .tag("route", routeId)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    // One client request: instance choice and the proxied calls, reported to the load balancer lifecycle
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final class Attempts {
+        private final ServerWebExchange exchange;
+        private final String serviceId;
+        private final ReactorServiceInstanceLoadBalancer loadBalancer;
+        private final HttpHeaders headers;
+        private final Set<LoadBalancerLifecycle> lifecycles;
+
+        private Attempts(ServerWebExchange exchange, String serviceId, ReactorServiceInstanceLoadBalancer loadBalancer,
+                         HttpHeaders headers, Set<LoadBalancerLifecycle> lifecycles) {
+            this.exchange = exchange;
+            this.serviceId = serviceId;
+            this.loadBalancer = loadBalancer;
+            this.headers = headers;
+            this.lifecycles = lifecycles;
+        }
+
+        // A hedge must land on a different instance; a few picks are enough with any spreading balancer
+        private Mono<Chosen> choose(ServiceInstance exclude) {
+            DefaultRequest<RequestDataContext> request =
+                    new DefaultRequest<>(new RequestDataContext(new RequestData(exchange.getRequest())));
+            lifecycles.forEach(lifecycle -> lifecycle.onStart(request));
+            return Flux.range(0, exclude == null ? 1 : 3)
+                    .concatMap(i -> loadBalancer.choose(request))
+                    .filter(response -> response.hasServer()
+                            && (exclude == null || !sameInstance(response.getServer(), exclude)))
+                    .next()
+                    .switchIfEmpty(exclude == null
+                            ? Mono.error(NotFoundException.create(true, "Unable to find instance for " + serviceId))
+                            : Mono.empty())
+                    .doOnNext(response -> lifecycles.forEach(lifecycle -> lifecycle.onStartRequest(request, response)))
+                    .map(response -> new Chosen(request, response));
+        }
+
+        private Mono<Reply> send(Chosen chosen, boolean hedged) {
+            URI uri = LoadBalancerUriTools.reconstructURI(chosen.instance(), exchange.getRequest().getURI());
+            Mono<Reply> call = httpClient
+                    .headers(outbound -> headers.forEach(outbound::set))
+                    .request(io.netty.handler.codec.http.HttpMethod.valueOf(exchange.getRequest().getMethod().name()))
+                    .uri(uri)
+                    .responseSingle((response, body) -> body.asByteArray()
+                            .defaultIfEmpty(new byte[0])
+                            .map(bytes -> {
+                                HttpHeaders responseHeaders = new HttpHeaders();
+                                response.responseHeaders().forEach(
+                                        entry -> responseHeaders.add(entry.getKey(), entry.getValue()));
+                                return new Reply(response.status().code(), responseHeaders, bytes, hedged);
+                            }));
+            if (httpClientProperties.getResponseTimeout() != null) {
+                call = call.timeout(httpClientProperties.getResponseTimeout());
+            }
+            return call
+                    .doOnNext(reply -> complete(CompletionContext.Status.SUCCESS, null, chosen, reply))
+                    .doOnError(e -> complete(CompletionContext.Status.FAILED, e, chosen, null))
+                    .doOnCancel(() -> complete(CompletionContext.Status.DISCARD, null, chosen, null));
+        }
+
+        private void complete(CompletionContext.Status status, Throwable error, Chosen chosen, Reply reply) {
+            RequestData requestData = chosen.request().getContext().getClientRequest();
+            ResponseData responseData = reply == null ? null : new ResponseData(HttpStatusCode.valueOf(reply.status()),
+                    reply.headers(), new LinkedMultiValueMap<>(), requestData);
+            CompletionContext<ResponseData, ServiceInstance, RequestDataContext> context =
+                    new CompletionContext<>(status, error, chosen.request(), chosen.response(), responseData);
+            lifecycles.forEach(lifecycle -> lifecycle.onComplete(context));
+        }
+    }
+
+    private static boolean sameInstance(ServiceInstance a, ServiceInstance b) {
+        return a.getHost().equals(b.getHost()) && a.getPort() == b.getPort();
+    }
+
+    // Keeps the lifecycle request next to the chosen instance so both attempts are reported separately
+    private record Chosen(DefaultRequest<RequestDataContext> request, Response<ServiceInstance> response) {
+        ServiceInstance instance() {
+            return response.getServer();
+        }
+    }
+
+    private record Reply(int status, HttpHeaders headers, byte[] body, boolean hedged) {
+    }
+
+    // Latest response times of the route; p95 is recomputed every few samples rather than on each read
+    static final class LatencyWindow {
+        private static final int SIZE = 256;
+        private static final int RECOMPUTE_EVERY = 16;
+
+        private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+        private final AtomicLong recorded = new AtomicLong();
+        private volatile long p95 = -1;
+
+        void record(long nanos) {
+            long n = recorded.getAndIncrement();
+            samples.set((int) (n % SIZE), nanos);
+            if ((n + 1) % RECOMPUTE_EVERY == 0) {
+                int filled = (int) Math.min(n + 1, SIZE);
+                long[] copy = new long[filled];
+                for (int i = 0; i < filled; i++) {
+                    copy[i] = samples.get(i);
+                }
+                Arrays.sort(copy);
+                p95 = copy[(int) Math.ceil(filled * 0.95) - 1];
+            }
+        }
+
+        long p95Nanos() {
+            return p95;
+        }
+    }
+
+    // Each request earns budgetPercent hundredths of a hedge, so hedges stay under that share of traffic
+    static final class HedgeBudget {
+        private static final long HEDGE_COST = 100;
+
+        private final long deposit;
+        private final long max;
+        private final AtomicLong credit;
+
+        HedgeBudget(int budgetPercent, int maxBurst) {
+            this.deposit = Math.max(0, budgetPercent);
+            this.max = Math.max(1, maxBurst) * HEDGE_COST;
+            this.credit = new AtomicLong(max);
+        }
+
+        void deposit() {
+            credit.accumulateAndGet(deposit, (current, added) -> Math.min(max, current + added));
+        }
+
+        boolean tryAcquire() {
+            while (true) {
+                long current = credit.get();
+                if (current < HEDGE_COST) {
+                    return false;
+                }
+                if (credit.compareAndSet(current, current - HEDGE_COST)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    @Data
+    public static class Config implements HasRouteId {
+        private String routeId;
+
+        // Used until the route has a p95 of its own
+        private Duration initialDelay = Duration.ofMillis(200);
+
+        // A fast route is not hedged on noise
+        private Duration minDelay = Duration.ofMillis(20);
+
+        // Hedges allowed per 100 requests
+        private int budgetPercent = 10;
+
+        // Hedges that may go out back to back from saved budget
+        private int maxBurst = 10;
+    }
+}
@@ -0,0 +1,111 @@
+package ru.javabruse.gateway.filter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.ratelimit.AbstractRateLimiter;
+import org.springframework.cloud.gateway.support.ConfigurationService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket kept as a single "theoretical arrival time" per key (GCRA), so a check is one CAS
+@Component
+public class InMemoryRateLimiter extends AbstractRateLimiter<InMemoryRateLimiter.Config> {
+
+    public static final String CONFIGURATION_PROPERTY_NAME = "in-memory-rate-limiter";
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> rejectedCounters = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep;
+    private final MeterRegistry meterRegistry;
+    private final int maxKeys;
+    private final Clock clock;
+
+    // A Clock bean, if the context has one, drives refills; tests use it to keep buckets from refilling mid-test
+    public InMemoryRateLimiter(ConfigurationService configurationService,
+                               MeterRegistry meterRegistry,
+                               @Value("${gateway.rate-limit.max-keys:100000}") int maxKeys,
+                               ObjectProvider<Clock> clock) {
+        super(Config.class, CONFIGURATION_PROPERTY_NAME, configurationService);
+        this.meterRegistry = meterRegistry;
+        this.maxKeys = maxKeys;
+        this.clock = clock.getIfAvailable(Clock::systemUTC);
+        this.nextSweep = new AtomicLong(now());
+    }
+
+    @Override
+    public Mono<Response> isAllowed(String routeId, String id) {
+        Config config = getConfig().get(routeId);
+        if (config == null) {
+            // The route has no limits configured
+            return Mono.just(new Response(true, Map.of()));
+        }
+
+        long now = now();
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, config.getReplenishRate());
+        long tolerance = interval * Math.max(1, config.getBurstCapacity());
+        AtomicLong bucket = buckets.computeIfAbsent(routeId + '|' + id, key -> new AtomicLong(now));
+
+        while (true) {
+            long tat = bucket.get();
+            long next = Math.max(tat, now) + interval;
+            long wait = next - now - tolerance;
+            if (wait > 0) {
+                countRejection(routeId, id);
+                long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1));
+                return Mono.just(new Response(false, Map.of(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))));
+            }
+            if (bucket.compareAndSet(tat, next)) {
+                break;
+            }
+        }
+
+        if (buckets.size() > maxKeys) {
+            sweep(now);
+        }
+        return Mono.just(new Response(true, Map.of()));
+    }
+
+    // A key whose arrival time has passed holds a full bucket, which is the same as not being tracked.
+    // At most one sweep a second, so a flood of distinct clients does not turn every check into a scan
+    private void sweep(long now) {
+        long scheduled = nextSweep.get();
+        if (now - scheduled < 0 || !nextSweep.compareAndSet(scheduled, now + TimeUnit.SECONDS.toNanos(1))) {
+            return;
+        }
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    private long now() {
+        Instant instant = clock.instant();
+        return TimeUnit.SECONDS.toNanos(instant.getEpochSecond()) + instant.getNano();
+    }
+
+    private void countRejection(String routeId, String id) {
+        String keyType = id.startsWith(UserOrIpKeyResolver.USER_PREFIX) ? "user" : "ip";
+        rejectedCounters.computeIfAbsent(routeId + '|' + keyType, key -> Counter.builder("gateway.ratelimit.rejected")
+                        .tag("route", routeId)
+                        .tag("key", keyType)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    @Data
+    public static class Config {
+        // Requests per second a key gets back
+        private int replenishRate = 10;
+
+        // Requests a key may send at once after being idle
+        private int burstCapacity = 20;
+    }
+}
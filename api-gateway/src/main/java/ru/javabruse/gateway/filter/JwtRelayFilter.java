@@ -0,0 +1,74 @@
+package ru.javabruse.gateway.filter;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import ru.javabruse.service.InternalIdentityService;
+import ru.javabruse.service.JwtTokenService;
+
+import java.util.Map;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class JwtRelayFilter implements GlobalFilter, Ordered {
+
+    public static final int ORDER = Ordered.HIGHEST_PRECEDENCE + 100;
+
+    private final JwtTokenService jwtTokenService;
+    private final InternalIdentityService internalIdentityService;
+    private final RevokedTokenReplica revokedTokens;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String authHeader = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            // Only the gateway may hand services an identity
+            ServerHttpRequest anonymous = request.mutate()
+                    .headers(headers -> InternalIdentityService.HEADERS.forEach(headers::remove))
+                    .build();
+            return chain.filter(exchange.mutate().request(anonymous).build());
+        }
+
+        Map<String, String> identity;
+        try {
+            JwtTokenService.VerifiedToken verified = jwtTokenService.verify(authHeader.substring(7));
+            if (verified.expiresAt() == null) {
+                throw new IllegalArgumentException("Token has no expiry");
+            }
+            if (revokedTokens.isRevoked(verified)) {
+                throw new IllegalArgumentException("Token has been revoked");
+            }
+            identity = internalIdentityService.sign(verified);
+        } catch (Exception e) {
+            // Rejected here, a bad token never reaches a backend
+            log.debug("Rejected token for {}: {}", request.getPath(), e.getMessage());
+            exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
+            return exchange.getResponse().setComplete();
+        }
+
+        ServerHttpRequest relayed = request.mutate()
+                .headers(headers -> {
+                    InternalIdentityService.HEADERS.forEach(headers::remove);
+                    headers.remove(HttpHeaders.AUTHORIZATION);
+                    identity.forEach(headers::set);
+                })
+                .build();
+        return chain.filter(exchange.mutate().request(relayed).build());
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+}
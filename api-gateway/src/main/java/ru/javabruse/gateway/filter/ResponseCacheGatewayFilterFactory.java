@@ -0,0 +1,211 @@
+package ru.javabruse.gateway.filter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import ru.javabruse.gateway.cache.SharedResponseCache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+// Serves configured catalog GETs from SharedResponseCache and answers matching If-None-Match with 304
+@Component
+public class ResponseCacheGatewayFilterFactory
+        extends AbstractGatewayFilterFactory<ResponseCacheGatewayFilterFactory.Config> {
+
+    // Only headers that describe the body are replayed; the services' no-store defaults are replaced below
+    private static final List<String> STORED_HEADERS =
+            List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LANGUAGE, HttpHeaders.LAST_MODIFIED);
+
+    private static final CacheControl CLIENT_CACHE_CONTROL = CacheControl.noCache().cachePublic();
+
+    private final SharedResponseCache cache;
+    private final MeterRegistry meterRegistry;
+
+    public ResponseCacheGatewayFilterFactory(SharedResponseCache cache, MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.cache = cache;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public List<String> shortcutFieldOrder() {
+        return List.of("ttl");
+    }
+
+    // Must wrap the response before NettyWriteResponseFilter captures it
+    @Override
+    public GatewayFilter apply(Config config) {
+        return new OrderedGatewayFilter((exchange, chain) -> {
+            ServerHttpRequest request = exchange.getRequest();
+            String routeId = routeId(exchange);
+
+            if (request.getMethod() != HttpMethod.GET) {
+                // A write through the same route makes its cached reads stale
+                if (request.getMethod() == HttpMethod.HEAD || request.getMethod() == HttpMethod.OPTIONS) {
+                    return chain.filter(exchange);
+                }
+                // Evicted before the client sees the response, so its next read cannot hit the old entry
+                exchange.getResponse().beforeCommit(() -> Mono.fromRunnable(() -> cache.evictRoute(routeId)));
+                return chain.filter(exchange).doFinally(signal -> cache.evictRoute(routeId));
+            }
+
+            String rawQuery = request.getURI().getRawQuery();
+            SharedResponseCache.Key key = new SharedResponseCache.Key(routeId,
+                    rawQuery == null ? request.getURI().getRawPath() : request.getURI().getRawPath() + '?' + rawQuery,
+                    String.valueOf(request.getHeaders().getFirst(HttpHeaders.ACCEPT)));
+
+            if (!isRevalidation(request)) {
+                SharedResponseCache.Entry hit = cache.get(key, System.nanoTime()).orElse(null);
+                if (hit != null) {
+                    return writeCached(exchange, routeId, hit);
+                }
+            }
+
+            count(routeId, "miss");
+            long changeStamp = cache.changeStamp(routeId);
+            ServerHttpResponse capturing = new ServerHttpResponseDecorator(exchange.getResponse()) {
+                @Override
+                public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                    HttpStatusCode status = getStatusCode();
+                    if (status == null || status.value() != HttpStatus.OK.value()
+                            || getHeaders().containsKey(HttpHeaders.SET_COOKIE)) {
+                        return super.writeWith(body);
+                    }
+                    return DataBufferUtils.join(body)
+                            .map(joined -> {
+                                byte[] bytes = new byte[joined.readableByteCount()];
+                                joined.read(bytes);
+                                DataBufferUtils.release(joined);
+                                return bytes;
+                            })
+                            .defaultIfEmpty(new byte[0])
+                            .flatMap(bytes -> {
+                                SharedResponseCache.Entry entry = new SharedResponseCache.Entry(status.value(),
+                                        storedHeaders(getHeaders()), bytes, etag(bytes),
+                                        System.nanoTime() + config.getTtl().toNanos());
+                                cache.put(key, entry, changeStamp);
+                                prepareHeaders(getHeaders(), entry);
+                                if (isNotModified(request, entry.etag())) {
+                                    setStatusCode(HttpStatus.NOT_MODIFIED);
+                                    getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+                                    getHeaders().remove(HttpHeaders.CONTENT_TYPE);
+                                    return getDelegate().setComplete();
+                                }
+                                getHeaders().setContentLength(bytes.length);
+                                return getDelegate().writeWith(Mono.just(bufferFactory().wrap(bytes)));
+                            });
+                }
+            };
+            return chain.filter(exchange.mutate().response(capturing).build());
+        }, NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1);
+    }
+
+    private Mono<Void> writeCached(ServerWebExchange exchange, String routeId, SharedResponseCache.Entry entry) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.getHeaders().putAll(entry.headers());
+        prepareHeaders(response.getHeaders(), entry);
+        if (isNotModified(exchange.getRequest(), entry.etag())) {
+            count(routeId, "not_modified");
+            response.setStatusCode(HttpStatus.NOT_MODIFIED);
+            response.getHeaders().remove(HttpHeaders.CONTENT_TYPE);
+            return response.setComplete();
+        }
+        count(routeId, "hit");
+        response.setStatusCode(HttpStatusCode.valueOf(entry.status()));
+        response.getHeaders().setContentLength(entry.body().length);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(entry.body())));
+    }
+
+    // Clients keep the body and revalidate with If-None-Match, which the gateway answers itself
+    private static void prepareHeaders(HttpHeaders headers, SharedResponseCache.Entry entry) {
+        headers.setETag(entry.etag());
+        headers.setCacheControl(CLIENT_CACHE_CONTROL);
+        headers.remove(HttpHeaders.PRAGMA);
+        headers.remove(HttpHeaders.EXPIRES);
+    }
+
+    private static HttpHeaders storedHeaders(HttpHeaders headers) {
+        HttpHeaders stored = new HttpHeaders();
+        for (String name : STORED_HEADERS) {
+            List<String> values = headers.get(name);
+            if (values != null) {
+                stored.put(name, List.copyOf(values));
+            }
+        }
+        return HttpHeaders.readOnlyHttpHeaders(stored);
+    }
+
+    private static boolean isRevalidation(ServerHttpRequest request) {
+        List<String> cacheControl = request.getHeaders().get(HttpHeaders.CACHE_CONTROL);
+        return cacheControl != null && cacheControl.stream()
+                .anyMatch(value -> value.contains("no-cache") || value.contains("no-store"));
+    }
+
+    // If-None-Match uses the weak comparison, so W/ on the client's copy still matches
+    private static boolean isNotModified(ServerHttpRequest request, String etag) {
+        List<String> ifNoneMatch;
+        try {
+            ifNoneMatch = request.getHeaders().getIfNoneMatch();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch) {
+            if (candidate.equals("*") || stripWeak(candidate).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String routeId(ServerWebExchange exchange) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        return route == null ? "unknown" : route.getId();
+    }
+
+    private void count(String routeId, String result) {
+        meterRegistry.counter("gateway.response.cache.requests", "route", routeId, "result", result).increment();
+    }
+
+    @Data
+    public static class Config {
+        // How long the gateway serves a response before asking the service again
+        private Duration ttl = Duration.ofSeconds(30);
+    }
+}
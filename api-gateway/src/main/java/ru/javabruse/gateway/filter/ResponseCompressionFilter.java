@@ -0,0 +1,117 @@
+package ru.javabruse.gateway.filter;
+
+import lombok.RequiredArgsConstructor;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import ru.javabruse.gateway.compression.ResponseCompressor;
+
+// Compresses what the client gets back, whichever filter wrote it: the proxied response, a cache hit or a hedge
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "gateway.compression.enabled", havingValue = "true", matchIfMissing = true)
+public class ResponseCompressionFilter implements GlobalFilter, Ordered {
+
+    // Outside ResponseCache, so the cache keeps one uncompressed copy and its hits are compressed too
+    public static final int ORDER = NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 2;
+
+    private final ResponseCompressor compressor;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        if (exchange.getRequest().getMethod() == HttpMethod.HEAD) {
+            return chain.filter(exchange);
+        }
+        String encoding = compressor.negotiate(exchange.getRequest().getHeaders().get(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding == null) {
+            return chain.filter(exchange);
+        }
+
+        ServerHttpResponse compressing = new ServerHttpResponseDecorator(exchange.getResponse()) {
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                HttpHeaders headers = getHeaders();
+                if (!hasBody(getStatusCode()) || headers.containsKey(HttpHeaders.CONTENT_ENCODING)
+                        || !compressor.isCompressible(headers.getContentType())) {
+                    return super.writeWith(body);
+                }
+                varyOnAcceptEncoding(headers);
+                long contentLength = headers.getContentLength();
+                if (contentLength >= 0 && contentLength < compressor.minResponseSize()) {
+                    return super.writeWith(body);
+                }
+                return DataBufferUtils.join(body).flatMap(joined -> {
+                    if (joined.readableByteCount() < compressor.minResponseSize()) {
+                        return getDelegate().writeWith(Mono.just(joined));
+                    }
+                    DataBuffer compressed;
+                    try {
+                        compressed = compressor.compress(joined, encoding, routeId(exchange), bufferFactory());
+                    } catch (RuntimeException e) {
+                        DataBufferUtils.release(joined);
+                        return Mono.error(e);
+                    }
+                    // Incompressible after all, the original costs the client nothing to decode
+                    if (compressed.readableByteCount() >= joined.readableByteCount()) {
+                        DataBufferUtils.release(compressed);
+                        return getDelegate().writeWith(Mono.just(joined));
+                    }
+                    DataBufferUtils.release(joined);
+                    headers.set(HttpHeaders.CONTENT_ENCODING, encoding);
+                    headers.setContentLength(compressed.readableByteCount());
+                    weakenETag(headers);
+                    return getDelegate().writeWith(Mono.just(compressed));
+                }).switchIfEmpty(Mono.defer(() -> getDelegate().writeWith(Mono.empty())));
+            }
+        };
+        return chain.filter(exchange.mutate().response(compressing).build());
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    private static boolean hasBody(HttpStatusCode status) {
+        return status == null || !(status.is1xxInformational()
+                || status.value() == HttpStatus.NO_CONTENT.value()
+                || status.value() == HttpStatus.NOT_MODIFIED.value());
+    }
+
+    private static void varyOnAcceptEncoding(HttpHeaders headers) {
+        boolean present = headers.getVary().stream()
+                .anyMatch(name -> name.equals("*") || name.equalsIgnoreCase(HttpHeaders.ACCEPT_ENCODING));
+        if (!present) {
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+    }
+
+    // The encoded bytes differ from the identity ones, so a strong validator no longer describes them
+    private static void weakenETag(HttpHeaders headers) {
+        String etag = headers.getETag();
+        if (etag != null && !etag.startsWith("W/")) {
+            headers.setETag("W/" + etag);
+        }
+    }
+
+    private static String routeId(ServerWebExchange exchange) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        return route == null ? "unknown" : route.getId();
+    }
+}
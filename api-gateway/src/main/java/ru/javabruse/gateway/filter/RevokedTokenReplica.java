@@ -0,0 +1,150 @@
+package ru.javabruse.gateway.filter;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerUriTools;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import ru.javabruse.dto.RevokedTokenDto;
+import ru.javabruse.service.InternalIdentityService;
+import ru.javabruse.service.JwtTokenService;
+import ru.javabruse.util.RevocationSet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+
+// Copy of booking-service's revoked access tokens, polled so a logged-out token is refused here before it
+// reaches any service, hotel-service included. Until the next poll a revocation made elsewhere is not seen
+@Slf4j
+@Component
+public class RevokedTokenReplica {
+
+    private static final String SERVICE_NAME = "api-gateway";
+    private static final TypeReference<List<RevokedTokenDto>> PAGE = new TypeReference<>() {
+    };
+    // Rows revoked this long before the newest one seen are read again, in case one committed late
+    private static final Duration COMMIT_LAG = Duration.ofSeconds(10);
+
+    private final RevocationSet revoked;
+    private final URI source;
+    private final int pageSize;
+    private final Duration timeout;
+    private final LoadBalancerClientFactory clientFactory;
+    private final HttpClient httpClient;
+    private final InternalIdentityService internalIdentityService;
+    private final ObjectMapper objectMapper;
+    private volatile LocalDateTime syncedUntil = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    public RevokedTokenReplica(@Value("${gateway.revocation.source:lb://booking-service/api/user/revocations}") URI source,
+                               @Value("${gateway.revocation.page-size:500}") int pageSize,
+                               @Value("${gateway.revocation.timeout-ms:2000}") long timeoutMs,
+                               @Value("${gateway.revocation.bucket-seconds:300}") long bucketSeconds,
+                               @Value("${gateway.revocation.bloom-bits-per-bucket:65536}") int bloomBits,
+                               LoadBalancerClientFactory clientFactory,
+                               HttpClient httpClient,
+                               InternalIdentityService internalIdentityService,
+                               ObjectMapper objectMapper,
+                               MeterRegistry meterRegistry) {
+        this.revoked = new RevocationSet(Duration.ofSeconds(bucketSeconds), bloomBits);
+        this.source = source;
+        this.pageSize = pageSize;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.clientFactory = clientFactory;
+        this.httpClient = httpClient;
+        this.internalIdentityService = internalIdentityService;
+        this.objectMapper = objectMapper;
+        Gauge.builder("gateway.auth.revoked.tokens", revoked, RevocationSet::size)
+                .description("Revoked access tokens copied from booking-service that have not expired yet")
+                .register(meterRegistry);
+    }
+
+    public boolean isRevoked(JwtTokenService.VerifiedToken token) {
+        return token.tokenId() != null && token.expiresAt() != null
+                && revoked.isRevoked(token.tokenId(), token.expiresAt());
+    }
+
+    @Scheduled(fixedDelayString = "${gateway.revocation.sync-interval-ms:1000}")
+    public void sync() {
+        try {
+            LocalDateTime since = syncedUntil.minus(COMMIT_LAG);
+            long afterId = 0;
+            List<RevokedTokenDto> page;
+            do {
+                page = fetch(since, afterId);
+                for (RevokedTokenDto token : page) {
+                    revoked.revoke(token.getTokenId(), token.getExpiresAt());
+                    since = token.getRevokedAt();
+                    afterId = token.getId();
+                }
+            } while (page.size() == pageSize);
+            if (since.isAfter(syncedUntil)) {
+                syncedUntil = since;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to sync revoked tokens from {}: {}", source, e.getMessage());
+        }
+        revoked.purgeExpired(Instant.now());
+    }
+
+    private List<RevokedTokenDto> fetch(LocalDateTime since, long afterId) {
+        URI target = UriComponentsBuilder.fromUri(source)
+                .queryParam("since", since.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                .queryParam("afterId", afterId)
+                .queryParam("limit", pageSize)
+                .build()
+                .toUri();
+        Map<String, String> identity = internalIdentityService.signService(SERVICE_NAME);
+        byte[] body = resolve(target)
+                .flatMap(uri -> httpClient
+                        .headers(headers -> identity.forEach(headers::set))
+                        .get()
+                        .uri(uri)
+                        .responseSingle((response, content) -> {
+                            int status = response.status().code();
+                            if (status != 200) {
+                                return Mono.error(new IllegalStateException("Status " + status));
+                            }
+                            return content.asByteArray();
+                        }))
+                .block(timeout);
+        try {
+            return body == null ? List.of() : objectMapper.readValue(body, PAGE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Mono<URI> resolve(URI target) {
+        if (!"lb".equals(target.getScheme())) {
+            return Mono.just(target);
+        }
+        String serviceId = target.getHost();
+        ReactorServiceInstanceLoadBalancer loadBalancer =
+                clientFactory.getInstance(serviceId, ReactorServiceInstanceLoadBalancer.class);
+        if (loadBalancer == null) {
+            return Mono.error(new IllegalStateException("No load balancer for " + serviceId));
+        }
+        return loadBalancer.choose()
+                .filter(Response::hasServer)
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("No instance of " + serviceId)))
+                .map(response -> LoadBalancerUriTools.reconstructURI(response.getServer(),
+                        UriComponentsBuilder.fromUri(target).scheme("http").build(true).toUri()));
+    }
+}
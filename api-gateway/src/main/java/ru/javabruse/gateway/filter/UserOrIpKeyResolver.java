@@ -0,0 +1,45 @@
+package ru.javabruse.gateway.filter;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.ratelimit.KeyResolver;
+import org.springframework.cloud.gateway.support.ipresolver.RemoteAddressResolver;
+import org.springframework.cloud.gateway.support.ipresolver.XForwardedRemoteAddressResolver;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import ru.javabruse.service.InternalIdentityService;
+
+import java.net.InetSocketAddress;
+
+// Runs after JwtRelayFilter, so an identity header here was signed by this gateway
+@Primary
+@Component
+public class UserOrIpKeyResolver implements KeyResolver {
+
+    public static final String USER_PREFIX = "user:";
+    public static final String IP_PREFIX = "ip:";
+
+    private final RemoteAddressResolver remoteAddressResolver;
+
+    public UserOrIpKeyResolver(@Value("${gateway.rate-limit.trusted-proxies:0}") int trustedProxies) {
+        // X-Forwarded-For is only believed for the hops we run ourselves
+        this.remoteAddressResolver = trustedProxies > 0
+                ? XForwardedRemoteAddressResolver.maxTrustedIndex(trustedProxies)
+                : new RemoteAddressResolver() {
+                };
+    }
+
+    @Override
+    public Mono<String> resolve(ServerWebExchange exchange) {
+        String userId = exchange.getRequest().getHeaders().getFirst(InternalIdentityService.USER_ID_HEADER);
+        if (userId != null) {
+            return Mono.just(USER_PREFIX + userId);
+        }
+        InetSocketAddress address = remoteAddressResolver.resolve(exchange);
+        if (address == null || address.getAddress() == null) {
+            return Mono.just(IP_PREFIX + "unknown");
+        }
+        return Mono.just(IP_PREFIX + address.getAddress().getHostAddress());
+    }
+}
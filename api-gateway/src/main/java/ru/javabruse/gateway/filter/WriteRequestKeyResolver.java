@@ -0,0 +1,30 @@
+package ru.javabruse.gateway.filter;
+
+import org.springframework.cloud.gateway.filter.ratelimit.KeyResolver;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.Set;
+
+// Limits only the writes of a route: reads get no key and, with deny-empty-key off, pass unmetered
+@Component
+public class WriteRequestKeyResolver implements KeyResolver {
+
+    private static final Set<HttpMethod> READS = Set.of(HttpMethod.GET, HttpMethod.HEAD, HttpMethod.OPTIONS);
+
+    private final UserOrIpKeyResolver userOrIpKeyResolver;
+
+    public WriteRequestKeyResolver(UserOrIpKeyResolver userOrIpKeyResolver) {
+        this.userOrIpKeyResolver = userOrIpKeyResolver;
+    }
+
+    @Override
+    public Mono<String> resolve(ServerWebExchange exchange) {
+        if (READS.contains(exchange.getRequest().getMethod())) {
+            return Mono.empty();
+        }
+        return userOrIpKeyResolver.resolve(exchange);
+    }
+}
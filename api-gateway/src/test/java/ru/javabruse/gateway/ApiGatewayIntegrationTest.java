@@ -0,0 +1,489 @@
+package ru.javabruse.gateway;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import ru.javabruse.gateway.cache.SharedResponseCache;
+import ru.javabruse.service.InternalIdentityService;
+import ru.javabruse.service.JwtTokenService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureWebTestClient
+@ActiveProfiles("test")
+class ApiGatewayIntegrationTest {
+
+    private static final StubBackend backend = StubBackend.start(0);
+    private static final StubBackend fastInstance = StubBackend.start(0);
+    private static final StubBackend slowInstance = StubBackend.start(3000);
+    private static final StubBackend steadyInstance = StubBackend.start(0);
+    private static final StubBackend pausingInstance = StubBackend.start(300);
+    // Stands in for booking-service's feed of revoked access tokens
+    private static final AtomicReference<String> revocations = new AtomicReference<>("[]");
+    private static final HttpServer revocationFeed = startRevocationFeed();
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private JwtTokenService jwtTokenService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // The rate limiter's buckets never refill during the run, however slowly the requests go out
+    @TestConfiguration
+    static class FixedClockConfig {
+        @Bean
+        Clock clock() {
+            return Clock.fixed(Instant.parse("2026-01-01T00:00:00Z"), ZoneOffset.UTC);
+        }
+    }
+
+    @DynamicPropertySource
+    static void backendProperties(DynamicPropertyRegistry registry) {
+        registry.add("test.backend-port", backend::port);
+        registry.add("test.fast-instance-port", fastInstance::port);
+        registry.add("test.slow-instance-port", slowInstance::port);
+        registry.add("test.steady-instance-port", steadyInstance::port);
+        registry.add("test.pausing-instance-port", pausingInstance::port);
+        registry.add("test.revocation-port", () -> revocationFeed.getAddress().getPort());
+    }
+
+    @AfterAll
+    static void stopBackend() {
+        backend.stop();
+        fastInstance.stop();
+        slowInstance.stop();
+        steadyInstance.stop();
+        pausingInstance.stop();
+        revocationFeed.stop(0);
+    }
+
+    @Test
+    void testRateLimitIsPerClientIpAndPerUser() {
+        double rejectedBefore = rejected("booking-service-user", "ip");
+
+        // The test route allows a burst of two, then one request per second of the fixed clock, i.e. none
+        for (int i = 0; i < 2; i++) {
+            webTestClient.post().uri("/api/user/auth")
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+        webTestClient.post().uri("/api/user/auth")
+                .exchange()
+                .expectStatus().isEqualTo(429)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "1");
+        assertEquals(rejectedBefore + 1, rejected("booking-service-user", "ip"));
+
+        // Same address, but a signed-in user is limited on their own bucket
+        String token = jwtTokenService.generateToken(4501L, "ratelimited", "USER");
+        webTestClient.get().uri("/api/user/me")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                .exchange()
+                .expectStatus().isOk();
+        assertEquals("4501", backend.lastHeaders().getFirst(InternalIdentityService.USER_ID_HEADER));
+
+        // Routes without a limiter are not affected
+        for (int i = 0; i < 5; i++) {
+            webTestClient.get().uri("/api/hotels")
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+    }
+
+    @Test
+    void testHotelWritesAreRateLimitedButReadsAreNot() {
+        String token = jwtTokenService.generateToken(4701L, "hoteladmin", "ADMIN");
+        // The test routes allow a burst of two writes per user
+        for (int i = 0; i < 2; i++) {
+            webTestClient.post().uri("/api/hotels")
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+        webTestClient.post().uri("/api/hotels")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                .exchange()
+                .expectStatus().isEqualTo(429);
+        for (int i = 0; i < 5; i++) {
+            webTestClient.get().uri("/api/hotels?city=limited")
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+        assertEquals(1, rejected("hotel-service-hotels", "user"));
+    }
+
+    @Test
+    void testRevokedTokenIsRefusedAtTheGateway() throws InterruptedException {
+        String token = jwtTokenService.generateToken(4601L, "loggedout", "USER");
+        webTestClient.get().uri("/api/booking/1")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                .exchange()
+                .expectStatus().isOk();
+
+        // Logged out on booking-service: the gateway picks it up from the feed and stops relaying the token
+        JwtTokenService.VerifiedToken verified = jwtTokenService.verify(token);
+        revocations.set("[{\"id\":1,\"tokenId\":\"" + verified.tokenId() + "\",\"expiresAt\":\""
+                + verified.expiresAt() + "\",\"revokedAt\":\"2026-01-01T00:00:00\"}]");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        int status;
+        do {
+            Thread.sleep(50);
+            status = webTestClient.get().uri("/api/booking/1")
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                    .exchange()
+                    .returnResult(String.class).getStatus().value();
+        } while (status != 401 && System.nanoTime() < deadline);
+        assertEquals(401, status);
+
+        // The feed itself is for the gateway only
+        webTestClient.get().uri("/api/user/revocations?since=2026-01-01T00:00:00")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    void testCatalogResponsesAreCachedWithEtags() throws InterruptedException {
+        int before = backend.requests("GET /api/rooms/recommend");
+
+        String etag = webTestClient.get().uri("/api/rooms/recommend")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().cacheControl(CacheControl.noCache().cachePublic())
+                .expectBody(String.class).isEqualTo("{\"path\":\"/api/rooms/recommend\"}")
+                .returnResult().getResponseHeaders().getETag();
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\""));
+
+        webTestClient.get().uri("/api/rooms/recommend")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, etag)
+                .expectBody(String.class).isEqualTo("{\"path\":\"/api/rooms/recommend\"}");
+        webTestClient.get().uri("/api/rooms/recommend")
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+        assertEquals(before + 1, backend.requests("GET /api/rooms/recommend"));
+
+        // Another representation is a separate entry
+        webTestClient.get().uri("/api/rooms/recommend")
+                .header(HttpHeaders.ACCEPT, "application/x-jackson-smile")
+                .exchange()
+                .expectStatus().isOk();
+        assertEquals(before + 2, backend.requests("GET /api/rooms/recommend"));
+
+        // The test route keeps entries for one second
+        Thread.sleep(1100);
+        webTestClient.get().uri("/api/rooms/recommend")
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange()
+                .expectStatus().isNotModified();
+        assertEquals(before + 3, backend.requests("GET /api/rooms/recommend"));
+        assertTrue(meterRegistry.get("gateway.response.cache.requests")
+                .tag("route", "hotel-service-rooms-catalog")
+                .tag("result", "not_modified")
+                .counter().count() >= 1);
+    }
+
+    @Test
+    void testLargeJsonIsCompressedAndCachedOnce() throws IOException {
+        String expected = StubBackend.body("/api/rooms", "items=200");
+        byte[] gzipped = webTestClient.get().uri("/api/rooms?items=200")
+                .header(HttpHeaders.ACCEPT_ENCODING, "br;q=1.0, gzip;q=0.8")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectHeader().values(HttpHeaders.VARY, vary -> assertTrue(vary.contains(HttpHeaders.ACCEPT_ENCODING)))
+                .expectHeader().value(HttpHeaders.ETAG, etag -> assertTrue(etag.startsWith("W/\"")))
+                .expectBody(byte[].class).returnResult().getResponseBody();
+        assertNotNull(gzipped);
+        assertTrue(gzipped.length * 4 < expected.length());
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            assertEquals(expected, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        int fetched = backend.requests("GET /api/rooms");
+
+        // The cache holds the identity body, so a client without gzip is served from it as is
+        webTestClient.get().uri("/api/rooms?items=200")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(HttpHeaders.CONTENT_ENCODING)
+                .expectBody(String.class).isEqualTo(expected);
+        assertEquals(fetched, backend.requests("GET /api/rooms"));
+
+        // Small bodies are not worth compressing; a key of its own keeps the other catalog tests' entries cold
+        webTestClient.get().uri("/api/rooms?items=1")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(HttpHeaders.CONTENT_ENCODING);
+
+        assertTrue(meterRegistry.get("gateway.compression.bytes.saved")
+                .tag("route", "hotel-service-rooms-catalog")
+                .tag("encoding", "gzip")
+                .counter().count() > 0);
+    }
+
+    @Test
+    void testDashboardCombinesLegsAndLeavesOutSlowOne() {
+        String token = jwtTokenService.generateToken(4502L, "dashboard", "USER");
+        long start = System.nanoTime();
+        webTestClient.get().uri("/api/dashboard?page=0")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBody()
+                .jsonPath("$.hotels.path").isEqualTo("/api/hotels")
+                .jsonPath("$.recommendedRooms.path").isEqualTo("/api/rooms/recommend")
+                .jsonPath("$.bookings").doesNotExist()
+                .jsonPath("$.failed.bookings").isEqualTo("timeout")
+                .jsonPath("$.failed.hotels").doesNotExist();
+
+        // The slow leg is cut at its own timeout instead of holding the page for three seconds
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1500);
+        assertEquals("4502", backend.lastHeaders().getFirst(InternalIdentityService.USER_ID_HEADER));
+    }
+
+    @Test
+    void testWriteThroughRouteEvictsCachedResponses() {
+        // A query no other test sends, so the first read is a miss whatever ran before
+        String uri = "/api/hotels?city=write-through";
+        int before = backend.requests("GET /api/hotels");
+        webTestClient.get().uri(uri).exchange().expectStatus().isOk();
+        webTestClient.get().uri(uri).exchange().expectStatus().isOk();
+        assertEquals(before + 1, backend.requests("GET /api/hotels"));
+
+        webTestClient.post().uri("/api/hotels").exchange().expectStatus().isOk();
+        webTestClient.get().uri(uri).exchange().expectStatus().isOk();
+        assertEquals(before + 2, backend.requests("GET /api/hotels"));
+    }
+
+    @Test
+    void testResponseFetchedBeforeWriteIsNotCached() {
+        SharedResponseCache cache = new SharedResponseCache(10, 1 << 20, 1 << 20, new SimpleMeterRegistry());
+        SharedResponseCache.Key key = new SharedResponseCache.Key("hotels", "/api/hotels", "application/json");
+        SharedResponseCache.Entry stale = new SharedResponseCache.Entry(200, new HttpHeaders(),
+                "{}".getBytes(StandardCharsets.UTF_8), "\"stale\"", System.nanoTime() + Duration.ofMinutes(1).toNanos());
+
+        // A read misses, a write through the route lands while it is in flight, then the read's body comes back
+        long changeStamp = cache.changeStamp("hotels");
+        cache.evictRoute("hotels");
+        cache.put(key, stale, changeStamp);
+        assertTrue(cache.get(key, System.nanoTime()).isEmpty());
+
+        cache.put(key, stale, cache.changeStamp("hotels"));
+        assertTrue(cache.get(key, System.nanoTime()).isPresent());
+    }
+
+    @Test
+    void testInternalHotelRoutesAreNotExposed() {
+        webTestClient.get().uri("/api/rooms/blocks?before=2026-01-01T00:00:00")
+                .exchange()
+                .expectStatus().isNotFound();
+        webTestClient.post().uri("/api/rooms/5/release?requestId=r-1")
+                .exchange()
+                .expectStatus().isNotFound();
+        webTestClient.post().uri("/api/rooms/release/batch")
+                .exchange()
+                .expectStatus().isNotFound();
+
+        assertEquals(0, fastInstance.requests("GET /api/rooms/blocks") + slowInstance.requests("GET /api/rooms/blocks"));
+        assertEquals(0, fastInstance.requests("POST /api/rooms/5/release") + slowInstance.requests("POST /api/rooms/5/release"));
+    }
+
+    @Test
+    void testSlowInstanceIsHedgedToAnotherOne() {
+        double sentBefore = hedges("sent");
+        double wonBefore = hedges("won");
+
+        // Until the balancer has timed the slow instance it is picked as often as the fast one
+        int sent = 0;
+        while (hedges("won") == wonBefore && sent < 12) {
+            long start = System.nanoTime();
+            webTestClient.get().uri("/api/rooms/changes?sinceVersion=" + sent)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody(String.class).isEqualTo("{\"path\":\"/api/rooms/changes\"}");
+            assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2000);
+            sent++;
+        }
+
+        assertEquals(sentBefore + 1, hedges("sent"));
+        assertEquals(wonBefore + 1, hedges("won"));
+        assertEquals(sent, fastInstance.requests("GET /api/rooms/changes"));
+    }
+
+    @Test
+    void testBalancerStopsPickingInstanceThatPauses() {
+        // Warm the proxy path up so the first timed call is not dominated by class loading
+        webTestClient.get().uri("/api/hotels").exchange().expectStatus().isOk();
+
+        // The first call that lands on the pausing instance gives the balancer its latency
+        int calls = 0;
+        while (pausingInstance.requests("GET /api/bookings") == 0 && calls < 20) {
+            webTestClient.get().uri("/api/bookings").exchange().expectStatus().isOk();
+            calls++;
+        }
+        assertEquals(1, pausingInstance.requests("GET /api/bookings"));
+
+        // Round robin would still send it every other request
+        int steadyBefore = steadyInstance.requests("GET /api/bookings");
+        for (int i = 0; i < 10; i++) {
+            webTestClient.get().uri("/api/bookings").exchange().expectStatus().isOk();
+        }
+        assertEquals(1, pausingInstance.requests("GET /api/bookings"));
+        assertEquals(steadyBefore + 10, steadyInstance.requests("GET /api/bookings"));
+    }
+
+    private double hedges(String outcome) {
+        return meterRegistry.get("gateway.hedge.requests")
+                .tag("route", "hotel-service-rooms")
+                .tag("outcome", outcome)
+                .counter().count();
+    }
+
+    private double rejected(String route, String keyType) {
+        Counter counter = meterRegistry.find("gateway.ratelimit.rejected")
+                .tag("route", route)
+                .tag("key", keyType)
+                .counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private static HttpServer startRevocationFeed() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/api/user/revocations", exchange -> {
+                byte[] body = revocations.get().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Answers every request with a small JSON body (optionally late), counts requests and remembers the last headers
+    static final class StubBackend {
+        private final HttpServer server;
+        private final AtomicReference<Headers> lastHeaders = new AtomicReference<>();
+        private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+        private final long delayMillis;
+
+        private StubBackend(HttpServer server, long delayMillis) {
+            this.server = server;
+            this.delayMillis = delayMillis;
+        }
+
+        static StubBackend start(long delayMillis) {
+            try {
+                HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+                StubBackend backend = new StubBackend(server, delayMillis);
+                server.createContext("/", backend::handle);
+                server.setExecutor(Executors.newCachedThreadPool());
+                server.start();
+                return backend;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        Headers lastHeaders() {
+            return lastHeaders.get();
+        }
+
+        int requests(String methodAndPath) {
+            AtomicInteger count = requests.get(methodAndPath);
+            return count == null ? 0 : count.get();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        // items=N in the query adds a list of N rooms, like a catalog page
+        static String body(String path, String query) {
+            if (query == null || !query.startsWith("items=")) {
+                return "{\"path\":\"" + path + "\"}";
+            }
+            StringBuilder body = new StringBuilder("{\"path\":\"" + path + "\",\"items\":[");
+            int items = Integer.parseInt(query.substring("items=".length()));
+            for (int i = 0; i < items; i++) {
+                body.append(i == 0 ? "" : ",")
+                        .append("{\"id\":").append(i).append(",\"number\":\"").append(100 + i)
+                        .append("\",\"available\":true,\"timesBooked\":").append(i % 7).append('}');
+            }
+            return body.append("]}").toString();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            lastHeaders.set(exchange.getRequestHeaders());
+            requests.computeIfAbsent(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath(),
+                    key -> new AtomicInteger()).incrementAndGet();
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body = body(exchange.getRequestURI().getPath(), exchange.getRequestURI().getQuery())
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
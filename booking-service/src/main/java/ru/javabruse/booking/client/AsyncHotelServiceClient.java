@@ -0,0 +1,14 @@
+package ru.javabruse.booking.client;
+
+import ru.javabruse.dto.RoomAvailabilityRequest;
+
+import java.util.concurrent.CompletableFuture;
+
+// Non-blocking counterpart of HotelServiceClient for reconciliation, which repairs many bookings side by side.
+// Booking requests stay on Feign: they need the answer inside their transaction anyway
+public interface AsyncHotelServiceClient {
+
+    CompletableFuture<Boolean> confirmRoomAvailability(Long id, RoomAvailabilityRequest request);
+
+    CompletableFuture<Void> releaseRoom(Long id, String requestId);
+}
@@ -2,20 +2,44 @@ package ru.javabruse.booking.client;
 
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.*;
+import ru.javabruse.dto.RoomAvailabilityBatchRequest;
 import ru.javabruse.dto.RoomAvailabilityRequest;
+import ru.javabruse.dto.RoomBlockDto;
+import ru.javabruse.dto.RoomCatalogDelta;
 import ru.javabruse.dto.RoomDto;
+import ru.javabruse.util.InternalMediaTypes;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
+// Internal routes exchange Smile instead of JSON; hotel-service still serves JSON to everyone else
 @FeignClient(name = "hotel-management-service")
 public interface HotelServiceClient {
 
-    @PostMapping("/api/rooms/{id}/confirm-availability")
+    @PostMapping(value = "/api/rooms/{id}/confirm-availability",
+            consumes = InternalMediaTypes.SMILE_VALUE, produces = InternalMediaTypes.SMILE_VALUE)
     Boolean confirmRoomAvailability(@PathVariable("id") Long id, @RequestBody RoomAvailabilityRequest request);
 
     @PostMapping("/api/rooms/{id}/release")
     void releaseRoom(@PathVariable("id") Long id, @RequestParam("requestId") String requestId);
 
-    @GetMapping("/api/rooms/recommend")
+    @PostMapping(value = "/api/rooms/confirm-availability/batch",
+            consumes = InternalMediaTypes.SMILE_VALUE, produces = InternalMediaTypes.SMILE_VALUE)
+    Boolean confirmRoomAvailabilityBatch(@RequestBody RoomAvailabilityBatchRequest request);
+
+    @PostMapping(value = "/api/rooms/release/batch", consumes = InternalMediaTypes.SMILE_VALUE)
+    void releaseRooms(@RequestBody List<String> requestIds);
+
+    @GetMapping(value = "/api/rooms/blocks", produces = InternalMediaTypes.SMILE_VALUE)
+    List<RoomBlockDto> getRoomBlocks(@RequestParam("afterRequestId") String afterRequestId,
+                                     @RequestParam("before") LocalDateTime before,
+                                     @RequestParam("limit") int limit);
+
+    @GetMapping(value = "/api/rooms/recommend", produces = InternalMediaTypes.SMILE_VALUE)
     List<RoomDto> getRecommendedRooms();
+
+    @GetMapping(value = "/api/rooms/changes", produces = InternalMediaTypes.SMILE_VALUE)
+    RoomCatalogDelta getRoomCatalogChanges(@RequestParam("sinceVersion") long sinceVersion,
+                                           @RequestParam("afterId") long afterId,
+                                           @RequestParam("limit") int limit);
 }
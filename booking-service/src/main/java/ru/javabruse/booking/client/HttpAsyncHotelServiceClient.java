@@ -0,0 +1,131 @@
+package ru.javabruse.booking.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponentsBuilder;
+import ru.javabruse.dto.RoomAvailabilityRequest;
+import ru.javabruse.loadbalancer.InstanceLoadTracker;
+import ru.javabruse.service.InternalIdentityService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+// java.net.http keeps a pool of keep-alive connections per host and completes requests
+// without parking a thread per call; instances are picked through the Spring Cloud load balancer.
+@Component
+public class HttpAsyncHotelServiceClient implements AsyncHotelServiceClient {
+
+    private static final String SERVICE_ID = "hotel-management-service";
+    private static final TypeReference<Boolean> BOOLEAN = new TypeReference<>() {
+    };
+
+    private final LoadBalancerClient loadBalancerClient;
+    private final InstanceLoadTracker loadTracker;
+    private final ObjectMapper objectMapper;
+    private final InternalIdentityService internalIdentityService;
+    private final String serviceName;
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+
+    public HttpAsyncHotelServiceClient(LoadBalancerClient loadBalancerClient,
+                                       ObjectProvider<InstanceLoadTracker> loadTracker,
+                                       ObjectMapper objectMapper,
+                                       InternalIdentityService internalIdentityService,
+                                       @Value("${spring.application.name}") String serviceName,
+                                       @Value("${booking.async-client.connect-timeout-ms:5000}") long connectTimeoutMs,
+                                       @Value("${booking.async-client.request-timeout-ms:10000}") long requestTimeoutMs) {
+        this.loadBalancerClient = loadBalancerClient;
+        this.loadTracker = loadTracker.getIfAvailable();
+        this.objectMapper = objectMapper;
+        this.internalIdentityService = internalIdentityService;
+        this.serviceName = serviceName;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> confirmRoomAvailability(Long id, RoomAvailabilityRequest request) {
+        return post("/api/rooms/" + id + "/confirm-availability", request, BOOLEAN);
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseRoom(Long id, String requestId) {
+        // Encoded as template variables, so characters like & in a requestId cannot split the query
+        String path = UriComponentsBuilder.fromPath("/api/rooms/{id}/release")
+                .queryParam("requestId", "{requestId}")
+                .encode()
+                .buildAndExpand(id, requestId)
+                .toUriString();
+        return post(path, null, null);
+    }
+
+    private <T> CompletableFuture<T> post(String path, Object body, TypeReference<T> responseType) {
+        HttpRequest.BodyPublisher publisher;
+        try {
+            publisher = body == null
+                    ? HttpRequest.BodyPublishers.noBody()
+                    : HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return send(HttpRequest.newBuilder()
+                .POST(publisher)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE), path, responseType);
+    }
+
+    private <T> CompletableFuture<T> send(HttpRequest.Builder builder, String path, TypeReference<T> responseType) {
+        ServiceInstance instance = loadBalancerClient.choose(SERVICE_ID);
+        if (instance == null) {
+            return CompletableFuture.failedFuture(
+                    new RuntimeException("No instance of " + SERVICE_ID + " is available"));
+        }
+        builder.uri(URI.create(instance.getUri() + path))
+                .timeout(requestTimeout)
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+        internalIdentityService.signService(serviceName).forEach(builder::header);
+        HttpRequest request = builder.build();
+        // choose() alone does not go through the load balancer lifecycle, so the call is reported here
+        long start = System.nanoTime();
+        if (loadTracker != null) {
+            loadTracker.started(instance);
+        }
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, error) -> {
+                    if (loadTracker != null) {
+                        loadTracker.finished(instance, System.nanoTime() - start,
+                                error == null && response.statusCode() < 500);
+                    }
+                })
+                .thenApply(response -> {
+                    if (response.statusCode() >= 400) {
+                        throw new RuntimeException(SERVICE_ID + " responded with status " + response.statusCode()
+                                + " to " + request.method() + " " + path);
+                    }
+                    if (responseType == null || response.body().length == 0) {
+                        return null;
+                    }
+                    try {
+                        return objectMapper.readValue(response.body(), responseType);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+}
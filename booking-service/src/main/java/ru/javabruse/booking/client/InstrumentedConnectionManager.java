@@ -0,0 +1,153 @@
+package ru.javabruse.booking.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Times how long callers wait for a pooled connection and how long new connections take to open.
+// Pool sizes come from Micrometer's binder; ConnPoolControl is passed through so the client's
+// idle connection evictor still works.
+public class InstrumentedConnectionManager implements HttpClientConnectionManager, ConnPoolControl<HttpRoute> {
+
+    private final PoolingHttpClientConnectionManager delegate;
+    private final Timer leaseTimer;
+    private final Timer connectTimer;
+
+    public InstrumentedConnectionManager(PoolingHttpClientConnectionManager delegate, MeterRegistry meterRegistry,
+                                         String name) {
+        this.delegate = delegate;
+        this.leaseTimer = Timer.builder("httpcomponents.httpclient.pool.lease")
+                .description("Time spent waiting to lease a connection from the pool")
+                .tag("httpclient", name)
+                .register(meterRegistry);
+        this.connectTimer = Timer.builder("httpcomponents.httpclient.pool.connect")
+                .description("Time spent opening a new pooled connection")
+                .tag("httpclient", name)
+                .register(meterRegistry);
+        new PoolingHttpClientConnectionManagerMetricsBinder(delegate, name).bindTo(meterRegistry);
+    }
+
+    @Override
+    public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+        LeaseRequest request = delegate.lease(id, route, requestTimeout, state);
+        return new LeaseRequest() {
+            @Override
+            public ConnectionEndpoint get(Timeout timeout)
+                    throws InterruptedException, ExecutionException, TimeoutException {
+                long start = System.nanoTime();
+                try {
+                    return request.get(timeout);
+                } finally {
+                    leaseTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void release(ConnectionEndpoint endpoint, Object newState, TimeValue validDuration) {
+        delegate.release(endpoint, newState, validDuration);
+    }
+
+    @Override
+    public void connect(ConnectionEndpoint endpoint, TimeValue connectTimeout, HttpContext context) throws IOException {
+        long start = System.nanoTime();
+        try {
+            delegate.connect(endpoint, connectTimeout, context);
+        } finally {
+            connectTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void upgrade(ConnectionEndpoint endpoint, HttpContext context) throws IOException {
+        delegate.upgrade(endpoint, context);
+    }
+
+    @Override
+    public void close(CloseMode closeMode) {
+        delegate.close(closeMode);
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public void setMaxTotal(int max) {
+        delegate.setMaxTotal(max);
+    }
+
+    @Override
+    public int getMaxTotal() {
+        return delegate.getMaxTotal();
+    }
+
+    @Override
+    public void setDefaultMaxPerRoute(int max) {
+        delegate.setDefaultMaxPerRoute(max);
+    }
+
+    @Override
+    public int getDefaultMaxPerRoute() {
+        return delegate.getDefaultMaxPerRoute();
+    }
+
+    @Override
+    public void setMaxPerRoute(HttpRoute route, int max) {
+        delegate.setMaxPerRoute(route, max);
+    }
+
+    @Override
+    public int getMaxPerRoute(HttpRoute route) {
+        return delegate.getMaxPerRoute(route);
+    }
+
+    @Override
+    public void closeIdle(TimeValue idleTime) {
+        delegate.closeIdle(idleTime);
+    }
+
+    @Override
+    public void closeExpired() {
+        delegate.closeExpired();
+    }
+
+    @Override
+    public Set<HttpRoute> getRoutes() {
+        return delegate.getRoutes();
+    }
+
+    @Override
+    public PoolStats getTotalStats() {
+        return delegate.getTotalStats();
+    }
+
+    @Override
+    public PoolStats getStats(HttpRoute route) {
+        return delegate.getStats(route);
+    }
+}
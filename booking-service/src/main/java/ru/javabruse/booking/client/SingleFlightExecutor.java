@@ -0,0 +1,161 @@
+package ru.javabruse.booking.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Collapses concurrent identical calls into one: the first caller runs it, the rest share its result
+@Component
+public class SingleFlightExecutor {
+
+    private final Set<String> enabledMethods;
+    private final long waitTimeoutMs;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, MethodStats> stats = new ConcurrentHashMap<>();
+
+    public SingleFlightExecutor(@Value("${booking.single-flight.methods:getRecommendedRooms}") List<String> methods,
+                                @Value("${booking.single-flight.wait-timeout-ms:15000}") long waitTimeoutMs,
+                                MeterRegistry meterRegistry) {
+        this.enabledMethods = Set.copyOf(methods);
+        this.waitTimeoutMs = waitTimeoutMs;
+        this.meterRegistry = meterRegistry;
+    }
+
+    // Routes the client's calls through single-flight, keyed by method name and arguments
+    @SuppressWarnings("unchecked")
+    public <T> T wrap(Class<T> type, T target) {
+        Set<String> methods = Arrays.stream(type.getMethods()).map(Method::getName).collect(Collectors.toSet());
+        Set<String> unknown = enabledMethods.stream()
+                .filter(method -> !methods.contains(method))
+                .collect(Collectors.toSet());
+        if (!unknown.isEmpty()) {
+            throw new IllegalStateException("Single-flight methods not found on " + type.getSimpleName() + ": " + unknown);
+        }
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return invoke(method, target, args);
+            }
+            List<Object> arguments = args == null ? List.of() : Arrays.asList(args);
+            return execute(method.getName(), arguments, () -> invoke(method, target, args));
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String method, Object key, Supplier<T> call) {
+        if (!enabledMethods.contains(method)) {
+            return call.get();
+        }
+        MethodStats methodStats = stats.computeIfAbsent(method, this::register);
+        methodStats.calls.increment();
+
+        String flightKey = method + ":" + key;
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> leader = inFlight.putIfAbsent(flightKey, mine);
+        if (leader != null) {
+            methodStats.coalesced.increment();
+            return (T) await(flightKey, leader);
+        }
+
+        T result = null;
+        Throwable failure = null;
+        try {
+            result = call.get();
+            return result;
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            // Whatever the leader ends with, errors included, the entry goes and the followers are released.
+            // Removed before completing so late arrivals start a fresh call instead of reusing this result.
+            inFlight.remove(flightKey, mine);
+            if (failure == null) {
+                mine.complete(result);
+            } else {
+                mine.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new UndeclaredThrowableException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Bounded, so a leader stuck past the client's own timeouts cannot hold its followers forever
+    private Object await(String flightKey, CompletableFuture<Object> leader) {
+        try {
+            return leader.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Timed out after " + waitTimeoutMs + "ms waiting for in-flight " + flightKey);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for in-flight " + flightKey, e);
+        }
+    }
+
+    private MethodStats register(String method) {
+        MethodStats methodStats = new MethodStats();
+        FunctionCounter.builder("hotel.client.single-flight.calls", methodStats.calls, LongAdder::sum)
+                .description("Calls routed through single-flight")
+                .tag("method", method)
+                .register(meterRegistry);
+        FunctionCounter.builder("hotel.client.single-flight.coalesced", methodStats.coalesced, LongAdder::sum)
+                .description("Calls that shared an in-flight result instead of hitting hotel-service")
+                .tag("method", method)
+                .register(meterRegistry);
+        Gauge.builder("hotel.client.single-flight.coalescing.ratio", methodStats, MethodStats::ratio)
+                .description("Share of calls served by another call's in-flight request")
+                .tag("method", method)
+                .register(meterRegistry);
+        return methodStats;
+    }
+
+    private static final class MethodStats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+
+        private double ratio() {
+            long total = calls.sum();
+            return total == 0 ? 0 : (double) coalesced.sum() / total;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ru.javabruse.booking.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.util.TimeValue;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.cloud.openfeign.clientconfig.HttpClient5FeignConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.javabruse.booking.client.InstrumentedConnectionManager;
+
+// Feign runs on the pooled Apache HttpClient 5 set up by Spring Cloud OpenFeign
+// (spring.cloud.openfeign.httpclient.*); this adds pool metrics and idle eviction on top.
+@Configuration
+public class FeignHttpClientConfig {
+
+    private static final String POOL_NAME = "feign";
+
+    @Bean
+    public static BeanPostProcessor feignConnectionManagerInstrumentation(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof PoolingHttpClientConnectionManager pool) {
+                    return new InstrumentedConnectionManager(pool, meterRegistry.getObject(), POOL_NAME);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public HttpClient5FeignConfiguration.HttpClientBuilderCustomizer feignIdleConnectionEviction(
+            @Value("${booking.http-client.idle-eviction-seconds:30}") long idleEvictionSeconds) {
+        return builder -> builder.evictIdleConnections(TimeValue.ofSeconds(idleEvictionSeconds));
+    }
+}
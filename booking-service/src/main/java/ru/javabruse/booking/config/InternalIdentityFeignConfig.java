@@ -0,0 +1,18 @@
+package ru.javabruse.booking.config;
+
+import feign.RequestInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.javabruse.service.InternalIdentityService;
+
+// hotel-service accepts its internal routes only from callers presenting the signed service identity
+@Configuration
+public class InternalIdentityFeignConfig {
+
+    @Bean
+    public RequestInterceptor internalIdentityInterceptor(InternalIdentityService internalIdentityService,
+                                                          @Value("${spring.application.name}") String serviceName) {
+        return template -> internalIdentityService.signService(serviceName).forEach(template::header);
+    }
+}
@@ -1,59 +1,57 @@
 package ru.javabruse.booking.config;
 
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.security.Keys;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
+import ru.javabruse.booking.service.TokenRevocationService;
+import ru.javabruse.service.InternalIdentityService;
+import ru.javabruse.service.JwtTokenService;
 
-import javax.crypto.SecretKey;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Component
 @RequiredArgsConstructor
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
-    @Value("${jwt.secret}")
-    private String jwtSecret;
+    private final JwtTokenService jwtTokenService;
+    private final InternalIdentityService internalIdentityService;
+    private final TokenRevocationService tokenRevocationService;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
             FilterChain filterChain) throws ServletException, IOException {
 
         String authHeader = request.getHeader("Authorization");
+        boolean internal = internalIdentityService.isPresent(request::getHeader);
 
-        if (authHeader != null && authHeader.startsWith("Bearer ")) {
-            String token = authHeader.substring(7);
-
+        if (internal || (authHeader != null && authHeader.startsWith("Bearer "))) {
             try {
-                Claims claims = Jwts.parserBuilder()
-                        .setSigningKey(getSigningKey())
-                        .build()
-                        .parseClaimsJws(token)
-                        .getBody();
-
-                String roles = claims.get("roles", String.class);
-                Long userId = claims.get("userId", Long.class);
+                // Behind the gateway the token was verified once there and arrives as signed identity headers
+                JwtTokenService.VerifiedToken verified = internal
+                        ? internalIdentityService.verify(request::getHeader)
+                        : jwtTokenService.verify(authHeader.substring(7));
+                if (tokenRevocationService.isRevoked(verified)) {
+                    throw new IllegalArgumentException("Token has been revoked");
+                }
 
-                List<SimpleGrantedAuthority> authorities = List.of(roles.split(","))
+                List<SimpleGrantedAuthority> authorities = verified.roles()
                         .stream()
-                        .map(role -> new SimpleGrantedAuthority("ROLE_" + role.trim()))
-                        .collect(Collectors.toList());
+                        .map(role -> new SimpleGrantedAuthority("ROLE_" + role))
+                        .toList();
 
-                UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                        userId.toString(), null, authorities);
+                // A service calling on its own behalf has no user id
+                String principal = verified.userId() != null ? verified.userId().toString() : verified.username();
+                UsernamePasswordAuthenticationToken authToken =
+                        new UsernamePasswordAuthenticationToken(principal, null, authorities);
+                authToken.setDetails(verified);
 
                 SecurityContextHolder.getContext().setAuthentication(authToken);
 
@@ -66,9 +64,4 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         filterChain.doFilter(request, response);
     }
-
-    private SecretKey getSigningKey() {
-        byte[] keyBytes = jwtSecret.getBytes(StandardCharsets.UTF_8);
-        return Keys.hmacShaKeyFor(keyBytes);
-    }
 }
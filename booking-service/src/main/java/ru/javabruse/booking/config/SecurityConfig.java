@@ -1,5 +1,6 @@
 package ru.javabruse.booking.config;
 
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -11,6 +12,7 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import ru.javabruse.service.InternalIdentityService;
 
 @Configuration
 @EnableWebSecurity
@@ -31,13 +33,21 @@ public class SecurityConfig {
             .headers(headers -> headers.frameOptions(frame -> frame.disable()))
             .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .authorizeHttpRequests(auth -> auth
+                        // Streaming responses finish on an async dispatch; the request was authorized on entry
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC, DispatcherType.ERROR).permitAll()
                         .requestMatchers("/h2-console/**").permitAll()
                         .requestMatchers("/swagger-ui/**", "/v3/api-docs", "/v3/api-docs/**", "/swagger-resources/**", "/webjars/**").permitAll()
-                        .requestMatchers("/api/user/register", "/api/user/auth").permitAll()
+                        .requestMatchers("/actuator/health").permitAll()
+                        // Meters carry user and route tags
+                        .requestMatchers("/actuator/**").hasRole("ADMIN")
+                        .requestMatchers("/api/user/register", "/api/user/auth", "/api/user/refresh").permitAll()
+                        .requestMatchers("/api/user/logout").authenticated()
+                        .requestMatchers("/api/user/revocations").hasRole(InternalIdentityService.SERVICE_ROLE)
+                        .requestMatchers("/api/admin/**").hasRole("ADMIN")
                         .requestMatchers("/api/user").hasRole("ADMIN")
                         .requestMatchers("/api/user/*").hasRole("ADMIN")
                         .requestMatchers("/api/booking").hasRole("USER")
-                        .requestMatchers("/api/bookings").hasRole("USER")
+                        .requestMatchers("/api/bookings", "/api/bookings/**").hasRole("USER")
                         .requestMatchers("/api/booking/*").hasRole("USER")
                         .anyRequest().authenticated()
                 )
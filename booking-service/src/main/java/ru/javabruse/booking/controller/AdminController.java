@@ -0,0 +1,40 @@
+package ru.javabruse.booking.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import ru.javabruse.booking.dto.ReconciliationRun;
+import ru.javabruse.booking.service.BookingReconciliationService;
+
+@RestController
+@RequestMapping("/api/admin")
+@RequiredArgsConstructor
+@Tag(name = "Booking Administration", description = "Maintenance operations (ADMIN only)")
+public class AdminController {
+
+    private final BookingReconciliationService reconciliationService;
+
+    @PostMapping("/reconciliation")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Start reconciling bookings with room blocks",
+            description = "Compare CONFIRMED bookings with hotel-service room blocks in the background and optionally repair the drift")
+    public ResponseEntity<ReconciliationRun> reconcile(
+            @RequestParam(value = "repair", defaultValue = "false") boolean repair) {
+        return ResponseEntity.accepted().body(reconciliationService.start(repair));
+    }
+
+    @GetMapping("/reconciliation/{runId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Get a reconciliation run", description = "Status of a run and its report once finished")
+    public ResponseEntity<ReconciliationRun> getReconciliation(@PathVariable("runId") String runId) {
+        return ResponseEntity.ok(reconciliationService.getRun(runId));
+    }
+}
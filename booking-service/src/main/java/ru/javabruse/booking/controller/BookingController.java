@@ -7,24 +7,44 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.javabruse.booking.dto.AuthResponse;
 import ru.javabruse.booking.dto.BookingDto;
 import ru.javabruse.booking.dto.BookingRequest;
+import ru.javabruse.booking.dto.CursorPage;
+import ru.javabruse.booking.dto.GroupBookingRequest;
+import ru.javabruse.booking.dto.RefreshTokenRequest;
 import ru.javabruse.booking.dto.UserLoginRequest;
 import ru.javabruse.booking.dto.UserRegistrationRequest;
-import ru.javabruse.booking.entity.User;
+import ru.javabruse.booking.dto.UserSummaryDto;
+import ru.javabruse.booking.entity.Booking;
 import ru.javabruse.booking.service.AuthService;
+import ru.javabruse.booking.service.BookingExportService;
 import ru.javabruse.booking.service.BookingService;
+import ru.javabruse.booking.service.BookingStatusBroadcaster;
+import ru.javabruse.booking.service.IdempotencyService;
+import ru.javabruse.booking.service.TokenRevocationService;
 import ru.javabruse.booking.service.UserService;
+import ru.javabruse.dto.RevokedTokenDto;
+import ru.javabruse.service.JwtTokenService;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api")
@@ -32,8 +52,16 @@ import java.util.List;
 @Tag(name = "Booking Service", description = "Booking and user management operations")
 public class BookingController {
 
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final String IDEMPOTENT_REPLAY_HEADER = "Idempotent-Replayed";
+
     private final AuthService authService;
     private final BookingService bookingService;
+    private final BookingExportService bookingExportService;
+    private final BookingStatusBroadcaster bookingStatusBroadcaster;
+    private final IdempotencyService idempotencyService;
+    private final TokenRevocationService tokenRevocationService;
     private final UserService userService;
 
     @PostMapping("/user/register")
@@ -50,14 +78,59 @@ public class BookingController {
         return ResponseEntity.ok(response);
     }
 
+    @PostMapping("/user/refresh")
+    @Operation(summary = "Refresh tokens", description = "Exchange a refresh token for a new access and refresh token; each refresh token works once")
+    public ResponseEntity<AuthResponse> refresh(@Valid @RequestBody RefreshTokenRequest request) {
+        AuthResponse response = authService.refresh(request.getRefreshToken());
+        return ResponseEntity.ok(response);
+    }
+
+    @PostMapping("/user/logout")
+    @Operation(summary = "Log out", description = "Revoke the current access token and, if given, the refresh token")
+    public ResponseEntity<Void> logout(@RequestBody(required = false) RefreshTokenRequest request,
+            Authentication authentication) {
+        if (authentication == null || !(authentication.getDetails() instanceof JwtTokenService.VerifiedToken token)) {
+            throw new AuthenticationCredentialsNotFoundException("User not authenticated");
+        }
+        authService.logout(token, request == null ? null : request.getRefreshToken());
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/user/revocations")
+    @Operation(summary = "Get revoked access tokens", description = "Revoked access tokens ordered by revocation time after the given position (INTERNAL)")
+    public ResponseEntity<List<RevokedTokenDto>> getRevocations(
+            @RequestParam("since") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime since,
+            @RequestParam(value = "afterId", defaultValue = "0") long afterId,
+            @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        return ResponseEntity.ok(tokenRevocationService.getRevokedAfter(since, afterId, Math.min(Math.max(limit, 1), 1000)));
+    }
+
     @PostMapping("/booking")
     @PreAuthorize("hasRole('USER')")
-    @Operation(summary = "Create booking", description = "Create a new booking (USER only)")
+    @Operation(summary = "Create booking", description = "Create a new booking (USER only); retries with the same Idempotency-Key return the original booking")
     public ResponseEntity<BookingDto> createBooking(@Valid @RequestBody BookingRequest request,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            Authentication authentication) {
+        Long userId = getUserIdFromAuthentication(authentication);
+        if (idempotencyKey == null) {
+            BookingDto booking = bookingService.createBooking(request, userId);
+            return ResponseEntity.status(HttpStatus.CREATED).body(booking);
+        }
+        IdempotencyService.Result result = idempotencyService.execute(userId, idempotencyKey, request,
+                requestId -> bookingService.createBooking(request, userId, requestId));
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header(IDEMPOTENT_REPLAY_HEADER, String.valueOf(result.replayed()))
+                .body(result.booking());
+    }
+
+    @PostMapping("/bookings/group")
+    @PreAuthorize("hasRole('USER')")
+    @Operation(summary = "Create group booking", description = "Book several rooms for the same period, all or nothing (USER only)")
+    public ResponseEntity<List<BookingDto>> createGroupBooking(@Valid @RequestBody GroupBookingRequest request,
             Authentication authentication) {
         Long userId = getUserIdFromAuthentication(authentication);
-        BookingDto booking = bookingService.createBooking(request, userId);
-        return ResponseEntity.status(HttpStatus.CREATED).body(booking);
+        List<BookingDto> bookings = bookingService.createGroupBooking(request, userId);
+        return ResponseEntity.status(HttpStatus.CREATED).body(bookings);
     }
 
     @GetMapping("/bookings")
@@ -73,6 +146,29 @@ public class BookingController {
         return ResponseEntity.ok(bookings);
     }
 
+    @GetMapping("/bookings/history")
+    @PreAuthorize("hasRole('USER')")
+    @Operation(summary = "Get user booking history", description = "Get booking history for current user with cursor pagination")
+    public ResponseEntity<CursorPage<BookingDto>> getUserBookingHistory(
+            Authentication authentication,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", defaultValue = "10") int size) {
+        Long userId = getUserIdFromAuthentication(authentication);
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        CursorPage<BookingDto> bookings = bookingService.getUserBookingHistory(userId, cursor, size);
+        return ResponseEntity.ok(bookings);
+    }
+
+    @GetMapping(value = "/bookings/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("hasRole('USER')")
+    @Operation(summary = "Stream booking status changes", description = "Server-Sent Events with the current user's bookings as their status changes")
+    public SseEmitter streamBookingStatus(Authentication authentication) {
+        Long userId = getUserIdFromAuthentication(authentication);
+        return bookingStatusBroadcaster.subscribe(userId);
+    }
+
     @GetMapping("/booking/{id}")
     @PreAuthorize("hasRole('USER')")
     @Operation(summary = "Get booking by ID", description = "Get specific booking by ID")
@@ -93,37 +189,92 @@ public class BookingController {
 
     @GetMapping("/user")
     @PreAuthorize("hasRole('ADMIN')")
-    @Operation(summary = "Get all users", description = "Get list of all users (ADMIN only)")
-    public ResponseEntity<List<User>> getAllUsers() {
-        List<User> users = userService.getAllUsers();
+    @Operation(summary = "Get users", description = "Get users ordered by username with cursor pagination and optional username prefix (ADMIN only)")
+    public ResponseEntity<CursorPage<UserSummaryDto>> getUsers(
+            @RequestParam(value = "usernamePrefix", required = false) String usernamePrefix,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", defaultValue = "20") int size) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        CursorPage<UserSummaryDto> users = userService.getUsers(usernamePrefix, cursor, size);
         return ResponseEntity.ok(users);
     }
 
     @PostMapping("/user")
     @PreAuthorize("hasRole('ADMIN')")
     @Operation(summary = "Create user", description = "Create a new user (ADMIN only)")
-    public ResponseEntity<User> createUser(@Valid @RequestBody UserRegistrationRequest request) {
-        User user = userService.createUser(request);
+    public ResponseEntity<UserSummaryDto> createUser(@Valid @RequestBody UserRegistrationRequest request) {
+        UserSummaryDto user = userService.createUser(request);
         return ResponseEntity.status(HttpStatus.CREATED).body(user);
     }
 
     @PatchMapping("/user/{id}")
     @PreAuthorize("hasRole('ADMIN')")
     @Operation(summary = "Update user", description = "Update user information (ADMIN only)")
-    public ResponseEntity<User> updateUser(@PathVariable Long id,
+    public ResponseEntity<UserSummaryDto> updateUser(@PathVariable("id") Long id,
             @Valid @RequestBody UserRegistrationRequest request) {
-        User user = userService.updateUser(id, request);
+        UserSummaryDto user = userService.updateUser(id, request);
         return ResponseEntity.ok(user);
     }
 
     @DeleteMapping("/user/{id}")
     @PreAuthorize("hasRole('ADMIN')")
     @Operation(summary = "Delete user", description = "Delete user (ADMIN only)")
-    public ResponseEntity<Void> deleteUser(@PathVariable Long id) {
+    public ResponseEntity<Void> deleteUser(@PathVariable("id") Long id) {
         userService.deleteUser(id);
         return ResponseEntity.ok().build();
     }
 
+    @GetMapping("/admin/bookings/export")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Export bookings", description = "Stream bookings created in the date range as CSV or NDJSON, optionally gzipped (ADMIN only)")
+    public ResponseEntity<StreamingResponseBody> exportBookings(
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(value = "status", required = false) String status,
+            @RequestParam(value = "format", defaultValue = "csv") String format,
+            @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("'to' date must not be before 'from' date");
+        }
+        BookingExportService.Format exportFormat;
+        Booking.BookingStatus statusFilter;
+        try {
+            exportFormat = BookingExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported export format: " + format);
+        }
+        try {
+            statusFilter = status == null ? null : Booking.BookingStatus.valueOf(status.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown booking status: " + status);
+        }
+
+        // Both dates are inclusive
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream gzipOut = new GZIPOutputStream(out, 64 * 1024);
+                bookingExportService.export(from.atStartOfDay(), to.plusDays(1).atStartOfDay(), statusFilter, exportFormat, gzipOut);
+                gzipOut.finish();
+            } else {
+                bookingExportService.export(from.atStartOfDay(), to.plusDays(1).atStartOfDay(), statusFilter, exportFormat, out);
+            }
+        };
+
+        String extension = exportFormat == BookingExportService.Format.CSV ? "csv" : "ndjson";
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(exportFormat == BookingExportService.Format.CSV
+                        ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                        : MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"bookings-" + from + "-" + to + "." + extension + "\"");
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
     private Long getUserIdFromAuthentication(Authentication authentication) {
         if (authentication == null || !authentication.isAuthenticated()) {
             throw new AuthenticationCredentialsNotFoundException("User not authenticated");
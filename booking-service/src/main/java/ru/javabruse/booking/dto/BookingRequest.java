@@ -27,4 +27,7 @@ public class BookingRequest {
     private LocalDateTime endDate;
     
     private Boolean autoSelect;
+    
+    // Wait for the room instead of cancelling when it is already taken
+    private Boolean waitlist;
 }
@@ -0,0 +1,39 @@
+package ru.javabruse.booking.dto;
+
+import jakarta.validation.constraints.Future;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.javabruse.booking.validation.ValidBookingDates;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ValidBookingDates
+public class GroupBookingRequest {
+    @Size(max = 50, message = "At most 50 rooms can be booked at once")
+    private List<@NotNull Long> roomIds;
+
+    @Min(value = 1, message = "Room count must be at least 1")
+    @Max(value = 50, message = "At most 50 rooms can be booked at once")
+    private Integer roomCount;
+
+    @NotNull(message = "Start date is required")
+    @Future(message = "Start date must be in the future")
+    private LocalDateTime startDate;
+
+    @NotNull(message = "End date is required")
+    @Future(message = "End date must be in the future")
+    private LocalDateTime endDate;
+
+    private Boolean autoSelect;
+}
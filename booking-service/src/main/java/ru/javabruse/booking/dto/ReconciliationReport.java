@@ -0,0 +1,29 @@
+package ru.javabruse.booking.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReconciliationReport {
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private LocalDateTime cutoff;
+    private boolean repair;
+    private long bookingsScanned;
+    private long blocksScanned;
+    // Blocks with no booking, or whose booking is no longer CONFIRMED
+    private long orphanBlocks;
+    // CONFIRMED bookings with no block in hotel-service
+    private long missingBlocks;
+    private long repaired;
+    private long repairFailures;
+    private List<String> sampleRequestIds;
+}
@@ -0,0 +1,26 @@
+package ru.javabruse.booking.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReconciliationRun {
+    private String runId;
+    private Status status;
+    private boolean repair;
+    private LocalDateTime submittedAt;
+    private String error;
+    // Set once the run has finished
+    private ReconciliationReport report;
+
+    public enum Status {
+        RUNNING, FINISHED, FAILED
+    }
+}
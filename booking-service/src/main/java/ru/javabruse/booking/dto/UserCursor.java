@@ -0,0 +1,25 @@
+package ru.javabruse.booking.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+@Getter
+@AllArgsConstructor
+public class UserCursor {
+    private final String username;
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(username.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static UserCursor decode(String token) {
+        try {
+            return new UserCursor(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
@@ -10,10 +10,11 @@ import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "bookings", indexes = {
-    @Index(name = "idx_booking_user_id", columnList = "user_id"),
+    @Index(name = "idx_booking_user_created", columnList = "user_id, created_at desc, id"),
+    @Index(name = "idx_booking_created_at", columnList = "created_at, id"),
     @Index(name = "idx_booking_room_id", columnList = "room_id"),
     @Index(name = "idx_booking_status", columnList = "status"),
-    @Index(name = "idx_booking_request_id", columnList = "requestId"),
+    @Index(name = "idx_booking_request_id", columnList = "requestId", unique = true),
     @Index(name = "idx_booking_dates", columnList = "start_date, end_date")
 })
 @Data
@@ -49,6 +50,6 @@ public class Booking {
     private String requestId;
     
     public enum BookingStatus {
-        PENDING, CONFIRMED, CANCELLED
+        PENDING, CONFIRMED, CANCELLED, WAITLISTED
     }
 }
@@ -0,0 +1,44 @@
+package ru.javabruse.booking.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "idempotency_keys",
+        uniqueConstraints = @UniqueConstraint(name = "uk_idempotency_user_key",
+                columnNames = {"user_id", "idempotency_key"}),
+        indexes = @Index(name = "idx_idempotency_created_at", columnList = "created_at"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdempotencyRecord {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "idempotency_key", nullable = false)
+    private String idempotencyKey;
+
+    @Column(nullable = false, length = 64)
+    private String requestHash;
+
+    // Fresh for every claim, so a key reused after its claim was dropped never matches an old hotel block
+    @Column(name = "request_id", nullable = false, unique = true, length = 36)
+    private String requestId;
+
+    // Null while the first request with this key is still being processed
+    @Column
+    private Long bookingId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
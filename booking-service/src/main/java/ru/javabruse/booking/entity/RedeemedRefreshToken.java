@@ -0,0 +1,37 @@
+package ru.javabruse.booking.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// A refresh token that has been exchanged or logged out; the unique jti makes a second redemption fail
+// on every instance and after restarts
+@Entity
+@Table(name = "redeemed_refresh_tokens",
+        indexes = @Index(name = "idx_redeemed_refresh_token_expires_at", columnList = "expires_at"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RedeemedRefreshToken {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "token_id", nullable = false, unique = true, length = 36)
+    private String tokenId;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    // The row is useless once the token could not be verified anyway
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    @Column(name = "redeemed_at", nullable = false)
+    private LocalDateTime redeemedAt;
+}
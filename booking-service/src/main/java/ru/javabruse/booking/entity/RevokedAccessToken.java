@@ -0,0 +1,36 @@
+package ru.javabruse.booking.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// An access token logged out before it expired; other instances and the gateway copy these into their
+// in-memory revocation sets, so the row is only read back by them, never on a request
+@Entity
+@Table(name = "revoked_access_tokens",
+        indexes = {
+                @Index(name = "idx_revoked_access_token_revoked_at", columnList = "revoked_at, id"),
+                @Index(name = "idx_revoked_access_token_expires_at", columnList = "expires_at")
+        })
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RevokedAccessToken {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "token_id", nullable = false, unique = true, length = 36)
+    private String tokenId;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    @Column(name = "revoked_at", nullable = false)
+    private LocalDateTime revokedAt;
+}
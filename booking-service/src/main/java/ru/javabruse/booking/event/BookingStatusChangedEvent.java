@@ -0,0 +1,18 @@
+package ru.javabruse.booking.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import ru.javabruse.booking.dto.BookingDto;
+
+@Getter
+@ToString
+@AllArgsConstructor
+public class BookingStatusChangedEvent {
+    private final BookingDto booking;
+    private final String previousStatus;
+
+    public boolean isNewBooking() {
+        return previousStatus == null;
+    }
+}
@@ -1,8 +1,11 @@
 package ru.javabruse.booking.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -19,8 +22,40 @@ public interface BookingRepository extends JpaRepository<Booking, Long> {
     
     Page<Booking> findByUserIdOrderByCreatedAtDesc(Long userId, Pageable pageable);
     
+    List<Booking> findByUserIdOrderByCreatedAtDescIdAsc(Long userId, Limit limit);
+    
+    @Query("SELECT b FROM Booking b WHERE b.user.id = :userId AND " +
+           "(b.createdAt < :createdAt OR (b.createdAt = :createdAt AND b.id > :id)) " +
+           "ORDER BY b.createdAt DESC, b.id ASC")
+    List<Booking> findByUserIdAfterCursor(@Param("userId") Long userId,
+                                          @Param("createdAt") LocalDateTime createdAt,
+                                          @Param("id") Long id,
+                                          Limit limit);
+    
     Optional<Booking> findByIdAndUserId(Long id, Long userId);
     
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM Booking b WHERE b.id = :id")
+    Optional<Booking> findByIdForUpdate(@Param("id") Long id);
+    
+    List<Booking> findByStatus(Booking.BookingStatus status);
+    
+    List<Booking> findByStatusAndStartDateBefore(Booking.BookingStatus status, LocalDateTime startDate);
+    
+    @Query("SELECT w FROM Booking w WHERE w.status = 'WAITLISTED' AND w.startDate > :now AND w.id > :afterId AND " +
+           "NOT EXISTS (SELECT b FROM Booking b WHERE b.roomId = w.roomId AND b.status = 'CONFIRMED' AND " +
+           "b.startDate <= w.endDate AND b.endDate >= w.startDate) " +
+           "ORDER BY w.id")
+    List<Booking> findPromotableWaitlisted(@Param("now") LocalDateTime now,
+                                           @Param("afterId") Long afterId,
+                                           Limit limit);
+    
+    @Query("SELECT b FROM Booking b WHERE b.requestId > :afterRequestId AND b.createdAt < :before " +
+           "ORDER BY b.requestId")
+    List<Booking> findForReconciliation(@Param("afterRequestId") String afterRequestId,
+                                        @Param("before") LocalDateTime before,
+                                        Limit limit);
+    
     @Query("SELECT b FROM Booking b WHERE b.requestId = :requestId")
     Optional<Booking> findByRequestId(@Param("requestId") String requestId);
     
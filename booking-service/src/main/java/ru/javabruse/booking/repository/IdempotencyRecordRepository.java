@@ -0,0 +1,28 @@
+package ru.javabruse.booking.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.javabruse.booking.entity.IdempotencyRecord;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, Long> {
+    Optional<IdempotencyRecord> findByUserIdAndIdempotencyKey(Long userId, String idempotencyKey);
+
+    @Modifying
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.createdAt < :cutoff")
+    int deleteOlderThan(@Param("cutoff") LocalDateTime cutoff);
+
+    @Modifying
+    @Query("UPDATE IdempotencyRecord r SET r.bookingId = :bookingId WHERE r.id = :id AND r.bookingId IS NULL")
+    int complete(@Param("id") Long id, @Param("bookingId") Long bookingId);
+
+    @Modifying
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.id = :id AND r.bookingId IS NULL AND r.createdAt < :cutoff")
+    int deleteStaleClaim(@Param("id") Long id, @Param("cutoff") LocalDateTime cutoff);
+}
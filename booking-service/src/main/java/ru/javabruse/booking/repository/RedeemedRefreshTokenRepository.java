@@ -0,0 +1,19 @@
+package ru.javabruse.booking.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.javabruse.booking.entity.RedeemedRefreshToken;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface RedeemedRefreshTokenRepository extends JpaRepository<RedeemedRefreshToken, Long> {
+    boolean existsByTokenId(String tokenId);
+
+    @Modifying
+    @Query("DELETE FROM RedeemedRefreshToken t WHERE t.expiresAt < :cutoff")
+    int deleteExpired(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -0,0 +1,27 @@
+package ru.javabruse.booking.repository;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.javabruse.booking.entity.RevokedAccessToken;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface RevokedAccessTokenRepository extends JpaRepository<RevokedAccessToken, Long> {
+
+    @Query("SELECT t FROM RevokedAccessToken t " +
+           "WHERE t.revokedAt > :since OR (t.revokedAt = :since AND t.id > :afterId) " +
+           "ORDER BY t.revokedAt, t.id")
+    List<RevokedAccessToken> findRevokedAfter(@Param("since") LocalDateTime since,
+                                              @Param("afterId") long afterId,
+                                              Limit limit);
+
+    @Modifying
+    @Query("DELETE FROM RevokedAccessToken t WHERE t.expiresAt < :cutoff")
+    int deleteExpired(@Param("cutoff") LocalDateTime cutoff);
+}
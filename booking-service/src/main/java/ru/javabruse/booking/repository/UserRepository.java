@@ -1,13 +1,26 @@
 package ru.javabruse.booking.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.javabruse.booking.dto.UserSummaryDto;
 import ru.javabruse.booking.entity.User;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     boolean existsByUsername(String username);
+    
+    // Keyset over the username index; the prefix is a range scan on the same index
+    @Query("SELECT new ru.javabruse.booking.dto.UserSummaryDto(u.id, u.username, u.role) FROM User u " +
+           "WHERE u.username LIKE :pattern ESCAPE '!' AND u.username > :afterUsername " +
+           "ORDER BY u.username")
+    List<UserSummaryDto> findSummariesAfter(@Param("pattern") String pattern,
+                                            @Param("afterUsername") String afterUsername,
+                                            Limit limit);
 }
@@ -1,8 +1,9 @@
 package ru.javabruse.booking.service;
 
+import io.jsonwebtoken.JwtException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.javabruse.booking.dto.AuthResponse;
@@ -10,6 +11,7 @@ import ru.javabruse.booking.dto.UserLoginRequest;
 import ru.javabruse.booking.dto.UserRegistrationRequest;
 import ru.javabruse.booking.entity.User;
 import ru.javabruse.booking.repository.UserRepository;
+import ru.javabruse.service.JwtTokenService;
 
 @Slf4j
 @Service
@@ -17,8 +19,9 @@ import ru.javabruse.booking.repository.UserRepository;
 public class AuthService {
     
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
-    private final JwtService jwtService;
+    private final PasswordHashingService passwordHashingService;
+    private final JwtTokenService jwtService;
+    private final TokenRevocationService tokenRevocationService;
     
     @Transactional
     public AuthResponse register(UserRegistrationRequest request) {
@@ -28,19 +31,13 @@ public class AuthService {
         
         User user = User.builder()
                 .username(request.getUsername())
-                .password(passwordEncoder.encode(request.getPassword()))
+                .password(passwordHashingService.encode(request.getPassword()))
                 .role(User.Role.USER)
                 .build();
         
         User savedUser = userRepository.save(user);
         
-        String token = jwtService.generateToken(savedUser.getId(), savedUser.getUsername(), savedUser.getRole().name());
-        
-        return AuthResponse.builder()
-                .token(token)
-                .username(savedUser.getUsername())
-                .role(savedUser.getRole().name())
-                .build();
+        return issueTokens(savedUser);
     }
     
     @Transactional(readOnly = true)
@@ -48,16 +45,58 @@ public class AuthService {
         User user = userRepository.findByUsername(request.getUsername())
                 .orElseThrow(() -> new RuntimeException("Invalid credentials"));
         
-        if (!passwordEncoder.matches(request.getPassword(), user.getPassword())) {
+        if (!passwordHashingService.matches(request.getPassword(), user.getPassword())) {
             throw new RuntimeException("Invalid credentials");
         }
         
-        String token = jwtService.generateToken(user.getId(), user.getUsername(), user.getRole().name());
+        return issueTokens(user);
+    }
+    
+    // Refresh tokens are single use: redeeming one records it, so a stolen copy stops working once either side uses it
+    @Transactional(readOnly = true)
+    public AuthResponse refresh(String refreshToken) {
+        JwtTokenService.VerifiedToken verified;
+        try {
+            verified = jwtService.verifyRefresh(refreshToken);
+        } catch (JwtException e) {
+            throw new BadCredentialsException("Invalid refresh token");
+        }
+        if (!tokenRevocationService.redeem(verified)) {
+            log.warn("Refresh token for user {} was presented again after use", verified.userId());
+            throw new BadCredentialsException("Refresh token has been revoked");
+        }
         
+        // Role changes and deletions take effect at the next refresh
+        User user = userRepository.findById(verified.userId())
+                .orElseThrow(() -> new BadCredentialsException("User no longer exists"));
+        return issueTokens(user);
+    }
+    
+    // The access token is refused here at once and by other instances and the gateway after their next sync;
+    // the refresh token is redeemed for good, so no new access tokens can be minted from it
+    public void logout(JwtTokenService.VerifiedToken accessToken, String refreshToken) {
+        tokenRevocationService.revoke(accessToken);
+        if (refreshToken == null || refreshToken.isBlank()) {
+            return;
+        }
+        try {
+            JwtTokenService.VerifiedToken refresh = jwtService.verifyRefresh(refreshToken);
+            if (refresh.userId() != null && refresh.userId().equals(accessToken.userId())) {
+                tokenRevocationService.redeem(refresh);
+            }
+        } catch (JwtException e) {
+            log.debug("Ignoring invalid refresh token on logout: {}", e.getMessage());
+        }
+    }
+    
+    private AuthResponse issueTokens(User user) {
+        String role = user.getRole().name();
         return AuthResponse.builder()
-                .token(token)
+                .token(jwtService.generateToken(user.getId(), user.getUsername(), role))
+                .refreshToken(jwtService.generateRefreshToken(user.getId(), user.getUsername(), role))
+                .expiresIn(jwtService.getExpiration().toSeconds())
                 .username(user.getUsername())
-                .role(user.getRole().name())
+                .role(role)
                 .build();
     }
 }
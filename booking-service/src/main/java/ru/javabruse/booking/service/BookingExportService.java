@@ -0,0 +1,159 @@
+package ru.javabruse.booking.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.javabruse.booking.entity.Booking;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Slf4j
+@Service
+public class BookingExportService {
+
+    private static final String CSV_HEADER = "id,userId,roomId,startDate,endDate,status,createdAt,requestId\n";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public BookingExportService(JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${booking.export.fetch-size:1000}") int fetchSize) {
+        // A separate template so the fetch size does not leak into other JdbcTemplate users
+        this.jdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    public long export(LocalDateTime from, LocalDateTime to, Booking.BookingStatus status,
+                       Format format, OutputStream out) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, user_id, room_id, start_date, end_date, status, created_at, request_id " +
+                "FROM bookings WHERE created_at >= ? AND created_at < ?");
+        List<Object> args = new ArrayList<>(List.of(from, to));
+        if (status != null) {
+            sql.append(" AND status = ?");
+            args.add(status.name());
+        }
+        sql.append(" ORDER BY created_at, id");
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        long started = System.nanoTime();
+        // Rows are written as the cursor advances, nothing is collected in memory
+        RowWriter rowWriter = new RowWriter(writer, format);
+        try {
+            if (format == Format.CSV) {
+                writer.write(CSV_HEADER);
+            }
+            // The transaction keeps the cursor open on databases that only stream inside one
+            readOnlyTransaction.executeWithoutResult(tx ->
+                    jdbcTemplate.query(sql.toString(), rowWriter, args.toArray()));
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Exported {} bookings as {} in {} ms", rowWriter.rows, format,
+                (System.nanoTime() - started) / 1_000_000);
+        return rowWriter.rows;
+    }
+
+    private static final class RowWriter implements RowCallbackHandler {
+        private final Writer writer;
+        private final Format format;
+        private final StringBuilder line = new StringBuilder(256);
+        private long rows;
+
+        private RowWriter(Writer writer, Format format) {
+            this.writer = writer;
+            this.format = format;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            line.setLength(0);
+            long id = rs.getLong(1);
+            long userId = rs.getLong(2);
+            long roomId = rs.getLong(3);
+            LocalDateTime startDate = rs.getObject(4, LocalDateTime.class);
+            LocalDateTime endDate = rs.getObject(5, LocalDateTime.class);
+            String status = rs.getString(6);
+            LocalDateTime createdAt = rs.getObject(7, LocalDateTime.class);
+            String requestId = rs.getString(8);
+
+            if (format == Format.CSV) {
+                line.append(id).append(',').append(userId).append(',').append(roomId).append(',')
+                        .append(startDate).append(',').append(endDate).append(',')
+                        .append(status).append(',').append(createdAt).append(',');
+                appendCsv(requestId);
+            } else {
+                line.append("{\"id\":").append(id)
+                        .append(",\"userId\":").append(userId)
+                        .append(",\"roomId\":").append(roomId)
+                        .append(",\"startDate\":\"").append(startDate)
+                        .append("\",\"endDate\":\"").append(endDate)
+                        .append("\",\"status\":\"").append(status)
+                        .append("\",\"createdAt\":\"").append(createdAt)
+                        .append("\",\"requestId\":");
+                appendJson(requestId);
+                line.append('}');
+            }
+            line.append('\n');
+            try {
+                writer.append(line);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rows++;
+        }
+
+        private void appendCsv(String value) {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                line.append(value);
+                return;
+            }
+            line.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+
+        private void appendJson(String value) {
+            if (value == null) {
+                line.append("null");
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    line.append('\\').append(c);
+                } else if (c < 0x20) {
+                    line.append(String.format("\\u%04x", (int) c));
+                } else {
+                    line.append(c);
+                }
+            }
+            line.append('"');
+        }
+    }
+}
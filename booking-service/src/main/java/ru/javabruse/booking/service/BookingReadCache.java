@@ -0,0 +1,264 @@
+package ru.javabruse.booking.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.javabruse.booking.dto.BookingDto;
+import ru.javabruse.booking.event.BookingStatusChangedEvent;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Invalidated by this instance's own commits only, so an entry also expires after a TTL: a change
+// committed through another instance is visible here at most that long after it happened
+@Component
+public class BookingReadCache {
+
+    private static final int STAMP_STRIPES = 1024;
+    // Users are split over independently locked segments, so readers of different users do not queue
+    // behind one lock; each segment keeps its own LRU order and its share of maxEntries
+    private static final int SEGMENTS = 16;
+
+    private final int maxBookingsPerUser;
+    private final long ttlMs;
+    private final Clock clock;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    // Bumped on every change so a DB read that raced with a commit is not cached
+    private final AtomicLongArray changeStamps = new AtomicLongArray(STAMP_STRIPES);
+
+    @Autowired
+    public BookingReadCache(@Value("${booking.cache.max-bookings-per-user:50}") int maxBookingsPerUser,
+                            @Value("${booking.cache.max-entries:100000}") int maxEntries,
+                            @Value("${booking.cache.ttl-ms:30000}") long ttlMs) {
+        this(maxBookingsPerUser, maxEntries, Duration.ofMillis(ttlMs), Clock.systemUTC());
+    }
+
+    public BookingReadCache(int maxBookingsPerUser, int maxEntries, Duration ttl, Clock clock) {
+        this.maxBookingsPerUser = maxBookingsPerUser;
+        this.ttlMs = ttl.toMillis();
+        this.clock = clock;
+        int segmentEntries = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentEntries);
+        }
+    }
+
+    public int getMaxBookingsPerUser() {
+        return maxBookingsPerUser;
+    }
+
+    public long changeStamp(Long userId) {
+        return changeStamps.get(stripe(userId));
+    }
+
+    public Optional<BookingDto> getBooking(Long userId, Long bookingId) {
+        Segment segment = segmentFor(userId);
+        segment.lock.lock();
+        try {
+            UserBookings entry = segment.live(userId);
+            return entry == null ? Optional.empty() : Optional.ofNullable(entry.byId.get(bookingId)).map(BookingReadCache::copy);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public void putBooking(Long userId, BookingDto booking, long stamp) {
+        BookingDto cached = copy(booking);
+        Segment segment = segmentFor(userId);
+        segment.lock.lock();
+        try {
+            if (changeStamp(userId) != stamp) {
+                return;
+            }
+            UserBookings entry = segment.liveOrNew(userId);
+            segment.totalEntries -= entry.size();
+            entry.byId.put(cached.getId(), cached);
+            entry.trim(maxBookingsPerUser);
+            segment.totalEntries += entry.size();
+            segment.evictOverflow();
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public Optional<RecentBookings> getRecent(Long userId) {
+        Segment segment = segmentFor(userId);
+        segment.lock.lock();
+        try {
+            UserBookings entry = segment.live(userId);
+            if (entry == null || entry.recent == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new RecentBookings(
+                    entry.recent.stream().map(BookingReadCache::copy).toList(), entry.complete));
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public void putRecent(Long userId, List<BookingDto> recent, boolean complete, long stamp) {
+        List<BookingDto> cached = new ArrayList<>(recent.subList(0, Math.min(recent.size(), maxBookingsPerUser)).stream()
+                .map(BookingReadCache::copy)
+                .toList());
+        Segment segment = segmentFor(userId);
+        segment.lock.lock();
+        try {
+            if (changeStamp(userId) != stamp) {
+                return;
+            }
+            UserBookings entry = segment.liveOrNew(userId);
+            segment.totalEntries -= entry.size();
+            entry.recent = cached;
+            entry.complete = complete && recent.size() <= maxBookingsPerUser;
+            segment.totalEntries += entry.size();
+            segment.evictOverflow();
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public void evictUser(Long userId) {
+        Segment segment = segmentFor(userId);
+        segment.lock.lock();
+        try {
+            changeStamps.incrementAndGet(stripe(userId));
+            UserBookings entry = segment.users.remove(userId);
+            if (entry != null) {
+                segment.totalEntries -= entry.size();
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookingStatusChanged(BookingStatusChangedEvent event) {
+        BookingDto booking = copy(event.getBooking());
+        Segment segment = segmentFor(booking.getUserId());
+        segment.lock.lock();
+        try {
+            changeStamps.incrementAndGet(stripe(booking.getUserId()));
+            UserBookings entry = segment.live(booking.getUserId());
+            if (entry == null) {
+                return;
+            }
+            segment.totalEntries -= entry.size();
+            entry.apply(booking, maxBookingsPerUser);
+            segment.totalEntries += entry.size();
+            segment.evictOverflow();
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Stamp stripes are a multiple of the segments, so a user's stamp only changes under its segment's lock
+    private Segment segmentFor(Long userId) {
+        return segments[stripe(userId) & (SEGMENTS - 1)];
+    }
+
+    // Callers get their own copy, so mutating a returned DTO cannot change what the next reader sees
+    private static BookingDto copy(BookingDto booking) {
+        return booking.toBuilder().build();
+    }
+
+    private static int stripe(Long userId) {
+        return (int) (userId ^ (userId >>> 32)) & (STAMP_STRIPES - 1);
+    }
+
+    public record RecentBookings(List<BookingDto> bookings, boolean complete) {
+    }
+
+    private final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<Long, UserBookings> users = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxEntries;
+        private int totalEntries;
+
+        private Segment(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        // The user's entry unless it has outlived the TTL, in which case it is dropped; callers hold the lock
+        private UserBookings live(Long userId) {
+            UserBookings entry = users.get(userId);
+            if (entry != null && clock.millis() >= entry.expiresAt) {
+                users.remove(userId);
+                totalEntries -= entry.size();
+                return null;
+            }
+            return entry;
+        }
+
+        private UserBookings liveOrNew(Long userId) {
+            UserBookings entry = live(userId);
+            if (entry == null) {
+                entry = new UserBookings(clock.millis() + ttlMs);
+                users.put(userId, entry);
+            }
+            return entry;
+        }
+
+        private void evictOverflow() {
+            Iterator<Map.Entry<Long, UserBookings>> eldest = users.entrySet().iterator();
+            while (totalEntries > maxEntries && eldest.hasNext()) {
+                totalEntries -= eldest.next().getValue().size();
+                eldest.remove();
+            }
+        }
+    }
+
+    private static final class UserBookings {
+        private final LinkedHashMap<Long, BookingDto> byId = new LinkedHashMap<>(16, 0.75f, true);
+        private List<BookingDto> recent;
+        private boolean complete;
+        // Fixed when the entry is created, so later puts cannot stretch how long the oldest data lives
+        private final long expiresAt;
+
+        private UserBookings(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        private int size() {
+            return byId.size() + (recent == null ? 0 : recent.size());
+        }
+
+        private void apply(BookingDto booking, int maxBookings) {
+            if (byId.containsKey(booking.getId())) {
+                byId.put(booking.getId(), booking);
+            }
+            if (recent == null) {
+                return;
+            }
+            for (int i = 0; i < recent.size(); i++) {
+                if (recent.get(i).getId().equals(booking.getId())) {
+                    recent.set(i, booking);
+                    return;
+                }
+            }
+            // A booking we have not seen is the newest one, so it goes to the head
+            recent.add(0, booking);
+            if (recent.size() > maxBookings) {
+                recent.remove(recent.size() - 1);
+                complete = false;
+            }
+        }
+
+        private void trim(int maxBookings) {
+            Iterator<Long> oldest = byId.keySet().iterator();
+            while (byId.size() > maxBookings && oldest.hasNext()) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package ru.javabruse.booking.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import ru.javabruse.booking.client.AsyncHotelServiceClient;
+import ru.javabruse.booking.client.HotelServiceClient;
+import ru.javabruse.booking.dto.ReconciliationReport;
+import ru.javabruse.booking.dto.ReconciliationRun;
+import ru.javabruse.booking.entity.Booking;
+import ru.javabruse.booking.repository.BookingRepository;
+import ru.javabruse.dto.RoomAvailabilityRequest;
+import ru.javabruse.dto.RoomBlockDto;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+@Slf4j
+@Service
+public class BookingReconciliationService {
+
+    private static final int MAX_SAMPLES = 50;
+    private static final int MAX_KEPT_RUNS = 20;
+
+    private final BookingRepository bookingRepository;
+    private final HotelServiceClient hotelServiceClient;
+    private final AsyncHotelServiceClient asyncHotelServiceClient;
+    private final AtomicBoolean running = new AtomicBoolean();
+    // Runs go to their own thread so neither a request thread nor the shared scheduler is held for the scan
+    private final ExecutorService runner;
+    // Most recent runs by id, oldest evicted first
+    private final Map<String, ReconciliationRun> runs = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ReconciliationRun> eldest) {
+            return size() > MAX_KEPT_RUNS;
+        }
+    };
+
+    @Value("${booking.reconciliation.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${booking.reconciliation.grace-period-minutes:10}")
+    private long gracePeriodMinutes;
+
+    @Value("${booking.reconciliation.repair:false}")
+    private boolean repairOnSchedule;
+
+    @Value("${booking.reconciliation.repair-concurrency:8}")
+    private int repairConcurrency;
+
+    public BookingReconciliationService(BookingRepository bookingRepository,
+                                        HotelServiceClient hotelServiceClient,
+                                        AsyncHotelServiceClient asyncHotelServiceClient) {
+        this.bookingRepository = bookingRepository;
+        this.hotelServiceClient = hotelServiceClient;
+        this.asyncHotelServiceClient = asyncHotelServiceClient;
+        this.runner = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "booking-reconciliation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Scheduled(cron = "${booking.reconciliation.cron:-}")
+    public void scheduledReconcile() {
+        try {
+            start(repairOnSchedule);
+        } catch (ResponseStatusException e) {
+            log.info("Skipping scheduled reconciliation: {}", e.getReason());
+        }
+    }
+
+    public ReconciliationRun start(boolean repair) {
+        if (!running.compareAndSet(false, true)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Reconciliation is already running");
+        }
+        ReconciliationRun run = ReconciliationRun.builder()
+                .runId(UUID.randomUUID().toString())
+                .status(ReconciliationRun.Status.RUNNING)
+                .repair(repair)
+                .submittedAt(LocalDateTime.now())
+                .build();
+        ReconciliationRun submitted = copy(run);
+        synchronized (runs) {
+            runs.put(run.getRunId(), run);
+        }
+        try {
+            runner.execute(() -> execute(run));
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        return submitted;
+    }
+
+    public ReconciliationRun getRun(String runId) {
+        synchronized (runs) {
+            ReconciliationRun run = runs.get(runId);
+            if (run == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Reconciliation run not found");
+            }
+            return copy(run);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+
+    private void execute(ReconciliationRun run) {
+        ReconciliationReport report = null;
+        String error = null;
+        try {
+            report = mergeJoin(run.isRepair());
+        } catch (RuntimeException e) {
+            log.warn("Reconciliation {} failed: {}", run.getRunId(), e.getMessage());
+            error = e.getMessage();
+        } finally {
+            synchronized (runs) {
+                run.setReport(report);
+                run.setError(error);
+                run.setStatus(report != null ? ReconciliationRun.Status.FINISHED : ReconciliationRun.Status.FAILED);
+            }
+            running.set(false);
+        }
+    }
+
+    private static ReconciliationRun copy(ReconciliationRun run) {
+        return run.toBuilder().build();
+    }
+
+    private ReconciliationReport mergeJoin(boolean repair) {
+        LocalDateTime startedAt = LocalDateTime.now();
+        // Rows younger than the grace period may belong to bookings that are still being confirmed
+        LocalDateTime cutoff = startedAt.minusMinutes(gracePeriodMinutes);
+        log.info("Starting booking reconciliation (cutoff {}, repair {})", cutoff, repair);
+
+        ChunkCursor<Booking> bookings = new ChunkCursor<>(
+                (after, limit) -> bookingRepository.findForReconciliation(after, cutoff, Limit.of(limit)),
+                Booking::getRequestId, chunkSize);
+        ChunkCursor<RoomBlockDto> blocks = new ChunkCursor<>(
+                (after, limit) -> hotelServiceClient.getRoomBlocks(after, cutoff, limit),
+                RoomBlockDto::getRequestId, chunkSize);
+
+        ReconciliationReport report = ReconciliationReport.builder()
+                .startedAt(startedAt)
+                .cutoff(cutoff)
+                .repair(repair)
+                .sampleRequestIds(new ArrayList<>())
+                .build();
+
+        // Repairs are independent remote calls, so up to repairConcurrency of them are in flight at once
+        List<CompletableFuture<Boolean>> pendingRepairs = new ArrayList<>();
+
+        // Both sides are ordered by requestId; UUID strings compare the same in Java and in the DB
+        Booking booking = bookings.peek();
+        RoomBlockDto block = blocks.peek();
+        while (booking != null || block != null) {
+            int order = booking == null ? 1
+                    : block == null ? -1
+                    : booking.getRequestId().compareTo(block.getRequestId());
+
+            if (order < 0) {
+                if (booking.getStatus() == Booking.BookingStatus.CONFIRMED) {
+                    report.setMissingBlocks(report.getMissingBlocks() + 1);
+                    Booking missing = booking;
+                    record(report, booking.getRequestId(), pendingRepairs, () -> restoreBlock(missing));
+                }
+                bookings.advance();
+            } else if (order > 0) {
+                report.setOrphanBlocks(report.getOrphanBlocks() + 1);
+                RoomBlockDto orphan = block;
+                record(report, block.getRequestId(), pendingRepairs, () -> releaseBlock(orphan));
+                blocks.advance();
+            } else {
+                if (booking.getStatus() == Booking.BookingStatus.CANCELLED) {
+                    report.setOrphanBlocks(report.getOrphanBlocks() + 1);
+                    RoomBlockDto orphan = block;
+                    record(report, block.getRequestId(), pendingRepairs, () -> releaseBlock(orphan));
+                }
+                bookings.advance();
+                blocks.advance();
+            }
+            booking = bookings.peek();
+            block = blocks.peek();
+        }
+        awaitRepairs(report, pendingRepairs);
+
+        report.setBookingsScanned(bookings.scanned);
+        report.setBlocksScanned(blocks.scanned);
+        report.setFinishedAt(LocalDateTime.now());
+        log.info("Reconciliation finished: {} bookings, {} blocks, {} orphan blocks, {} missing blocks, {} repaired",
+                report.getBookingsScanned(), report.getBlocksScanned(), report.getOrphanBlocks(),
+                report.getMissingBlocks(), report.getRepaired());
+        return report;
+    }
+
+    private void record(ReconciliationReport report, String requestId,
+                        List<CompletableFuture<Boolean>> pendingRepairs, Supplier<CompletableFuture<Boolean>> repair) {
+        if (report.getSampleRequestIds().size() < MAX_SAMPLES) {
+            report.getSampleRequestIds().add(requestId);
+        }
+        if (!report.isRepair()) {
+            return;
+        }
+        pendingRepairs.add(repair.get());
+        if (pendingRepairs.size() >= repairConcurrency) {
+            awaitRepairs(report, pendingRepairs);
+        }
+    }
+
+    private void awaitRepairs(ReconciliationReport report, List<CompletableFuture<Boolean>> pendingRepairs) {
+        for (CompletableFuture<Boolean> repair : pendingRepairs) {
+            if (repair.join()) {
+                report.setRepaired(report.getRepaired() + 1);
+            } else {
+                report.setRepairFailures(report.getRepairFailures() + 1);
+            }
+        }
+        pendingRepairs.clear();
+    }
+
+    private CompletableFuture<Boolean> releaseBlock(RoomBlockDto block) {
+        return asyncHotelServiceClient.releaseRoom(block.getRoomId(), block.getRequestId())
+                .handle((ignored, error) -> {
+                    if (error != null) {
+                        log.warn("Failed to release orphan block {}: {}", block.getRequestId(), error.getMessage());
+                        return false;
+                    }
+                    log.info("Released orphan block {} on room {}", block.getRequestId(), block.getRoomId());
+                    return true;
+                });
+    }
+
+    private CompletableFuture<Boolean> restoreBlock(Booking booking) {
+        return asyncHotelServiceClient.confirmRoomAvailability(booking.getRoomId(),
+                        RoomAvailabilityRequest.builder()
+                                .roomId(booking.getRoomId())
+                                .startDate(booking.getStartDate())
+                                .endDate(booking.getEndDate())
+                                .bookingId(booking.getId().toString())
+                                .requestId(booking.getRequestId())
+                                .build())
+                .handle((restored, error) -> {
+                    if (error != null) {
+                        log.warn("Failed to restore block for booking {}: {}", booking.getId(), error.getMessage());
+                        return false;
+                    }
+                    if (Boolean.TRUE.equals(restored)) {
+                        log.info("Restored missing block for booking {}", booking.getId());
+                        return true;
+                    }
+                    log.warn("Cannot restore block for booking {}: room {} is taken", booking.getId(), booking.getRoomId());
+                    return false;
+                });
+    }
+
+    // Reads one side in keyset-paged chunks so only a single chunk is in memory at a time
+    private static final class ChunkCursor<T> {
+        private final BiFunction<String, Integer, List<T>> fetch;
+        private final Function<T, String> key;
+        private final int chunkSize;
+
+        private List<T> chunk = List.of();
+        private int index;
+        private String after = "";
+        private boolean exhausted;
+        private long scanned;
+
+        private ChunkCursor(BiFunction<String, Integer, List<T>> fetch, Function<T, String> key, int chunkSize) {
+            this.fetch = fetch;
+            this.key = key;
+            this.chunkSize = chunkSize;
+        }
+
+        private T peek() {
+            if (index >= chunk.size()) {
+                if (exhausted) {
+                    return null;
+                }
+                chunk = fetch.apply(after, chunkSize);
+                index = 0;
+                // A short page does not mean the end: the other side may cap the page size
+                if (chunk.isEmpty()) {
+                    exhausted = true;
+                    return null;
+                }
+                after = key.apply(chunk.get(chunk.size() - 1));
+            }
+            return chunk.get(index);
+        }
+
+        private void advance() {
+            index++;
+            scanned++;
+        }
+    }
+}
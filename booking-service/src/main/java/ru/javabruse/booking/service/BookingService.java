@@ -1,25 +1,39 @@
 package ru.javabruse.booking.service;
 
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.retry.support.RetryTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.javabruse.booking.client.HotelServiceClient;
+import ru.javabruse.booking.client.SingleFlightExecutor;
+import ru.javabruse.booking.dto.BookingCursor;
 import ru.javabruse.booking.dto.BookingDto;
 import ru.javabruse.booking.dto.BookingRequest;
+import ru.javabruse.booking.dto.CursorPage;
+import ru.javabruse.booking.dto.GroupBookingRequest;
 import ru.javabruse.booking.entity.Booking;
 import ru.javabruse.booking.entity.User;
+import ru.javabruse.booking.event.BookingStatusChangedEvent;
 import ru.javabruse.booking.repository.BookingRepository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import ru.javabruse.booking.repository.UserRepository;
+import ru.javabruse.dto.RoomAvailabilityBatchRequest;
 import ru.javabruse.dto.RoomAvailabilityRequest;
 import ru.javabruse.dto.RoomDto;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Slf4j
@@ -27,27 +41,49 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class BookingService {
 
+    // Recommended rooms tried in turn when the chosen one is taken by the time hotel-service confirms
+    private static final int AUTO_SELECT_CANDIDATES = 5;
+
     private final BookingRepository bookingRepository;
     private final HotelServiceClient hotelServiceClient;
+    private final SingleFlightExecutor singleFlightExecutor;
     private final UserRepository userRepository;
+    private final RoomCatalogReplica roomCatalogReplica;
+    private final BookingReadCache bookingReadCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+
+    private HotelServiceClient coalescedHotelClient;
+
+    @PostConstruct
+    void init() {
+        coalescedHotelClient = singleFlightExecutor.wrap(HotelServiceClient.class, hotelServiceClient);
+    }
 
     @Transactional
     public BookingDto createBooking(BookingRequest request, Long userId) {
+        return createBooking(request, userId, UUID.randomUUID().toString());
+    }
+
+    @Transactional
+    public BookingDto createBooking(BookingRequest request, Long userId, String requestId) {
         User user = userRepository.getReferenceById(userId);
 
         log.info("Creating booking for user {} with request: {}", user.getId(), request);
 
-        String requestId = UUID.randomUUID().toString();
-
-        Long roomId = request.getRoomId();
+        List<Long> candidates;
         if (Boolean.TRUE.equals(request.getAutoSelect())) {
             log.info("Auto-selecting room for user {}", userId);
-            roomId = selectRecommendedRoom(request.getStartDate(), request.getEndDate());
-            if (roomId == null) {
+            candidates = selectRecommendedRooms(request.getStartDate(), request.getEndDate(), AUTO_SELECT_CANDIDATES);
+            if (candidates.isEmpty()) {
                 throw new RuntimeException("No available rooms found for the requested period");
             }
-            log.info("Selected room {} for auto-booking", roomId);
+            log.info("Selected room {} for auto-booking", candidates.get(0));
+        } else {
+            validateRequestedRoom(request.getRoomId());
+            candidates = List.of(request.getRoomId());
         }
+        Long roomId = candidates.get(0);
 
         Booking booking = Booking.builder()
                 .user(user)
@@ -63,21 +99,37 @@ public class BookingService {
         log.info("Booking {} created with status PENDING", savedBooking.getId());
 
         try {
-            RoomAvailabilityRequest availabilityRequest = RoomAvailabilityRequest.builder()
-                    .roomId(roomId)
-                    .startDate(request.getStartDate())
-                    .endDate(request.getEndDate())
-                    .bookingId(savedBooking.getId().toString())
-                    .requestId(requestId)
-                    .build();
-
             try {
-                boolean confirmed = confirmRoomAvailabilityWithRetry(roomId, availabilityRequest);
+                boolean confirmed = false;
+                // A concurrent auto-select may take the room first, its booking not yet visible here;
+                // a rejected request leaves no block, so the same requestId moves on to the next room
+                for (Long candidate : candidates) {
+                    roomId = candidate;
+                    confirmed = confirmRoomAvailabilityWithRetry(roomId, RoomAvailabilityRequest.builder()
+                            .roomId(roomId)
+                            .startDate(request.getStartDate())
+                            .endDate(request.getEndDate())
+                            .bookingId(savedBooking.getId().toString())
+                            .requestId(requestId)
+                            .build());
+                    if (confirmed) {
+                        break;
+                    }
+                    log.info("Room {} was taken before booking {} could block it", roomId, savedBooking.getId());
+                }
+                if (!confirmed) {
+                    roomId = candidates.get(0);
+                }
+                savedBooking.setRoomId(roomId);
 
                 if (confirmed) {
                     savedBooking.setStatus(Booking.BookingStatus.CONFIRMED);
                     bookingRepository.save(savedBooking);
                     log.info("Booking {} confirmed successfully", savedBooking.getId());
+                } else if (Boolean.TRUE.equals(request.getWaitlist())) {
+                    savedBooking.setStatus(Booking.BookingStatus.WAITLISTED);
+                    bookingRepository.save(savedBooking);
+                    log.info("Booking {} put on the waitlist for room {}", savedBooking.getId(), roomId);
                 } else {
                     savedBooking.setStatus(Booking.BookingStatus.CANCELLED);
                     bookingRepository.save(savedBooking);
@@ -105,17 +157,113 @@ public class BookingService {
             }
         }
 
-        return convertToDto(savedBooking);
+        BookingDto result = convertToDto(savedBooking);
+        eventPublisher.publishEvent(new BookingStatusChangedEvent(result, null));
+        return result;
     }
 
-    private boolean confirmRoomAvailabilityWithRetry(Long roomId, RoomAvailabilityRequest request) {
-        RetryTemplate retryTemplate = RetryTemplate.builder()
+    @Transactional
+    public List<BookingDto> createGroupBooking(GroupBookingRequest request, Long userId) {
+        User user = userRepository.getReferenceById(userId);
+        List<Long> roomIds = resolveGroupRooms(request);
+
+        log.info("Creating group booking of {} rooms for user {}", roomIds.size(), userId);
+
+        LocalDateTime createdAt = LocalDateTime.now();
+        List<Booking> bookings = bookingRepository.saveAll(roomIds.stream()
+                .map(roomId -> Booking.builder()
+                        .user(user)
+                        .roomId(roomId)
+                        .startDate(request.getStartDate())
+                        .endDate(request.getEndDate())
+                        .status(Booking.BookingStatus.PENDING)
+                        .createdAt(createdAt)
+                        .requestId(UUID.randomUUID().toString())
+                        .build())
+                .toList());
+
+        RoomAvailabilityBatchRequest batchRequest = RoomAvailabilityBatchRequest.builder()
+                .requests(bookings.stream()
+                        .map(booking -> RoomAvailabilityRequest.builder()
+                                .roomId(booking.getRoomId())
+                                .startDate(booking.getStartDate())
+                                .endDate(booking.getEndDate())
+                                .bookingId(booking.getId().toString())
+                                .requestId(booking.getRequestId())
+                                .build())
+                        .toList())
+                .build();
+
+        Booking.BookingStatus status;
+        try {
+            boolean confirmed = retryTemplate().execute(context -> {
+                log.info("Attempt {} to confirm group of {} rooms", context.getRetryCount() + 1, roomIds.size());
+                return Boolean.TRUE.equals(hotelServiceClient.confirmRoomAvailabilityBatch(batchRequest));
+            });
+            status = confirmed ? Booking.BookingStatus.CONFIRMED : Booking.BookingStatus.CANCELLED;
+            if (!confirmed) {
+                log.warn("Group booking for user {} cancelled due to room unavailability", userId);
+            }
+        } catch (Exception e) {
+            // The outcome on the hotel side is unknown, so release whatever may have been blocked
+            log.error("Error confirming group booking for user {}: {}", userId, e.getMessage());
+            status = Booking.BookingStatus.CANCELLED;
+            try {
+                hotelServiceClient.releaseRooms(bookings.stream().map(Booking::getRequestId).toList());
+            } catch (Exception releaseException) {
+                log.error("Error releasing rooms for group booking of user {}: {}", userId,
+                        releaseException.getMessage());
+            }
+        }
+
+        for (Booking booking : bookings) {
+            booking.setStatus(status);
+        }
+        bookingRepository.saveAll(bookings);
+        log.info("Group booking of {} rooms for user {} finished with status {}", bookings.size(), userId, status);
+
+        List<BookingDto> result = bookings.stream().map(this::convertToDto).toList();
+        // Newest-first listeners see the group in history order (same createdAt, id ascending)
+        for (int i = result.size() - 1; i >= 0; i--) {
+            eventPublisher.publishEvent(new BookingStatusChangedEvent(result.get(i), null));
+        }
+        return result;
+    }
+
+    private List<Long> resolveGroupRooms(GroupBookingRequest request) {
+        if (Boolean.TRUE.equals(request.getAutoSelect())) {
+            if (request.getRoomCount() == null) {
+                throw new IllegalArgumentException("Room count is required when autoSelect is enabled");
+            }
+            List<Long> roomIds = selectRecommendedRooms(request.getStartDate(), request.getEndDate(),
+                    request.getRoomCount());
+            if (roomIds.size() < request.getRoomCount()) {
+                throw new RuntimeException("Not enough available rooms found for the requested period");
+            }
+            return roomIds;
+        }
+
+        List<Long> roomIds = request.getRoomIds();
+        if (roomIds == null || roomIds.isEmpty()) {
+            throw new IllegalArgumentException("Room IDs are required when autoSelect is disabled");
+        }
+        if (new HashSet<>(roomIds).size() != roomIds.size()) {
+            throw new IllegalArgumentException("Room IDs must not repeat");
+        }
+        roomIds.forEach(this::validateRequestedRoom);
+        return roomIds;
+    }
+
+    private RetryTemplate retryTemplate() {
+        return RetryTemplate.builder()
                 .maxAttempts(3)
                 .fixedBackoff(1000)
                 .retryOn(RuntimeException.class)
                 .build();
+    }
 
-        return retryTemplate.execute(context -> {
+    private boolean confirmRoomAvailabilityWithRetry(Long roomId, RoomAvailabilityRequest request) {
+        return retryTemplate().execute(context -> {
             log.info("Attempt {} to confirm room availability for room {}",
                     context.getRetryCount() + 1, roomId);
 
@@ -131,12 +279,64 @@ public class BookingService {
 
     @Transactional(readOnly = true)
     public Page<BookingDto> getUserBookings(Long userId, Pageable pageable) {
+        BookingReadCache.RecentBookings recent = getRecentBookings(userId);
+        if (recent.complete()) {
+            List<BookingDto> all = recent.bookings();
+            int from = (int) Math.min(pageable.getOffset(), all.size());
+            int to = Math.min(from + pageable.getPageSize(), all.size());
+            return new PageImpl<>(all.subList(from, to), pageable, all.size());
+        }
+
         Page<Booking> bookings = bookingRepository.findByUserIdOrderByCreatedAtDesc(userId, pageable);
         return bookings.map(this::convertToDto);
     }
 
+    @Transactional(readOnly = true)
+    public CursorPage<BookingDto> getUserBookingHistory(Long userId, String cursor, int size) {
+        List<BookingDto> bookings = null;
+        if (cursor == null || cursor.isBlank()) {
+            BookingReadCache.RecentBookings recent = getRecentBookings(userId);
+            if (recent.complete() || recent.bookings().size() > size) {
+                bookings = recent.bookings();
+            }
+        }
+        if (bookings == null) {
+            // One extra row tells whether a next page exists without a count query
+            Limit limit = Limit.of(size + 1);
+            List<Booking> rows;
+            if (cursor == null || cursor.isBlank()) {
+                rows = bookingRepository.findByUserIdOrderByCreatedAtDescIdAsc(userId, limit);
+            } else {
+                BookingCursor position = BookingCursor.decode(cursor);
+                rows = bookingRepository.findByUserIdAfterCursor(
+                        userId, position.getCreatedAt(), position.getId(), limit);
+            }
+            bookings = rows.stream().map(this::convertToDto).toList();
+        }
+
+        boolean hasNext = bookings.size() > size;
+        List<BookingDto> content = hasNext ? bookings.subList(0, size) : bookings;
+
+        String nextCursor = null;
+        if (hasNext) {
+            BookingDto last = content.get(content.size() - 1);
+            nextCursor = new BookingCursor(last.getCreatedAt(), last.getId()).encode();
+        }
+
+        return CursorPage.<BookingDto>builder()
+                .content(content)
+                .size(content.size())
+                .nextCursor(nextCursor)
+                .hasNext(hasNext)
+                .build();
+    }
+
     @Transactional(readOnly = true)
     public List<BookingDto> getUserBookings(Long userId) {
+        BookingReadCache.RecentBookings recent = getRecentBookings(userId);
+        if (recent.complete()) {
+            return recent.bookings();
+        }
         return bookingRepository.findByUserIdOrderByCreatedAtDesc(userId)
                 .stream()
                 .map(this::convertToDto)
@@ -145,9 +345,16 @@ public class BookingService {
 
     @Transactional(readOnly = true)
     public BookingDto getBooking(Long bookingId, Long userId) {
+        Optional<BookingDto> cached = bookingReadCache.getBooking(userId, bookingId);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        long stamp = bookingReadCache.changeStamp(userId);
         Booking booking = bookingRepository.findByIdAndUserId(bookingId, userId)
                 .orElseThrow(() -> new RuntimeException("Booking not found"));
-        return convertToDto(booking);
+        BookingDto dto = convertToDto(booking);
+        bookingReadCache.putBooking(userId, dto, stamp);
+        return dto;
     }
 
     @Transactional
@@ -163,30 +370,154 @@ public class BookingService {
             }
         }
 
+        String previousStatus = booking.getStatus().name();
         booking.setStatus(Booking.BookingStatus.CANCELLED);
         bookingRepository.save(booking);
+        eventPublisher.publishEvent(new BookingStatusChangedEvent(convertToDto(booking), previousStatus));
 
         log.info("Booking {} cancelled by user {}", bookingId, userId);
     }
 
-    private Long selectRecommendedRoom(LocalDateTime startDate, LocalDateTime endDate) {
+    // The hotel is asked outside any transaction, so no row lock waits on it; the booking is then locked
+    // only to check it is still waitlisted and confirm it
+    public WaitlistPromotion promoteWaitlistedBooking(Long bookingId) {
+        Booking booking = bookingRepository.findById(bookingId).orElse(null);
+        if (booking == null || booking.getStatus() != Booking.BookingStatus.WAITLISTED) {
+            return WaitlistPromotion.GONE;
+        }
+        if (!booking.getStartDate().isAfter(LocalDateTime.now())) {
+            return WaitlistPromotion.STILL_WAITING;
+        }
+
+        RoomAvailabilityRequest availabilityRequest = RoomAvailabilityRequest.builder()
+                .roomId(booking.getRoomId())
+                .startDate(booking.getStartDate())
+                .endDate(booking.getEndDate())
+                .bookingId(booking.getId().toString())
+                .requestId(booking.getRequestId())
+                .build();
+        if (!hotelServiceClient.confirmRoomAvailability(booking.getRoomId(), availabilityRequest)) {
+            return WaitlistPromotion.STILL_WAITING;
+        }
+
+        Booking.BookingStatus current = transactionTemplate.execute(status -> {
+            Booking locked = bookingRepository.findByIdForUpdate(bookingId).orElse(null);
+            if (locked == null || locked.getStatus() != Booking.BookingStatus.WAITLISTED) {
+                return locked == null ? null : locked.getStatus();
+            }
+            locked.setStatus(Booking.BookingStatus.CONFIRMED);
+            bookingRepository.save(locked);
+            eventPublisher.publishEvent(new BookingStatusChangedEvent(convertToDto(locked),
+                    Booking.BookingStatus.WAITLISTED.name()));
+            return Booking.BookingStatus.WAITLISTED;
+        });
+        if (current != Booking.BookingStatus.WAITLISTED) {
+            // Cancelled or expired while the hotel was asked, so the block it just made goes back. A booking
+            // promoted meanwhile by another instance holds that same block under the same request id
+            if (current != Booking.BookingStatus.CONFIRMED) {
+                try {
+                    hotelServiceClient.releaseRoom(booking.getRoomId(), booking.getRequestId());
+                } catch (Exception e) {
+                    log.error("Error releasing room for waitlisted booking {}: {}", bookingId, e.getMessage());
+                }
+            }
+            return WaitlistPromotion.GONE;
+        }
+        log.info("Waitlisted booking {} promoted and confirmed for room {}", bookingId, booking.getRoomId());
+        return WaitlistPromotion.PROMOTED;
+    }
+
+    @Transactional
+    public int expireWaitlistedBookings(LocalDateTime now) {
+        List<Booking> expired = bookingRepository.findByStatusAndStartDateBefore(
+                Booking.BookingStatus.WAITLISTED, now);
+        for (Booking booking : expired) {
+            booking.setStatus(Booking.BookingStatus.CANCELLED);
+            eventPublisher.publishEvent(new BookingStatusChangedEvent(convertToDto(booking),
+                    Booking.BookingStatus.WAITLISTED.name()));
+        }
+        bookingRepository.saveAll(expired);
+        if (!expired.isEmpty()) {
+            log.info("Cancelled {} waitlisted bookings whose stay has already started", expired.size());
+        }
+        return expired.size();
+    }
+
+    @Transactional(readOnly = true)
+    public List<BookingDto> getWaitlistedBookings() {
+        return bookingRepository.findByStatus(Booking.BookingStatus.WAITLISTED)
+                .stream()
+                .map(this::convertToDto)
+                .toList();
+    }
+
+    // Waitlisted bookings, oldest first after afterId, whose room has no overlapping confirmed booking here
+    @Transactional(readOnly = true)
+    public List<BookingDto> getPromotableWaitlistedBookings(LocalDateTime now, Long afterId, int limit) {
+        return bookingRepository.findPromotableWaitlisted(now, afterId, Limit.of(limit))
+                .stream()
+                .map(this::convertToDto)
+                .toList();
+    }
+
+    public enum WaitlistPromotion {
+        PROMOTED, STILL_WAITING, GONE
+    }
+
+    private BookingReadCache.RecentBookings getRecentBookings(Long userId) {
+        Optional<BookingReadCache.RecentBookings> cached = bookingReadCache.getRecent(userId);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        // Stamp is taken before the read so a concurrent commit makes the cache drop this result
+        long stamp = bookingReadCache.changeStamp(userId);
+        int max = bookingReadCache.getMaxBookingsPerUser();
+        List<BookingDto> bookings = bookingRepository
+                .findByUserIdOrderByCreatedAtDescIdAsc(userId, Limit.of(max + 1))
+                .stream()
+                .map(this::convertToDto)
+                .toList();
+        boolean complete = bookings.size() <= max;
+        bookingReadCache.putRecent(userId, bookings, complete, stamp);
+        return new BookingReadCache.RecentBookings(bookings, complete);
+    }
+
+    private void validateRequestedRoom(Long roomId) {
+        if (roomId == null) {
+            throw new IllegalArgumentException("Room ID is required when autoSelect is disabled");
+        }
+        if (!roomCatalogReplica.isFresh()) {
+            return;
+        }
+        RoomDto room = roomCatalogReplica.findRoom(roomId)
+                .orElseThrow(() -> new IllegalArgumentException("Room " + roomId + " not found"));
+        if (!Boolean.TRUE.equals(room.getAvailable())) {
+            throw new IllegalArgumentException("Room " + roomId + " is not available for booking");
+        }
+    }
+
+    private List<Long> selectRecommendedRooms(LocalDateTime startDate, LocalDateTime endDate, int count) {
+        List<Long> selected = new ArrayList<>();
         try {
-            List<RoomDto> recommendedRooms = hotelServiceClient.getRecommendedRooms();
+            List<RoomDto> recommendedRooms = roomCatalogReplica.isFresh()
+                    ? roomCatalogReplica.getRecommendedRooms()
+                    : coalescedHotelClient.getRecommendedRooms();
 
             for (RoomDto room : recommendedRooms) {
                 List<Booking> conflicts = bookingRepository.findConflictingBookings(
                         room.getId(), startDate, endDate);
 
                 if (conflicts.isEmpty()) {
-                    return room.getId();
+                    selected.add(room.getId());
+                    if (selected.size() == count) {
+                        break;
+                    }
                 }
             }
-
-            return null;
         } catch (Exception e) {
-            log.error("Error selecting recommended room: {}", e.getMessage());
-            return null;
+            log.error("Error selecting recommended rooms: {}", e.getMessage());
         }
+        return selected;
     }
 
     private BookingDto convertToDto(Booking booking) {
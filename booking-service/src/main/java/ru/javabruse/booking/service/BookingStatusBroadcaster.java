@@ -0,0 +1,372 @@
+package ru.javabruse.booking.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.javabruse.booking.dto.BookingDto;
+import ru.javabruse.booking.event.BookingStatusChangedEvent;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fans committed booking status changes out to the owner's SSE connections. Idle connections
+// hold no thread; a small pool drains per-subscriber buffers so one slow client cannot block others.
+// A client that stops reading leaves its write blocked until the container gives up on the connection,
+// so a write running past send-timeout-ms drops the subscriber and an extra sender thread stands in for
+// the stuck one until that write returns, up to twice sender-threads of them.
+@Slf4j
+@Component
+public class BookingStatusBroadcaster {
+
+    private final int bufferSize;
+    private final int maxSubscribers;
+    private final int maxSubscribersPerUser;
+    private final long timeoutMs;
+    private final long sendTimeoutNanos;
+    private final int senderThreads;
+    private final int maxStandIns;
+    private final ThreadPoolExecutor senders;
+    private final ScheduledExecutorService watchdog;
+    private final Counter dropped;
+    private final Counter stalled;
+
+    private final Map<Long, Set<Subscriber>> subscribersByUser = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final AtomicInteger standIns = new AtomicInteger();
+
+    public BookingStatusBroadcaster(@Value("${booking.events.buffer-size:32}") int bufferSize,
+                                    @Value("${booking.events.max-subscribers:10000}") int maxSubscribers,
+                                    @Value("${booking.events.max-subscribers-per-user:5}") int maxSubscribersPerUser,
+                                    @Value("${booking.events.timeout-ms:1800000}") long timeoutMs,
+                                    @Value("${booking.events.send-timeout-ms:10000}") long sendTimeoutMs,
+                                    @Value("${booking.events.stall-check-interval-ms:1000}") long stallCheckIntervalMs,
+                                    @Value("${booking.events.sender-threads:4}") int senderThreads,
+                                    MeterRegistry meterRegistry) {
+        this.bufferSize = bufferSize;
+        this.maxSubscribers = maxSubscribers;
+        this.maxSubscribersPerUser = maxSubscribersPerUser;
+        this.timeoutMs = timeoutMs;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        this.senderThreads = senderThreads;
+        this.maxStandIns = 2 * senderThreads;
+        AtomicInteger threadNumber = new AtomicInteger();
+        // Fixed at senderThreads; the core size only grows while sends are stuck, the queue takes the rest
+        this.senders = new ThreadPoolExecutor(senderThreads, senderThreads + maxStandIns, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "booking-sse-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Not on the shared scheduler, where a long job elsewhere would hold stall detection up
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "booking-sse-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.scheduleWithFixedDelay(this::dropStalledSubscribers, stallCheckIntervalMs, stallCheckIntervalMs,
+                TimeUnit.MILLISECONDS);
+        this.dropped = Counter.builder("booking.events.stream.dropped")
+                .description("Booking status events dropped because a subscriber buffer was full")
+                .register(meterRegistry);
+        this.stalled = Counter.builder("booking.events.stream.stalled")
+                .description("Booking streams closed because a write to the client took longer than the send timeout")
+                .register(meterRegistry);
+        Gauge.builder("booking.events.stream.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Open booking status streams")
+                .register(meterRegistry);
+    }
+
+    public SseEmitter subscribe(Long userId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(userId, emitter);
+        // Check and add under the user's entry, so concurrent subscribes cannot both pass the limit and an
+        // unsubscribe cannot drop the set while this subscriber is being added to it
+        subscribersByUser.compute(userId, (id, userSubscribers) -> {
+            Set<Subscriber> subscribers = userSubscribers != null ? userSubscribers : ConcurrentHashMap.newKeySet();
+            if (subscribers.size() >= maxSubscribersPerUser) {
+                throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many open booking streams");
+            }
+            if (subscriberCount.incrementAndGet() > maxSubscribers) {
+                subscriberCount.decrementAndGet();
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Booking stream capacity exhausted");
+            }
+            subscribers.add(subscriber);
+            return subscribers;
+        });
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(error -> unsubscribe(subscriber));
+        return emitter;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookingStatusChanged(BookingStatusChangedEvent event) {
+        BookingDto booking = event.getBooking();
+        Set<Subscriber> userSubscribers = subscribersByUser.get(booking.getUserId());
+        if (userSubscribers == null) {
+            return;
+        }
+        for (Subscriber subscriber : userSubscribers) {
+            subscriber.offer(booking);
+        }
+    }
+
+    // Keeps proxies from closing idle connections and detects clients that went away
+    @Scheduled(fixedDelayString = "${booking.events.heartbeat-interval-ms:15000}")
+    public void heartbeat() {
+        for (Set<Subscriber> userSubscribers : subscribersByUser.values()) {
+            for (Subscriber subscriber : userSubscribers) {
+                subscriber.heartbeat();
+            }
+        }
+    }
+
+    private void dropStalledSubscribers() {
+        try {
+            long now = System.nanoTime();
+            for (Set<Subscriber> userSubscribers : subscribersByUser.values()) {
+                for (Subscriber subscriber : userSubscribers) {
+                    if (subscriber.markStalled(now)) {
+                        log.debug("Closing booking stream of user {}: client stopped reading", subscriber.userId);
+                        unsubscribe(subscriber);
+                        resizeSenders();
+                        stalled.increment();
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic run for good
+            log.warn("Booking stream stall check failed: {}", e.getMessage());
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    // Open streams would hold graceful shutdown up until its timeout; clients reconnect to another instance
+    @EventListener(ContextClosedEvent.class)
+    public void closeStreams() {
+        subscribersByUser.values().forEach(userSubscribers -> userSubscribers.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        senders.shutdownNow();
+        closeStreams();
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        if (!subscriber.closed.compareAndSet(false, true)) {
+            return;
+        }
+        subscribersByUser.computeIfPresent(subscriber.userId, (id, userSubscribers) -> {
+            if (userSubscribers.remove(subscriber)) {
+                subscriberCount.decrementAndGet();
+            }
+            return userSubscribers.isEmpty() ? null : userSubscribers;
+        });
+    }
+
+    private boolean acquireStandIn() {
+        int current;
+        do {
+            current = standIns.get();
+            if (current >= maxStandIns) {
+                return false;
+            }
+        } while (!standIns.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    // One more core thread for every stand-in; the count is read again after setting, so racing resizes
+    // settle on the latest count
+    private void resizeSenders() {
+        int coreSize;
+        do {
+            coreSize = senderThreads + standIns.get();
+            senders.setCorePoolSize(coreSize);
+        } while (coreSize != senderThreads + standIns.get());
+    }
+
+    private final class Subscriber {
+        private final Long userId;
+        private final SseEmitter emitter;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<BookingDto> buffer = new ArrayDeque<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // Guarded by lock
+        private boolean heartbeatDue;
+        private boolean sending;
+        private long sendStartedAt;
+        private boolean stalled;
+        private boolean standIn;
+
+        private Subscriber(Long userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+
+        private void offer(BookingDto booking) {
+            lock.lock();
+            try {
+                if (buffer.size() >= bufferSize) {
+                    // The client is behind; the newest state of a booking matters more than the oldest
+                    buffer.pollFirst();
+                    dropped.increment();
+                }
+                buffer.addLast(booking);
+            } finally {
+                lock.unlock();
+            }
+            scheduleDrain();
+        }
+
+        // Goes through the drain too, so a heartbeat never waits for, or holds up, a write of this subscriber
+        private void heartbeat() {
+            lock.lock();
+            try {
+                heartbeatDue = true;
+            } finally {
+                lock.unlock();
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (!closed.get() && draining.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        // The only writer of the emitter; draining keeps it to one thread per subscriber
+        private void drain() {
+            while (true) {
+                BookingDto booking;
+                boolean heartbeat;
+                lock.lock();
+                try {
+                    booking = buffer.pollFirst();
+                    // An event keeps the connection alive just as well
+                    heartbeat = booking == null && heartbeatDue;
+                    heartbeatDue = false;
+                    if (booking == null && !heartbeat) {
+                        draining.set(false);
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                SseEmitter.SseEventBuilder event = heartbeat
+                        ? SseEmitter.event().comment("heartbeat")
+                        : SseEmitter.event()
+                                .name("booking-status")
+                                .id(booking.getId() + ":" + booking.getStatus())
+                                .data(booking, MediaType.APPLICATION_JSON);
+                if (!send(event)) {
+                    draining.set(false);
+                    return;
+                }
+            }
+        }
+
+        private boolean send(SseEmitter.SseEventBuilder event) {
+            if (closed.get()) {
+                return false;
+            }
+            startSending();
+            boolean sent = write(event);
+            if (finishSending() && sent) {
+                // Dropped while this write was stuck. The emitter could not be completed then, the stuck write
+                // holds its monitor, so it is completed now that the write went through
+                emitter.completeWithError(new IOException("Client stopped reading the booking stream"));
+                return false;
+            }
+            return sent;
+        }
+
+        private boolean write(SseEmitter.SseEventBuilder event) {
+            try {
+                emitter.send(event);
+                return true;
+            } catch (Exception e) {
+                log.debug("Closing booking stream of user {}: {}", userId, e.getMessage());
+                emitter.completeWithError(e);
+                unsubscribe(this);
+                return false;
+            }
+        }
+
+        private void startSending() {
+            lock.lock();
+            try {
+                sending = true;
+                sendStartedAt = System.nanoTime();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // True when the write was marked stalled meanwhile; its stand-in sender thread, if any, goes then
+        private boolean finishSending() {
+            boolean releaseStandIn;
+            lock.lock();
+            try {
+                sending = false;
+                if (!stalled) {
+                    return false;
+                }
+                stalled = false;
+                releaseStandIn = standIn;
+                standIn = false;
+            } finally {
+                lock.unlock();
+            }
+            if (releaseStandIn) {
+                standIns.decrementAndGet();
+                resizeSenders();
+            }
+            return true;
+        }
+
+        // Past the stand-in cap the stuck thread is simply not replaced; the subscriber is dropped either way
+        private boolean markStalled(long now) {
+            lock.lock();
+            try {
+                if (!sending || stalled || now - sendStartedAt < sendTimeoutNanos) {
+                    return false;
+                }
+                stalled = true;
+                standIn = acquireStandIn();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
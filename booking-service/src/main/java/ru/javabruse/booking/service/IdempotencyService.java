@@ -0,0 +1,242 @@
+package ru.javabruse.booking.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import ru.javabruse.booking.dto.BookingDto;
+import ru.javabruse.booking.entity.IdempotencyRecord;
+import ru.javabruse.booking.repository.IdempotencyRecordRepository;
+import ru.javabruse.util.LruCache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final BookingService bookingService;
+    private final TransactionTemplate requiresNew;
+    // Sorted properties and map keys, so the fingerprint does not depend on field order or toString()
+    private final ObjectMapper canonicalMapper;
+    private final LruCache<String, StoredResponse> responses;
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    @Value("${booking.idempotency.wait-timeout-ms:30000}")
+    private long waitTimeoutMs;
+
+    @Value("${booking.idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    @Value("${booking.idempotency.claim-timeout-ms:120000}")
+    private long claimTimeoutMs;
+
+    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository,
+                              BookingService bookingService,
+                              PlatformTransactionManager transactionManager,
+                              ObjectMapper objectMapper,
+                              @Value("${booking.idempotency.cache-size:10000}") int cacheSize) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.bookingService = bookingService;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.responses = new LruCache<>(cacheSize);
+        ObjectMapper canonical = objectMapper.copy().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        canonical.setConfig(canonical.getSerializationConfig().with(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY));
+        this.canonicalMapper = canonical;
+    }
+
+    public Result execute(Long userId, String key, Object request, Function<String, BookingDto> action) {
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        String cacheKey = userId + ":" + key;
+        String requestHash = hash(request);
+
+        StoredResponse stored = responses.get(cacheKey);
+        if (stored != null) {
+            // The purge drops the row after the TTL, so the cached copy must not outlive it
+            if (!stored.createdAt().isBefore(expiryCutoff())) {
+                return replay(stored, requestHash);
+            }
+            responses.remove(cacheKey);
+        }
+
+        InFlight mine = new InFlight(requestHash, new CompletableFuture<>());
+        InFlight existing = inFlight.putIfAbsent(cacheKey, mine);
+        if (existing != null) {
+            return awaitInFlight(existing, requestHash);
+        }
+
+        try {
+            Result result = executeOnce(userId, key, cacheKey, requestHash, action);
+            mine.result().complete(result.booking());
+            return result;
+        } catch (RuntimeException e) {
+            mine.result().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(cacheKey, mine);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${booking.idempotency.purge-interval-ms:3600000}")
+    public void purgeExpired() {
+        Integer deleted = requiresNew.execute(status ->
+                idempotencyRecordRepository.deleteOlderThan(expiryCutoff()));
+        if (deleted != null && deleted > 0) {
+            log.info("Purged {} expired idempotency keys", deleted);
+        }
+    }
+
+    private Result executeOnce(Long userId, String key, String cacheKey, String requestHash,
+                                   Function<String, BookingDto> action) {
+        // Another instance may already own this key, so the table is the source of truth
+        Optional<IdempotencyRecord> previous = idempotencyRecordRepository.findByUserIdAndIdempotencyKey(userId, key);
+        if (previous.isPresent() && !takeOverStaleClaim(previous.get())) {
+            return replay(load(previous.get(), cacheKey), requestHash);
+        }
+
+        // A random requestId per claim: hotel-service treats a known requestId as already confirmed,
+        // so reusing one from a dropped claim would confirm a booking that has no block
+        String requestId = UUID.randomUUID().toString();
+        IdempotencyRecord claim;
+        try {
+            claim = requiresNew.execute(status -> idempotencyRecordRepository.saveAndFlush(IdempotencyRecord.builder()
+                    .userId(userId)
+                    .idempotencyKey(key)
+                    .requestHash(requestHash)
+                    .requestId(requestId)
+                    .createdAt(LocalDateTime.now())
+                    .build()));
+        } catch (DataIntegrityViolationException e) {
+            IdempotencyRecord winner = idempotencyRecordRepository.findByUserIdAndIdempotencyKey(userId, key)
+                    .orElseThrow(() -> e);
+            return replay(load(winner, cacheKey), requestHash);
+        }
+
+        BookingDto booking;
+        try {
+            booking = action.apply(requestId);
+        } catch (RuntimeException e) {
+            // Let the client retry with the same key
+            requiresNew.executeWithoutResult(status -> idempotencyRecordRepository.deleteById(claim.getId()));
+            throw e;
+        }
+
+        Integer completed = requiresNew.execute(status -> idempotencyRecordRepository.complete(claim.getId(), booking.getId()));
+        if (completed == null || completed == 0) {
+            // Took longer than the claim timeout and a retry took the key over; this booking has its own block
+            log.warn("Idempotency claim for user {} expired before booking {} was created", userId, booking.getId());
+            return new Result(booking, false);
+        }
+        responses.put(cacheKey, new StoredResponse(requestHash, claim.getCreatedAt(), booking));
+        return new Result(booking, false);
+    }
+
+    // A claim still without a booking after the timeout belongs to a request that crashed or hung;
+    // dropping it lets this request start over instead of getting 409 until the purge
+    private boolean takeOverStaleClaim(IdempotencyRecord record) {
+        LocalDateTime cutoff = LocalDateTime.now().minus(Duration.ofMillis(claimTimeoutMs));
+        if (record.getBookingId() != null || !record.getCreatedAt().isBefore(cutoff)) {
+            return false;
+        }
+        Integer deleted = requiresNew.execute(status -> idempotencyRecordRepository.deleteStaleClaim(record.getId(), cutoff));
+        if (deleted != null && deleted > 0) {
+            log.warn("Took over idempotency key of user {} left unfinished since {}", record.getUserId(), record.getCreatedAt());
+            return true;
+        }
+        return false;
+    }
+
+    private StoredResponse load(IdempotencyRecord record, String cacheKey) {
+        if (record.getBookingId() == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "A request with this Idempotency-Key is still being processed");
+        }
+        StoredResponse stored = new StoredResponse(record.getRequestHash(), record.getCreatedAt(),
+                bookingService.getBooking(record.getBookingId(), record.getUserId()));
+        responses.put(cacheKey, stored);
+        return stored;
+    }
+
+    private Result awaitInFlight(InFlight existing, String requestHash) {
+        if (!existing.requestHash().equals(requestHash)) {
+            throw keyReused();
+        }
+        try {
+            return new Result(existing.result().get(waitTimeoutMs, TimeUnit.MILLISECONDS), true);
+        } catch (TimeoutException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "A request with this Idempotency-Key is still being processed");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the original request", e);
+        }
+    }
+
+    private Result replay(StoredResponse stored, String requestHash) {
+        if (!stored.requestHash().equals(requestHash)) {
+            throw keyReused();
+        }
+        return new Result(stored.booking(), true);
+    }
+
+    private static ResponseStatusException keyReused() {
+        return new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                "Idempotency-Key was already used with a different request");
+    }
+
+    private LocalDateTime expiryCutoff() {
+        return LocalDateTime.now().minusHours(ttlHours);
+    }
+
+    private String hash(Object request) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonicalMapper.writeValueAsBytes(request));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record Result(BookingDto booking, boolean replayed) {
+    }
+
+    private record StoredResponse(String requestHash, LocalDateTime createdAt, BookingDto booking) {
+    }
+
+    private record InFlight(String requestHash, CompletableFuture<BookingDto> result) {
+    }
+}
@@ -0,0 +1,156 @@
+package ru.javabruse.booking.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// BCrypt is deliberately CPU-heavy; running it on a few dedicated threads keeps a login storm
+// from taking every core away from booking traffic, and a full queue is rejected instead of waited on
+@Slf4j
+@Service
+public class PasswordHashingService {
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor hashers;
+    private final long timeoutMs;
+    private final long retryAfterSeconds;
+    private final MeterRegistry meterRegistry;
+    private final Counter rejected;
+    private final Timer queueWait;
+
+    public PasswordHashingService(PasswordEncoder passwordEncoder,
+                                  @Value("${booking.password-hashing.threads:0}") int threads,
+                                  @Value("${booking.password-hashing.queue-capacity:64}") int queueCapacity,
+                                  @Value("${booking.password-hashing.timeout-ms:5000}") long timeoutMs,
+                                  @Value("${booking.password-hashing.retry-after-seconds:1}") long retryAfterSeconds,
+                                  MeterRegistry meterRegistry) {
+        this.passwordEncoder = passwordEncoder;
+        this.timeoutMs = timeoutMs;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.meterRegistry = meterRegistry;
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        BlockingQueue<Runnable> queue = queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.hashers = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "password-hasher-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.rejected = Counter.builder("booking.password.hashing.rejected")
+                .description("Password hashing requests rejected because the hashing queue was full or too slow")
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("booking.password.hashing.queue.wait")
+                .description("Time a password hashing request waited for a hashing thread")
+                .register(meterRegistry);
+        Gauge.builder("booking.password.hashing.queue", queue, BlockingQueue::size)
+                .description("Password hashing requests waiting for a thread")
+                .register(meterRegistry);
+        log.info("Password hashing runs on {} threads with a queue of {}", poolSize, queueCapacity);
+    }
+
+    public String encode(String rawPassword) {
+        return submit(() -> {
+            long start = System.nanoTime();
+            String encoded = passwordEncoder.encode(rawPassword);
+            record("encode", encoded, start);
+            return encoded;
+        });
+    }
+
+    public boolean matches(String rawPassword, String encodedPassword) {
+        return submit(() -> {
+            long start = System.nanoTime();
+            boolean matches = passwordEncoder.matches(rawPassword, encodedPassword);
+            record("matches", encodedPassword, start);
+            return matches;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hashers.shutdownNow();
+    }
+
+    private <T> T submit(Callable<T> work) {
+        long enqueuedAt = System.nanoTime();
+        Future<T> future;
+        try {
+            future = hashers.submit(() -> {
+                queueWait.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+                return work.call();
+            });
+        } catch (RejectedExecutionException e) {
+            throw overloaded("Password hashing queue is full");
+        }
+
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Still queued work is dropped; a hash already in progress finishes but nobody waits for it
+            future.cancel(true);
+            throw overloaded("Password hashing timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw overloaded("Password hashing interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void record(String operation, String encodedPassword, long startNanos) {
+        Timer.builder("booking.password.hashing")
+                .description("Time spent hashing or checking a password")
+                .tag("operation", operation)
+                .tag("cost", costFactor(encodedPassword))
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private ResponseStatusException overloaded(String reason) {
+        rejected.increment();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, reason) {
+            @Override
+            public HttpHeaders getHeaders() {
+                return headers;
+            }
+        };
+    }
+
+    // BCrypt hashes look like $2a$10$..., where 10 is the log2 work factor
+    private static String costFactor(String encodedPassword) {
+        if (encodedPassword != null && encodedPassword.length() > 7
+                && encodedPassword.charAt(0) == '$' && encodedPassword.charAt(6) == '$') {
+            return encodedPassword.substring(4, 6);
+        }
+        return "unknown";
+    }
+}
@@ -0,0 +1,129 @@
+package ru.javabruse.booking.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.javabruse.booking.client.HotelServiceClient;
+import ru.javabruse.dto.RoomCatalogDelta;
+import ru.javabruse.dto.RoomDto;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+@Service
+public class RoomCatalogReplica {
+
+    private static final Comparator<RoomDto> RECOMMENDATION_ORDER = Comparator
+            .comparing((RoomDto room) -> room.getTimesBooked() == null ? 0 : room.getTimesBooked())
+            .thenComparing(RoomDto::getId);
+
+    private final HotelServiceClient hotelServiceClient;
+    private final Counter syncFailures;
+
+    private final Map<Long, RoomDto> rooms = new ConcurrentHashMap<>();
+    private volatile List<RoomDto> recommendedRooms = List.of();
+    private volatile long version = 0;
+    private volatile long afterId = 0;
+    private volatile long lastSyncAt = 0;
+    private volatile boolean healthy = true;
+
+    @Value("${booking.room-catalog.max-staleness-ms:60000}")
+    private long maxStalenessMs;
+
+    @Value("${booking.room-catalog.page-size:500}")
+    private int pageSize;
+
+    public RoomCatalogReplica(HotelServiceClient hotelServiceClient, MeterRegistry meterRegistry) {
+        this.hotelServiceClient = hotelServiceClient;
+        this.syncFailures = Counter.builder("room.catalog.replica.sync.failures")
+                .description("Failed room catalog delta syncs")
+                .register(meterRegistry);
+        Gauge.builder("room.catalog.replica.staleness", this, RoomCatalogReplica::getStalenessSeconds)
+                .description("Seconds since the last successful room catalog sync")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("room.catalog.replica.size", rooms, Map::size)
+                .description("Rooms held in the local catalog replica")
+                .register(meterRegistry);
+        Gauge.builder("room.catalog.replica.version", this, replica -> replica.version)
+                .description("Catalog version the replica is synced to")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${booking.room-catalog.sync-interval-ms:5000}")
+    public void sync() {
+        try {
+            // Versions are handed out in commit order, so resuming right after the last seen row misses nothing
+            long sinceVersion = version;
+            long lastId = afterId;
+            boolean changed = false;
+
+            RoomCatalogDelta delta;
+            do {
+                delta = hotelServiceClient.getRoomCatalogChanges(sinceVersion, lastId, pageSize);
+                if (delta == null || delta.getRooms() == null) {
+                    throw new IllegalStateException("Empty room catalog delta");
+                }
+                for (RoomDto room : delta.getRooms()) {
+                    RoomDto previous = rooms.put(room.getId(), room);
+                    changed |= !room.equals(previous);
+                }
+                if (delta.getRemovedRoomIds() != null) {
+                    for (Long roomId : delta.getRemovedRoomIds()) {
+                        changed |= rooms.remove(roomId) != null;
+                    }
+                }
+                sinceVersion = delta.getVersion();
+                lastId = delta.getAfterId();
+            } while (Boolean.TRUE.equals(delta.getHasMore()));
+
+            if (changed) {
+                recommendedRooms = rooms.values().stream()
+                        .filter(room -> Boolean.TRUE.equals(room.getAvailable()))
+                        .sorted(RECOMMENDATION_ORDER)
+                        .toList();
+                log.debug("Room catalog replica updated to version {} ({} rooms)", sinceVersion, rooms.size());
+            }
+            version = sinceVersion;
+            afterId = lastId;
+            lastSyncAt = System.currentTimeMillis();
+            if (!healthy) {
+                log.info("Room catalog replica sync recovered at version {}", sinceVersion);
+                healthy = true;
+            }
+        } catch (Exception e) {
+            syncFailures.increment();
+            if (healthy) {
+                log.warn("Room catalog replica sync failed: {}", e.getMessage());
+                healthy = false;
+            }
+        }
+    }
+
+    public boolean isFresh() {
+        return lastSyncAt != 0 && System.currentTimeMillis() - lastSyncAt <= maxStalenessMs;
+    }
+
+    public List<RoomDto> getRecommendedRooms() {
+        return recommendedRooms;
+    }
+
+    public Optional<RoomDto> findRoom(Long roomId) {
+        return Optional.ofNullable(rooms.get(roomId));
+    }
+
+    private double getStalenessSeconds() {
+        if (lastSyncAt == 0) {
+            return Double.NaN;
+        }
+        return (System.currentTimeMillis() - lastSyncAt) / 1000.0;
+    }
+}
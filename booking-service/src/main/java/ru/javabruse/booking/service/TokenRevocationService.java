@@ -0,0 +1,150 @@
+package ru.javabruse.booking.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.javabruse.booking.entity.RedeemedRefreshToken;
+import ru.javabruse.booking.entity.RevokedAccessToken;
+import ru.javabruse.booking.repository.RedeemedRefreshTokenRepository;
+import ru.javabruse.booking.repository.RevokedAccessTokenRepository;
+import ru.javabruse.dto.RevokedTokenDto;
+import ru.javabruse.service.JwtTokenService;
+import ru.javabruse.util.RevocationSet;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+// Access tokens are checked against an in-memory set that holds them only until they would have expired, so
+// it stays as small as the number of revocations within one access-token lifetime. Each revocation is also
+// written to the database, which other instances (and the gateway, through getRevokedAfter) poll into their
+// own sets. Refresh tokens live for weeks and mint new access tokens, so their redemption is checked against
+// the database directly and holds across instances and restarts
+@Slf4j
+@Service
+public class TokenRevocationService {
+
+    private static final int SYNC_PAGE_SIZE = 500;
+    // Rows revoked this long before the newest one seen are read again, in case one committed late
+    private static final Duration COMMIT_LAG = Duration.ofSeconds(10);
+
+    private final RevocationSet revoked;
+    private final RedeemedRefreshTokenRepository redeemedRefreshTokenRepository;
+    private final RevokedAccessTokenRepository revokedAccessTokenRepository;
+    private final TransactionTemplate requiresNew;
+    private volatile LocalDateTime syncedUntil = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    public TokenRevocationService(@Value("${booking.revocation.bucket-seconds:300}") long bucketSeconds,
+                                  @Value("${booking.revocation.bloom-bits-per-bucket:65536}") int bloomBits,
+                                  RedeemedRefreshTokenRepository redeemedRefreshTokenRepository,
+                                  RevokedAccessTokenRepository revokedAccessTokenRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry) {
+        this.revoked = new RevocationSet(Duration.ofSeconds(bucketSeconds), bloomBits);
+        this.redeemedRefreshTokenRepository = redeemedRefreshTokenRepository;
+        this.revokedAccessTokenRepository = revokedAccessTokenRepository;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Gauge.builder("booking.auth.revoked.tokens", revoked, RevocationSet::size)
+                .description("Revoked access tokens that have not expired yet")
+                .register(meterRegistry);
+    }
+
+    public void revoke(JwtTokenService.VerifiedToken accessToken) {
+        if (accessToken.tokenId() == null || accessToken.expiresAt() == null) {
+            return;
+        }
+        revoked.revoke(accessToken.tokenId(), accessToken.expiresAt());
+        try {
+            requiresNew.executeWithoutResult(status -> revokedAccessTokenRepository.saveAndFlush(
+                    RevokedAccessToken.builder()
+                            .tokenId(accessToken.tokenId())
+                            .expiresAt(LocalDateTime.ofInstant(accessToken.expiresAt(), ZoneId.systemDefault()))
+                            .revokedAt(LocalDateTime.now())
+                            .build()));
+        } catch (DataIntegrityViolationException e) {
+            log.debug("Access token {} was already revoked", accessToken.tokenId());
+        }
+    }
+
+    public boolean isRevoked(JwtTokenService.VerifiedToken accessToken) {
+        return accessToken.tokenId() != null && accessToken.expiresAt() != null
+                && revoked.isRevoked(accessToken.tokenId(), accessToken.expiresAt());
+    }
+
+    // False when the refresh token was already redeemed, here or on another instance, so it works only once
+    public boolean redeem(JwtTokenService.VerifiedToken refreshToken) {
+        if (refreshToken.tokenId() == null || refreshToken.expiresAt() == null) {
+            return false;
+        }
+        try {
+            requiresNew.executeWithoutResult(status -> redeemedRefreshTokenRepository.saveAndFlush(
+                    RedeemedRefreshToken.builder()
+                            .tokenId(refreshToken.tokenId())
+                            .userId(refreshToken.userId())
+                            .expiresAt(LocalDateTime.ofInstant(refreshToken.expiresAt(), ZoneId.systemDefault()))
+                            .redeemedAt(LocalDateTime.now())
+                            .build()));
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+
+    // Keyset page ordered by (revokedAt, id); the same query serves other instances and the gateway
+    public List<RevokedTokenDto> getRevokedAfter(LocalDateTime since, long afterId, int limit) {
+        return revokedAccessTokenRepository.findRevokedAfter(since, afterId, Limit.of(limit)).stream()
+                .map(token -> RevokedTokenDto.builder()
+                        .id(token.getId())
+                        .tokenId(token.getTokenId())
+                        .expiresAt(token.getExpiresAt().atZone(ZoneId.systemDefault()).toInstant())
+                        .revokedAt(token.getRevokedAt())
+                        .build())
+                .toList();
+    }
+
+    // Picks up access tokens revoked on other instances
+    @Scheduled(fixedDelayString = "${booking.revocation.sync-interval-ms:1000}")
+    public void syncRevocations() {
+        LocalDateTime since = syncedUntil.minus(COMMIT_LAG);
+        long afterId = 0;
+        List<RevokedTokenDto> page;
+        do {
+            page = getRevokedAfter(since, afterId, SYNC_PAGE_SIZE);
+            for (RevokedTokenDto token : page) {
+                revoked.revoke(token.getTokenId(), token.getExpiresAt());
+                since = token.getRevokedAt();
+                afterId = token.getId();
+            }
+        } while (page.size() == SYNC_PAGE_SIZE);
+        if (since.isAfter(syncedUntil)) {
+            syncedUntil = since;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${booking.revocation.purge-interval-ms:60000}")
+    public void purgeExpired() {
+        int removed = revoked.purgeExpired(Instant.now());
+        if (removed > 0) {
+            log.debug("Dropped {} revoked access tokens that have expired", removed);
+        }
+        Integer deleted = requiresNew.execute(status -> redeemedRefreshTokenRepository.deleteExpired(LocalDateTime.now()));
+        if (deleted != null && deleted > 0) {
+            log.debug("Dropped {} redeemed refresh tokens that have expired", deleted);
+        }
+        Integer deletedAccess = requiresNew.execute(status -> revokedAccessTokenRepository.deleteExpired(LocalDateTime.now()));
+        if (deletedAccess != null && deletedAccess > 0) {
+            log.debug("Dropped {} revoked access token rows that have expired", deletedAccess);
+        }
+    }
+}
@@ -2,10 +2,13 @@ package ru.javabruse.booking.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import ru.javabruse.booking.dto.CursorPage;
+import ru.javabruse.booking.dto.UserCursor;
 import ru.javabruse.booking.dto.UserRegistrationRequest;
+import ru.javabruse.booking.dto.UserSummaryDto;
 import ru.javabruse.booking.entity.User;
 import ru.javabruse.booking.repository.UserRepository;
 
@@ -17,37 +20,53 @@ import java.util.List;
 public class UserService {
     
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHashingService passwordHashingService;
+    private final BookingReadCache bookingReadCache;
     
     @Transactional(readOnly = true)
-    public List<User> getAllUsers() {
-        return userRepository.findAll();
+    public CursorPage<UserSummaryDto> getUsers(String usernamePrefix, String cursor, int size) {
+        String pattern = escapeLike(usernamePrefix == null ? "" : usernamePrefix) + "%";
+        String afterUsername = cursor == null || cursor.isBlank() ? "" : UserCursor.decode(cursor).getUsername();
+        
+        // One extra row tells whether a next page exists without a count query
+        List<UserSummaryDto> users = userRepository.findSummariesAfter(pattern, afterUsername, Limit.of(size + 1));
+        
+        boolean hasNext = users.size() > size;
+        List<UserSummaryDto> content = hasNext ? users.subList(0, size) : users;
+        String nextCursor = hasNext ? new UserCursor(content.get(content.size() - 1).getUsername()).encode() : null;
+        
+        return CursorPage.<UserSummaryDto>builder()
+                .content(content)
+                .size(content.size())
+                .nextCursor(nextCursor)
+                .hasNext(hasNext)
+                .build();
     }
     
     @Transactional
-    public User createUser(UserRegistrationRequest request) {
+    public UserSummaryDto createUser(UserRegistrationRequest request) {
         if (userRepository.existsByUsername(request.getUsername())) {
             throw new RuntimeException("Username already exists");
         }
         
         User user = User.builder()
                 .username(request.getUsername())
-                .password(passwordEncoder.encode(request.getPassword()))
+                .password(passwordHashingService.encode(request.getPassword()))
                 .role(User.Role.USER)
                 .build();
         
-        return userRepository.save(user);
+        return toSummary(userRepository.save(user));
     }
     
     @Transactional
-    public User updateUser(Long userId, UserRegistrationRequest request) {
+    public UserSummaryDto updateUser(Long userId, UserRegistrationRequest request) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         
         user.setUsername(request.getUsername());
-        user.setPassword(passwordEncoder.encode(request.getPassword()));
+        user.setPassword(passwordHashingService.encode(request.getPassword()));
         
-        return userRepository.save(user);
+        return toSummary(userRepository.save(user));
     }
     
     @Transactional
@@ -57,6 +76,16 @@ public class UserService {
         }
         
         userRepository.deleteById(userId);
+        bookingReadCache.evictUser(userId);
         log.info("User {} deleted", userId);
     }
+    
+    // The password hash never leaves the service
+    private static UserSummaryDto toSummary(User user) {
+        return new UserSummaryDto(user.getId(), user.getUsername(), user.getRole());
+    }
+    
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
 }
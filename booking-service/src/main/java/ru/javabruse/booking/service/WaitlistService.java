@@ -0,0 +1,235 @@
+package ru.javabruse.booking.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import ru.javabruse.booking.dto.BookingDto;
+import ru.javabruse.booking.entity.Booking;
+import ru.javabruse.booking.event.BookingStatusChangedEvent;
+import ru.javabruse.util.IntervalTree;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Promotions ask the hotel service, so they run on a worker thread of their own rather than in the
+// thread that committed the release. The interval index only holds waiters this instance has seen; a
+// periodic sweep of the database picks up releases and waiters from other instances.
+@Slf4j
+@Service
+public class WaitlistService {
+
+    private static final Comparator<Waiter> FIFO = Comparator
+            .comparing(Waiter::createdAt)
+            .thenComparing(Waiter::bookingId);
+
+    private final BookingService bookingService;
+    private final int promotionBatchSize;
+    private final Counter promotions;
+    private final ExecutorService promoter;
+
+    // Waiters per room, indexed by stay period so a release only visits overlapping entries
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, IntervalTree<LocalDateTime, Waiter>> waitersByRoom = new HashMap<>();
+    private int waiting;
+    private long sweepAfterId;
+
+    public WaitlistService(BookingService bookingService,
+                           MeterRegistry meterRegistry,
+                           @Value("${booking.waitlist.promotion-batch-size:10}") int promotionBatchSize) {
+        this.bookingService = bookingService;
+        this.promotionBatchSize = promotionBatchSize;
+        this.promotions = Counter.builder("booking.waitlist.promotions")
+                .description("Waitlisted bookings confirmed after a room was released")
+                .register(meterRegistry);
+        Gauge.builder("booking.waitlist.size", this, WaitlistService::size)
+                .description("Bookings waiting for a room")
+                .register(meterRegistry);
+        this.promoter = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "waitlist-promoter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        List<BookingDto> waitlisted = bookingService.getWaitlistedBookings();
+        lock.lock();
+        try {
+            waitersByRoom.clear();
+            waiting = 0;
+            waitlisted.forEach(this::add);
+        } finally {
+            lock.unlock();
+        }
+        log.info("Waitlist rebuilt with {} bookings", waitlisted.size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookingStatusChanged(BookingStatusChangedEvent event) {
+        BookingDto booking = event.getBooking();
+        String waitlisted = Booking.BookingStatus.WAITLISTED.name();
+
+        if (waitlisted.equals(booking.getStatus())) {
+            lock.lock();
+            try {
+                add(booking);
+            } finally {
+                lock.unlock();
+            }
+        } else if (waitlisted.equals(event.getPreviousStatus())) {
+            lock.lock();
+            try {
+                remove(booking.getRoomId(), booking.getStartDate(), booking.getId());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        if (Booking.BookingStatus.CONFIRMED.name().equals(event.getPreviousStatus())
+                && Booking.BookingStatus.CANCELLED.name().equals(booking.getStatus())) {
+            promoter.execute(() -> promote(booking.getRoomId(), booking.getStartDate(), booking.getEndDate()));
+        }
+    }
+
+    public int promote(Long roomId, LocalDateTime startDate, LocalDateTime endDate) {
+        List<Waiter> candidates;
+        lock.lock();
+        try {
+            IntervalTree<LocalDateTime, Waiter> waiters = waitersByRoom.get(roomId);
+            if (waiters == null) {
+                return 0;
+            }
+            candidates = waiters.findOverlapping(startDate, endDate).stream()
+                    .sorted(FIFO)
+                    .limit(promotionBatchSize)
+                    .toList();
+            // Claimed waiters leave the index so a concurrent release does not try them twice
+            candidates.forEach(waiter -> remove(roomId, waiter.startDate(), waiter.bookingId()));
+        } finally {
+            lock.unlock();
+        }
+
+        int promoted = 0;
+        for (Waiter waiter : candidates) {
+            if (tryPromote(roomId, waiter)) {
+                promoted++;
+            }
+        }
+        return promoted;
+    }
+
+    // Waitlisted bookings whose room has no overlapping confirmed booking left, wherever it was released.
+    // Batches walk the waitlist by id so waiters the hotel keeps refusing do not starve the ones after them
+    @Scheduled(fixedDelayString = "${booking.waitlist.sweep-interval-ms:30000}")
+    public void sweep() {
+        List<BookingDto> candidates;
+        try {
+            candidates = bookingService.getPromotableWaitlistedBookings(LocalDateTime.now(), sweepAfterId,
+                    promotionBatchSize);
+        } catch (Exception e) {
+            log.warn("Waitlist sweep failed: {}", e.getMessage());
+            return;
+        }
+        sweepAfterId = candidates.size() < promotionBatchSize ? 0 : candidates.get(candidates.size() - 1).getId();
+        if (!candidates.isEmpty()) {
+            promoter.execute(() -> candidates.forEach(booking -> {
+                Waiter waiter = waiter(booking);
+                lock.lock();
+                try {
+                    remove(booking.getRoomId(), waiter.startDate(), waiter.bookingId());
+                } finally {
+                    lock.unlock();
+                }
+                tryPromote(booking.getRoomId(), waiter);
+            }));
+        }
+    }
+
+    private boolean tryPromote(Long roomId, Waiter waiter) {
+        BookingService.WaitlistPromotion result;
+        try {
+            result = bookingService.promoteWaitlistedBooking(waiter.bookingId());
+        } catch (Exception e) {
+            log.warn("Failed to promote waitlisted booking {}: {}", waiter.bookingId(), e.getMessage());
+            result = BookingService.WaitlistPromotion.STILL_WAITING;
+        }
+        if (result == BookingService.WaitlistPromotion.STILL_WAITING) {
+            lock.lock();
+            try {
+                put(roomId, waiter);
+            } finally {
+                lock.unlock();
+            }
+        } else if (result == BookingService.WaitlistPromotion.PROMOTED) {
+            promotions.increment();
+            return true;
+        }
+        return false;
+    }
+
+    @Scheduled(fixedDelayString = "${booking.waitlist.expiry-interval-ms:60000}")
+    public void expire() {
+        try {
+            bookingService.expireWaitlistedBookings(LocalDateTime.now());
+        } catch (Exception e) {
+            log.warn("Waitlist expiry failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        promoter.shutdownNow();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(BookingDto booking) {
+        put(booking.getRoomId(), waiter(booking));
+    }
+
+    private static Waiter waiter(BookingDto booking) {
+        return new Waiter(booking.getId(), booking.getStartDate(), booking.getEndDate(), booking.getCreatedAt());
+    }
+
+    private void put(Long roomId, Waiter waiter) {
+        IntervalTree<LocalDateTime, Waiter> waiters = waitersByRoom.computeIfAbsent(roomId, id -> new IntervalTree<>());
+        int before = waiters.size();
+        waiters.put(waiter.startDate(), waiter.endDate(), waiter.bookingId(), waiter);
+        waiting += waiters.size() - before;
+    }
+
+    private void remove(Long roomId, LocalDateTime startDate, Long bookingId) {
+        IntervalTree<LocalDateTime, Waiter> waiters = waitersByRoom.get(roomId);
+        if (waiters != null && waiters.remove(startDate, bookingId)) {
+            waiting--;
+            if (waiters.isEmpty()) {
+                waitersByRoom.remove(roomId);
+            }
+        }
+    }
+
+    private record Waiter(Long bookingId, LocalDateTime startDate, LocalDateTime endDate, LocalDateTime createdAt) {
+    }
+}
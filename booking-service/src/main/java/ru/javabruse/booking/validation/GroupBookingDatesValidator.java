@@ -0,0 +1,17 @@
+package ru.javabruse.booking.validation;
+
+import jakarta.validation.ConstraintValidator;
+import jakarta.validation.ConstraintValidatorContext;
+import ru.javabruse.booking.dto.GroupBookingRequest;
+
+public class GroupBookingDatesValidator implements ConstraintValidator<ValidBookingDates, GroupBookingRequest> {
+
+    @Override
+    public boolean isValid(GroupBookingRequest request, ConstraintValidatorContext context) {
+        if (request == null || request.getStartDate() == null || request.getEndDate() == null) {
+            return true; // Let @NotNull handle null values
+        }
+
+        return request.getEndDate().isAfter(request.getStartDate());
+    }
+}
@@ -1,42 +1,98 @@
 package ru.javabruse.booking;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureWebMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.server.ResponseStatusException;
+import ru.javabruse.booking.client.AsyncHotelServiceClient;
 import ru.javabruse.booking.client.HotelServiceClient;
+import ru.javabruse.booking.client.SingleFlightExecutor;
 import ru.javabruse.booking.config.SecurityConfig;
 import ru.javabruse.dto.RoomDto;
+import ru.javabruse.booking.dto.BookingDto;
 import ru.javabruse.booking.dto.BookingRequest;
+import ru.javabruse.booking.dto.GroupBookingRequest;
+import ru.javabruse.booking.dto.RefreshTokenRequest;
 import ru.javabruse.booking.dto.UserLoginRequest;
 import ru.javabruse.booking.dto.UserRegistrationRequest;
 import ru.javabruse.booking.entity.Booking;
+import ru.javabruse.booking.entity.IdempotencyRecord;
 import ru.javabruse.booking.entity.User;
 import ru.javabruse.booking.repository.BookingRepository;
+import ru.javabruse.booking.repository.IdempotencyRecordRepository;
+import ru.javabruse.booking.repository.RedeemedRefreshTokenRepository;
+import ru.javabruse.booking.repository.RevokedAccessTokenRepository;
 import ru.javabruse.booking.repository.UserRepository;
-import ru.javabruse.booking.service.JwtService;
+import ru.javabruse.booking.service.BookingReadCache;
+import ru.javabruse.booking.service.BookingService;
+import ru.javabruse.booking.service.IdempotencyService;
+import ru.javabruse.booking.service.PasswordHashingService;
+import ru.javabruse.booking.service.RoomCatalogReplica;
+import ru.javabruse.booking.service.TokenRevocationService;
+import ru.javabruse.booking.service.WaitlistService;
+import ru.javabruse.dto.RoomAvailabilityRequest;
+import ru.javabruse.dto.RoomBlockDto;
+import ru.javabruse.dto.RoomCatalogDelta;
+import ru.javabruse.service.InternalIdentityService;
+import ru.javabruse.service.JwtTokenService;
 
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
@@ -62,11 +118,51 @@ class BookingServiceIntegrationTest {
         private BookingRepository bookingRepository;
 
         @Autowired
-        private JwtService jwtService;
+        private IdempotencyRecordRepository idempotencyRecordRepository;
+
+        @Autowired
+        private IdempotencyService idempotencyService;
+
+        @Autowired
+        private RedeemedRefreshTokenRepository redeemedRefreshTokenRepository;
+
+        @Autowired
+        private RevokedAccessTokenRepository revokedAccessTokenRepository;
+
+        @Autowired
+        private PlatformTransactionManager transactionManager;
+
+        @Autowired
+        private JwtTokenService jwtService;
+
+        @Autowired
+        private InternalIdentityService internalIdentityService;
+
+        @Autowired
+        private RoomCatalogReplica roomCatalogReplica;
+
+        @Autowired
+        private SingleFlightExecutor singleFlightExecutor;
+
+        @Autowired
+        private MeterRegistry meterRegistry;
+
+        @Autowired
+        private BookingService bookingService;
+
+        @Autowired
+        private WaitlistService waitlistService;
+
+        @Autowired
+        @Qualifier("httpClient5")
+        private CloseableHttpClient feignHttpClient;
 
         @MockitoBean
         private HotelServiceClient hotelServiceClient;
 
+        @MockitoBean
+        private AsyncHotelServiceClient asyncHotelServiceClient;
+
         private MockMvc mockMvc;
         private ObjectMapper objectMapper;
 
@@ -105,6 +201,10 @@ class BookingServiceIntegrationTest {
                 lenient().when(hotelServiceClient.getRecommendedRooms()).thenReturn(mockRooms);
                 lenient().when(hotelServiceClient.confirmRoomAvailability(anyLong(), any())).thenReturn(true);
                 lenient().doNothing().when(hotelServiceClient).releaseRoom(anyLong(), anyString());
+                lenient().when(asyncHotelServiceClient.confirmRoomAvailability(anyLong(), any()))
+                                .thenReturn(CompletableFuture.completedFuture(true));
+                lenient().when(asyncHotelServiceClient.releaseRoom(anyLong(), anyString()))
+                                .thenReturn(CompletableFuture.completedFuture(null));
         }
 
         @Test
@@ -160,6 +260,147 @@ class BookingServiceIntegrationTest {
                 assertEquals(testUser.getId(), booking.getUser().getId());
         }
 
+        @Test
+        void testRefreshTokensRotateAndLogoutRevokes() throws Exception {
+                UserRegistrationRequest registrationRequest = UserRegistrationRequest.builder()
+                                .username("refresher")
+                                .password("password123")
+                                .build();
+                String registered = mockMvc.perform(post("/api/user/register")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(registrationRequest)))
+                                .andExpect(status().isCreated())
+                                .andExpect(jsonPath("$.refreshToken").exists())
+                                .andExpect(jsonPath("$.expiresIn").value(900))
+                                .andReturn().getResponse().getContentAsString();
+                String firstRefresh = objectMapper.readTree(registered).get("refreshToken").asText();
+
+                // A refresh token is not an access token
+                mockMvc.perform(get("/api/bookings")
+                                .header("Authorization", "Bearer " + firstRefresh))
+                                .andExpect(status().isUnauthorized());
+
+                String refreshed = mockMvc.perform(post("/api/user/refresh")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(new RefreshTokenRequest(firstRefresh))))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.username").value("refresher"))
+                                .andReturn().getResponse().getContentAsString();
+                String accessToken = objectMapper.readTree(refreshed).get("token").asText();
+                String secondRefresh = objectMapper.readTree(refreshed).get("refreshToken").asText();
+
+                // The used refresh token has been revoked by the rotation
+                mockMvc.perform(post("/api/user/refresh")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(new RefreshTokenRequest(firstRefresh))))
+                                .andExpect(status().isUnauthorized());
+
+                // The redemption is in the database, so a restarted or another instance refuses the token too
+                TokenRevocationService otherInstance = new TokenRevocationService(300, 1024,
+                                redeemedRefreshTokenRepository, revokedAccessTokenRepository, transactionManager,
+                                new SimpleMeterRegistry());
+                assertFalse(otherInstance.redeem(jwtService.verifyRefresh(firstRefresh)));
+                assertTrue(redeemedRefreshTokenRepository.existsByTokenId(jwtService.verifyRefresh(firstRefresh).tokenId()));
+
+                mockMvc.perform(get("/api/bookings")
+                                .header("Authorization", "Bearer " + accessToken))
+                                .andExpect(status().isOk());
+
+                mockMvc.perform(post("/api/user/logout")
+                                .header("Authorization", "Bearer " + accessToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(new RefreshTokenRequest(secondRefresh))))
+                                .andExpect(status().isNoContent());
+
+                mockMvc.perform(get("/api/bookings")
+                                .header("Authorization", "Bearer " + accessToken))
+                                .andExpect(status().isUnauthorized());
+                mockMvc.perform(post("/api/user/refresh")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(new RefreshTokenRequest(secondRefresh))))
+                                .andExpect(status().isUnauthorized());
+
+                // Other instances pick the logout up from the database on their next sync
+                JwtTokenService.VerifiedToken loggedOut = jwtService.verify(accessToken);
+                assertFalse(otherInstance.isRevoked(loggedOut));
+                otherInstance.syncRevocations();
+                assertTrue(otherInstance.isRevoked(loggedOut));
+
+                // The gateway reads the same feed; users cannot
+                MockHttpServletRequestBuilder feed = get("/api/user/revocations")
+                                .param("since", "2000-01-01T00:00:00");
+                internalIdentityService.signService("api-gateway").forEach(feed::header);
+                mockMvc.perform(feed)
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$[0].tokenId").value(loggedOut.tokenId()));
+                mockMvc.perform(get("/api/user/revocations")
+                                .param("since", "2000-01-01T00:00:00")
+                                .header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isForbidden());
+        }
+
+        @Test
+        void testPasswordHashingIsMeasuredAndShedsLoadWhenFull() throws Exception {
+                UserRegistrationRequest registrationRequest = UserRegistrationRequest.builder()
+                                .username("hashed")
+                                .password("password123")
+                                .build();
+                mockMvc.perform(post("/api/user/register")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(registrationRequest)))
+                                .andExpect(status().isCreated());
+                mockMvc.perform(post("/api/user/auth")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(registrationRequest)))
+                                .andExpect(status().isOk());
+
+                assertEquals(1, meterRegistry.get("booking.password.hashing")
+                                .tag("operation", "encode").tag("cost", "10").timer().count());
+                assertEquals(1, meterRegistry.get("booking.password.hashing")
+                                .tag("operation", "matches").tag("cost", "10").timer().count());
+
+                // One thread and one queue slot: a third concurrent request is turned away at once
+                CountDownLatch release = new CountDownLatch(1);
+                PasswordEncoder slowEncoder = new BCryptPasswordEncoder() {
+                        @Override
+                        public String encode(CharSequence rawPassword) {
+                                try {
+                                        release.await(10, TimeUnit.SECONDS);
+                                } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                }
+                                return super.encode(rawPassword);
+                        }
+                };
+                SimpleMeterRegistry hashingMetrics = new SimpleMeterRegistry();
+                PasswordHashingService hashing = new PasswordHashingService(
+                                slowEncoder, 1, 1, 10_000, 2, hashingMetrics);
+                ExecutorService callers = Executors.newFixedThreadPool(2);
+                try {
+                        List<Future<String>> accepted = List.of(
+                                        callers.submit(() -> hashing.encode("first")),
+                                        callers.submit(() -> hashing.encode("second")));
+                        long deadline = System.currentTimeMillis() + 5_000;
+                        while (hashingMetrics.get("booking.password.hashing.queue").gauge().value() < 1
+                                        && System.currentTimeMillis() < deadline) {
+                                Thread.sleep(10);
+                        }
+                        ResponseStatusException rejected = assertThrows(ResponseStatusException.class,
+                                        () -> hashing.encode("third"));
+                        assertEquals(503, rejected.getStatusCode().value());
+                        assertEquals("2", rejected.getHeaders().getFirst("Retry-After"));
+
+                        release.countDown();
+                        for (Future<String> future : accepted) {
+                                assertTrue(future.get(10, TimeUnit.SECONDS).startsWith("$2a$10$"));
+                        }
+                } finally {
+                        release.countDown();
+                        callers.shutdownNow();
+                        hashing.shutdown();
+                }
+        }
+
         @Test
         void testAutoSelectRoom() throws Exception {
                 BookingRequest bookingRequest = BookingRequest.builder()
@@ -201,6 +442,718 @@ class BookingServiceIntegrationTest {
                 System.out.println("GetBookings Response: " + result.getResponse().getContentAsString());
         }
 
+        @Test
+        void testBookingHistoryCursorPagination() throws Exception {
+                LocalDateTime base = LocalDateTime.now().withNano(0);
+                for (int i = 0; i < 25; i++) {
+                        bookingRepository.save(Booking.builder()
+                                        .user(testUser)
+                                        .roomId(1L)
+                                        .startDate(base.plusDays(1))
+                                        .endDate(base.plusDays(3))
+                                        .status(Booking.BookingStatus.CONFIRMED)
+                                        // pairs of bookings share createdAt to exercise the id tie-breaker
+                                        .createdAt(base.minusMinutes(i / 2))
+                                        .requestId("history-" + i)
+                                        .build());
+                }
+
+                Set<Long> seenIds = new HashSet<>();
+                List<Integer> pageSizes = new ArrayList<>();
+                LocalDateTime previousCreatedAt = null;
+                String cursor = null;
+                do {
+                        var request = get("/api/bookings/history")
+                                        .header("Authorization", "Bearer " + userToken)
+                                        .param("size", "10");
+                        if (cursor != null) {
+                                request.param("cursor", cursor);
+                        }
+                        MvcResult result = mockMvc.perform(request)
+                                        .andExpect(status().isOk())
+                                        .andReturn();
+                        JsonNode page = objectMapper.readTree(result.getResponse().getContentAsString());
+                        pageSizes.add(page.get("content").size());
+                        for (JsonNode booking : page.get("content")) {
+                                assertTrue(seenIds.add(booking.get("id").asLong()), "Booking returned twice");
+                                LocalDateTime createdAt = LocalDateTime.parse(booking.get("createdAt").asText());
+                                if (previousCreatedAt != null) {
+                                        assertFalse(createdAt.isAfter(previousCreatedAt));
+                                }
+                                previousCreatedAt = createdAt;
+                        }
+                        cursor = page.get("hasNext").asBoolean() ? page.get("nextCursor").asText() : null;
+                } while (cursor != null);
+
+                assertEquals(25, seenIds.size());
+                assertEquals(List.of(10, 10, 5), pageSizes);
+
+                mockMvc.perform(get("/api/bookings/history")
+                                .header("Authorization", "Bearer " + userToken)
+                                .param("cursor", "not-a-cursor"))
+                                .andExpect(status().isBadRequest());
+        }
+
+        @Test
+        void testBookingReadCacheFollowsStatusChanges() throws Exception {
+                BookingRequest bookingRequest = BookingRequest.builder()
+                                .roomId(1L)
+                                .startDate(LocalDateTime.now().plusDays(1))
+                                .endDate(LocalDateTime.now().plusDays(3))
+                                .autoSelect(false)
+                                .build();
+
+                MvcResult created = mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(bookingRequest)))
+                                .andExpect(status().isCreated())
+                                .andReturn();
+                long bookingId = objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asLong();
+
+                // Warm the cache for both the list and the single booking
+                mockMvc.perform(get("/api/bookings").header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.totalElements").value(1))
+                                .andExpect(jsonPath("$.content[0].status").value("CONFIRMED"));
+                mockMvc.perform(get("/api/booking/{id}", bookingId).header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.status").value("CONFIRMED"));
+
+                mockMvc.perform(delete("/api/booking/{id}", bookingId)
+                                .header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk());
+                mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(bookingRequest)))
+                                .andExpect(status().isCreated());
+
+                mockMvc.perform(get("/api/booking/{id}", bookingId).header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.status").value("CANCELLED"));
+                mockMvc.perform(get("/api/bookings").header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.totalElements").value(2))
+                                .andExpect(jsonPath("$.content[0].status").value("CONFIRMED"))
+                                .andExpect(jsonPath("$.content[1].id").value(bookingId))
+                                .andExpect(jsonPath("$.content[1].status").value("CANCELLED"));
+                mockMvc.perform(get("/api/bookings/history").header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.content.length()").value(2))
+                                .andExpect(jsonPath("$.hasNext").value(false));
+        }
+
+        @Test
+        void testBookingReadCacheExpiresAndHandsOutCopies() {
+                MutableClock clock = new MutableClock(Instant.now());
+                BookingReadCache cache = new BookingReadCache(10, 100, Duration.ofSeconds(30), clock);
+                BookingDto booking = BookingDto.builder().id(1L).userId(7L).roomId(1L).status("CONFIRMED").build();
+
+                cache.putBooking(7L, booking, cache.changeStamp(7L));
+                cache.putRecent(7L, List.of(booking), true, cache.changeStamp(7L));
+                booking.setStatus("CANCELLED");
+                cache.getBooking(7L, 1L).orElseThrow().setStatus("CANCELLED");
+                cache.getRecent(7L).orElseThrow().bookings().get(0).setStatus("CANCELLED");
+
+                assertEquals("CONFIRMED", cache.getBooking(7L, 1L).orElseThrow().getStatus());
+                assertEquals("CONFIRMED", cache.getRecent(7L).orElseThrow().bookings().get(0).getStatus());
+
+                // Another instance may have changed the booking; past the TTL the entry goes back to the database
+                clock.advance(Duration.ofSeconds(31));
+                assertTrue(cache.getBooking(7L, 1L).isEmpty());
+                assertTrue(cache.getRecent(7L).isEmpty());
+        }
+
+        @Test
+        void testBookingReadCacheServesUsersConcurrently() throws Exception {
+                BookingReadCache cache = new BookingReadCache(10, 100_000, Duration.ofSeconds(30), Clock.systemUTC());
+                int threads = 8;
+                long usersPerThread = 200;
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<Integer>> results = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                        long firstUser = t * usersPerThread;
+                        results.add(executor.submit(() -> {
+                                start.await();
+                                int hits = 0;
+                                for (long userId = firstUser; userId < firstUser + usersPerThread; userId++) {
+                                        BookingDto booking = BookingDto.builder().id(userId).userId(userId).roomId(1L).status("CONFIRMED").build();
+                                        cache.putBooking(userId, booking, cache.changeStamp(userId));
+                                        cache.putRecent(userId, List.of(booking), true, cache.changeStamp(userId));
+                                        if (cache.getBooking(userId, userId).map(BookingDto::getUserId).orElse(-1L) == userId
+                                                        && cache.getRecent(userId).orElseThrow().bookings().size() == 1) {
+                                                hits++;
+                                        }
+                                }
+                                return hits;
+                        }));
+                }
+                start.countDown();
+                for (Future<Integer> result : results) {
+                        assertEquals(usersPerThread, result.get(30, TimeUnit.SECONDS).longValue());
+                }
+                executor.shutdown();
+
+                // Each user lives in one segment only, so an eviction there does not touch anybody else
+                cache.evictUser(0L);
+                assertTrue(cache.getBooking(0L, 0L).isEmpty());
+                assertTrue(cache.getBooking(1L, 1L).isPresent());
+        }
+
+        @Test
+        void testReconciliationFindsAndRepairsDrift() throws Exception {
+                LocalDateTime createdAt = LocalDateTime.now().minusHours(1);
+                for (String requestId : List.of("a-matched", "c-missing-block", "d-cancelled")) {
+                        bookingRepository.save(Booking.builder()
+                                        .user(testUser)
+                                        .roomId(1L)
+                                        .startDate(LocalDateTime.now().plusDays(1))
+                                        .endDate(LocalDateTime.now().plusDays(3))
+                                        .status(requestId.equals("d-cancelled")
+                                                        ? Booking.BookingStatus.CANCELLED
+                                                        : Booking.BookingStatus.CONFIRMED)
+                                        .createdAt(createdAt)
+                                        .requestId(requestId)
+                                        .build());
+                }
+                List<RoomBlockDto> blocks = List.of(
+                                RoomBlockDto.builder().requestId("a-matched").roomId(1L).build(),
+                                RoomBlockDto.builder().requestId("b-orphan").roomId(2L).build(),
+                                RoomBlockDto.builder().requestId("d-cancelled").roomId(1L).build());
+                // Serve the blocks two at a time to exercise chunked paging
+                when(hotelServiceClient.getRoomBlocks(anyString(), any(), anyInt())).thenAnswer(invocation -> {
+                        String after = invocation.getArgument(0);
+                        int limit = invocation.getArgument(2);
+                        return blocks.stream()
+                                        .filter(block -> block.getRequestId().compareTo(after) > 0)
+                                        .limit(Math.min(limit, 2))
+                                        .toList();
+                });
+                String adminToken = jwtService.generateToken(999L, "admin", "ADMIN");
+
+                JsonNode report = awaitReconciliation(adminToken, mockMvc.perform(post("/api/admin/reconciliation")
+                                .header("Authorization", "Bearer " + adminToken))
+                                .andExpect(status().isAccepted())
+                                .andExpect(jsonPath("$.status").value("RUNNING"))
+                                .andReturn());
+                assertEquals(3, report.get("bookingsScanned").asLong());
+                assertEquals(3, report.get("blocksScanned").asLong());
+                assertEquals(2, report.get("orphanBlocks").asLong());
+                assertEquals(1, report.get("missingBlocks").asLong());
+                assertEquals(0, report.get("repaired").asLong());
+                verify(asyncHotelServiceClient, never()).releaseRoom(anyLong(), anyString());
+
+                report = awaitReconciliation(adminToken, mockMvc.perform(post("/api/admin/reconciliation")
+                                .header("Authorization", "Bearer " + adminToken)
+                                .param("repair", "true"))
+                                .andExpect(status().isAccepted())
+                                .andReturn());
+                assertEquals(3, report.get("repaired").asLong());
+                assertEquals(0, report.get("repairFailures").asLong());
+                verify(asyncHotelServiceClient).releaseRoom(2L, "b-orphan");
+                verify(asyncHotelServiceClient).releaseRoom(1L, "d-cancelled");
+                verify(asyncHotelServiceClient).confirmRoomAvailability(eq(1L), argThat(request ->
+                                request.getRequestId().equals("c-missing-block")));
+
+                // Only one run at a time
+                CountDownLatch scanning = new CountDownLatch(1);
+                CountDownLatch release = new CountDownLatch(1);
+                when(hotelServiceClient.getRoomBlocks(anyString(), any(), anyInt())).thenAnswer(invocation -> {
+                        scanning.countDown();
+                        release.await(5, TimeUnit.SECONDS);
+                        return List.of();
+                });
+                MvcResult slow = mockMvc.perform(post("/api/admin/reconciliation")
+                                .header("Authorization", "Bearer " + adminToken))
+                                .andExpect(status().isAccepted())
+                                .andReturn();
+                assertTrue(scanning.await(5, TimeUnit.SECONDS));
+                mockMvc.perform(post("/api/admin/reconciliation")
+                                .header("Authorization", "Bearer " + adminToken))
+                                .andExpect(status().isConflict());
+                release.countDown();
+                awaitReconciliation(adminToken, slow);
+
+                mockMvc.perform(post("/api/admin/reconciliation")
+                                .header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isForbidden());
+                mockMvc.perform(get("/api/admin/reconciliation/unknown")
+                                .header("Authorization", "Bearer " + adminToken))
+                                .andExpect(status().isNotFound());
+        }
+
+        private JsonNode awaitReconciliation(String adminToken, MvcResult started) throws Exception {
+                String runId = objectMapper.readTree(started.getResponse().getContentAsString()).get("runId").asText();
+                long deadline = System.currentTimeMillis() + 5000;
+                JsonNode run;
+                do {
+                        Thread.sleep(20);
+                        run = objectMapper.readTree(mockMvc.perform(get("/api/admin/reconciliation/" + runId)
+                                        .header("Authorization", "Bearer " + adminToken))
+                                        .andExpect(status().isOk())
+                                        .andReturn().getResponse().getContentAsString());
+                } while (run.get("status").asText().equals("RUNNING") && System.currentTimeMillis() < deadline);
+                assertEquals("FINISHED", run.get("status").asText());
+                return run.get("report");
+        }
+
+        @Test
+        void testAdminBookingExportStreamsCsvAndNdjson() throws Exception {
+                LocalDateTime createdAt = LocalDateTime.of(2026, 3, 10, 12, 0);
+                for (int i = 0; i < 3; i++) {
+                        bookingRepository.save(Booking.builder()
+                                        .user(testUser)
+                                        .roomId(1L + i)
+                                        .startDate(createdAt.plusDays(10))
+                                        .endDate(createdAt.plusDays(12))
+                                        .status(i == 2 ? Booking.BookingStatus.CANCELLED : Booking.BookingStatus.CONFIRMED)
+                                        .createdAt(createdAt.plusMinutes(i))
+                                        .requestId("export-" + i)
+                                        .build());
+                }
+                // Outside the requested range
+                bookingRepository.save(Booking.builder()
+                                .user(testUser)
+                                .roomId(9L)
+                                .startDate(createdAt.plusDays(10))
+                                .endDate(createdAt.plusDays(12))
+                                .status(Booking.BookingStatus.CONFIRMED)
+                                .createdAt(createdAt.plusMonths(1))
+                                .requestId("export-late")
+                                .build());
+                String adminToken = jwtService.generateToken(999L, "admin", "ADMIN");
+
+                MvcResult csvResult = mockMvc.perform(get("/api/admin/bookings/export")
+                                .header("Authorization", "Bearer " + adminToken)
+                                .param("from", "2026-03-01")
+                                .param("to", "2026-03-31")
+                                .param("status", "CONFIRMED"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                String csv = mockMvc.perform(asyncDispatch(csvResult))
+                                .andExpect(status().isOk())
+                                .andExpect(content().contentTypeCompatibleWith("text/csv"))
+                                .andReturn().getResponse().getContentAsString();
+                List<String> lines = csv.lines().toList();
+                assertEquals("id,userId,roomId,startDate,endDate,status,createdAt,requestId", lines.get(0));
+                assertEquals(3, lines.size());
+                assertTrue(lines.get(1).endsWith(",CONFIRMED,2026-03-10T12:00,export-0"));
+                assertTrue(lines.get(2).endsWith(",CONFIRMED,2026-03-10T12:01,export-1"));
+
+                MvcResult ndjsonResult = mockMvc.perform(get("/api/admin/bookings/export")
+                                .header("Authorization", "Bearer " + adminToken)
+                                .param("from", "2026-03-01")
+                                .param("to", "2026-03-31")
+                                .param("format", "ndjson")
+                                .param("gzip", "true"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                byte[] gzipped = mockMvc.perform(asyncDispatch(ndjsonResult))
+                                .andExpect(status().isOk())
+                                .andExpect(header().string("Content-Encoding", "gzip"))
+                                .andReturn().getResponse().getContentAsByteArray();
+                String ndjson;
+                try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+                        ndjson = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                }
+                List<JsonNode> rows = new ArrayList<>();
+                for (String line : ndjson.lines().toList()) {
+                        rows.add(objectMapper.readTree(line));
+                }
+                assertEquals(3, rows.size());
+                assertEquals("CANCELLED", rows.get(2).get("status").asText());
+                assertEquals("export-2", rows.get(2).get("requestId").asText());
+                assertEquals(testUser.getId(), rows.get(0).get("userId").asLong());
+
+                mockMvc.perform(get("/api/admin/bookings/export")
+                                .header("Authorization", "Bearer " + adminToken)
+                                .param("from", "2026-03-01")
+                                .param("to", "2026-03-31")
+                                .param("format", "xml"))
+                                .andExpect(status().isBadRequest());
+
+                mockMvc.perform(get("/api/admin/bookings/export")
+                                .header("Authorization", "Bearer " + userToken)
+                                .param("from", "2026-03-01")
+                                .param("to", "2026-03-31"))
+                                .andExpect(status().isForbidden());
+        }
+
+        @Test
+        void testAdminUserListIsPaginatedByUsernamePrefix() throws Exception {
+                for (String username : List.of("guest_a", "guest_b", "guest_c", "guestXd", "host")) {
+                        userRepository.save(User.builder()
+                                        .username(username)
+                                        .password("$2a$10$N.zmdr9k7uOCQb376NoUnuTJ8iAt6Z5EHsM8lE9lBOsl7iKTVEFDi")
+                                        .role(User.Role.USER)
+                                        .build());
+                }
+                String adminToken = jwtService.generateToken(999L, "admin", "ADMIN");
+
+                // "_" is matched literally, so guestXd is not part of the result
+                String firstPage = mockMvc.perform(get("/api/user")
+                                .header("Authorization", "Bearer " + adminToken)
+                                .param("usernamePrefix", "guest_")
+                                .param("size", "2"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.content.length()").value(2))
+                                .andExpect(jsonPath("$.content[0].username").value("guest_a"))
+                                .andExpect(jsonPath("$.content[0].role").value("USER"))
+                                .andExpect(jsonPath("$.content[0].password").doesNotExist())
+                                .andExpect(jsonPath("$.content[1].username").value("guest_b"))
+                                .andExpect(jsonPath("$.hasNext").value(true))
+                                .andReturn().getResponse().getContentAsString();
+                String cursor = objectMapper.readTree(firstPage).get("nextCursor").asText();
+
+                mockMvc.perform(get("/api/user")
+                                .header("Authorization", "Bearer " + adminToken)
+                                .param("usernamePrefix", "guest_")
+                                .param("size", "2")
+                                .param("cursor", cursor))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.content.length()").value(1))
+                                .andExpect(jsonPath("$.content[0].username").value("guest_c"))
+                                .andExpect(jsonPath("$.hasNext").value(false))
+                                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+
+                mockMvc.perform(get("/api/user")
+                                .header("Authorization", "Bearer " + adminToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.content.length()").value(6));
+
+                mockMvc.perform(get("/api/user")
+                                .header("Authorization", "Bearer " + adminToken)
+                                .param("size", "0"))
+                                .andExpect(status().isBadRequest());
+
+                mockMvc.perform(get("/api/user")
+                                .header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isForbidden());
+        }
+
+        @Test
+        void testAdminUserWritesDoNotReturnPasswordHash() throws Exception {
+                String adminToken = jwtService.generateToken(999L, "admin", "ADMIN");
+
+                String created = mockMvc.perform(post("/api/user")
+                                .header("Authorization", "Bearer " + adminToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(UserRegistrationRequest.builder()
+                                                .username("created_by_admin").password("secret1").build())))
+                                .andExpect(status().isCreated())
+                                .andExpect(jsonPath("$.username").value("created_by_admin"))
+                                .andExpect(jsonPath("$.role").value("USER"))
+                                .andExpect(jsonPath("$.password").doesNotExist())
+                                .andExpect(jsonPath("$.bookings").doesNotExist())
+                                .andReturn().getResponse().getContentAsString();
+                long id = objectMapper.readTree(created).get("id").asLong();
+
+                mockMvc.perform(patch("/api/user/" + id)
+                                .header("Authorization", "Bearer " + adminToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(UserRegistrationRequest.builder()
+                                                .username("renamed_by_admin").password("secret2").build())))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.id").value(id))
+                                .andExpect(jsonPath("$.username").value("renamed_by_admin"))
+                                .andExpect(jsonPath("$.password").doesNotExist());
+        }
+
+        @Test
+        void testRecommendedRoomsCallsAreCoalesced() throws Exception {
+                CountDownLatch release = new CountDownLatch(1);
+                when(hotelServiceClient.getRecommendedRooms()).thenAnswer(invocation -> {
+                        release.await(10, TimeUnit.SECONDS);
+                        return List.of(RoomDto.builder().id(1L).available(true).build());
+                });
+
+                int numberOfThreads = 8;
+                ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+                HotelServiceClient coalesced = singleFlightExecutor.wrap(HotelServiceClient.class, hotelServiceClient);
+                List<CompletableFuture<List<RoomDto>>> futures = new ArrayList<>();
+                for (int i = 0; i < numberOfThreads; i++) {
+                        futures.add(CompletableFuture.supplyAsync(coalesced::getRecommendedRooms, executor));
+                }
+                // The leader is held until every other caller has joined it
+                awaitCoalesced(meterRegistry, numberOfThreads - 1);
+                release.countDown();
+                for (CompletableFuture<List<RoomDto>> future : futures) {
+                        assertEquals(1L, future.get(10, TimeUnit.SECONDS).get(0).getId());
+                }
+                executor.shutdown();
+
+                verify(hotelServiceClient, times(1)).getRecommendedRooms();
+                assertEquals(numberOfThreads - 1, meterRegistry.get("hotel.client.single-flight.coalesced")
+                                .tag("method", "getRecommendedRooms").functionCounter().count());
+
+                // A misspelt method in the configuration fails fast instead of silently disabling coalescing
+                SingleFlightExecutor misconfigured = new SingleFlightExecutor(List.of("getRecomendedRooms"), 5000,
+                                new SimpleMeterRegistry());
+                assertThrows(IllegalStateException.class,
+                                () -> misconfigured.wrap(HotelServiceClient.class, hotelServiceClient));
+        }
+
+        @Test
+        void testSingleFlightReleasesFollowersWhenLeaderThrowsError() throws Exception {
+                SimpleMeterRegistry registry = new SimpleMeterRegistry();
+                SingleFlightExecutor executor = new SingleFlightExecutor(List.of("getRecommendedRooms"), 5000, registry);
+                CountDownLatch leaderStarted = new CountDownLatch(1);
+                CountDownLatch release = new CountDownLatch(1);
+
+                CompletableFuture<Object> leader = CompletableFuture.supplyAsync(() -> executor.execute(
+                                "getRecommendedRooms", List.of(), () -> {
+                                        leaderStarted.countDown();
+                                        try {
+                                                release.await(10, TimeUnit.SECONDS);
+                                        } catch (InterruptedException e) {
+                                                Thread.currentThread().interrupt();
+                                        }
+                                        throw new StackOverflowError("leader failed");
+                                }));
+                assertTrue(leaderStarted.await(10, TimeUnit.SECONDS));
+                CompletableFuture<Object> follower = CompletableFuture.supplyAsync(() -> executor.execute(
+                                "getRecommendedRooms", List.of(), () -> "not called"));
+                awaitCoalesced(registry, 1);
+                release.countDown();
+
+                ExecutionException leaderFailure = assertThrows(ExecutionException.class,
+                                () -> leader.get(10, TimeUnit.SECONDS));
+                assertInstanceOf(StackOverflowError.class, leaderFailure.getCause());
+                ExecutionException followerFailure = assertThrows(ExecutionException.class,
+                                () -> follower.get(10, TimeUnit.SECONDS));
+                assertInstanceOf(StackOverflowError.class, followerFailure.getCause());
+
+                // The failed flight is gone, so the next caller runs its own call
+                assertEquals("fresh", executor.execute("getRecommendedRooms", List.of(), () -> "fresh"));
+        }
+
+        private static void awaitCoalesced(MeterRegistry registry, long expected) throws InterruptedException {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (coalesced(registry) < expected) {
+                        assertTrue(System.nanoTime() < deadline, "Callers did not join the in-flight request");
+                        Thread.sleep(5);
+                }
+        }
+
+        private static double coalesced(MeterRegistry registry) {
+                FunctionCounter counter = registry.find("hotel.client.single-flight.coalesced")
+                                .tag("method", "getRecommendedRooms").functionCounter();
+                return counter == null ? 0 : counter.count();
+        }
+
+        @Test
+        void testFeignConnectionPoolReusesConnectionsAndReportsMetrics() throws Exception {
+                HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+                server.createContext("/ping", exchange -> {
+                        byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+                        exchange.sendResponseHeaders(200, body.length);
+                        try (OutputStream out = exchange.getResponseBody()) {
+                                out.write(body);
+                        }
+                });
+                server.start();
+                try {
+                        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/ping";
+                        for (int i = 0; i < 3; i++) {
+                                assertEquals("ok", feignHttpClient.execute(new HttpGet(url),
+                                                response -> EntityUtils.toString(response.getEntity())));
+                        }
+                } finally {
+                        server.stop(0);
+                }
+
+                assertEquals(3, meterRegistry.get("httpcomponents.httpclient.pool.lease").timer().count());
+                // Keep-alive: all three requests went over a single connection
+                assertEquals(1, meterRegistry.get("httpcomponents.httpclient.pool.connect").timer().count());
+                assertEquals(200, meterRegistry.get("httpcomponents.httpclient.pool.total.max").gauge().value());
+                assertEquals(1, meterRegistry.get("httpcomponents.httpclient.pool.total.connections")
+                                .tag("state", "available").gauge().value());
+        }
+
+        @Test
+        void testIdempotencyKeyReplaysOriginalBooking() throws Exception {
+                BookingRequest bookingRequest = BookingRequest.builder()
+                                .roomId(1L)
+                                .startDate(LocalDateTime.now().plusDays(1))
+                                .endDate(LocalDateTime.now().plusDays(3))
+                                .autoSelect(false)
+                                .build();
+                String body = objectMapper.writeValueAsString(bookingRequest);
+
+                int numberOfThreads = 5;
+                ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+                List<CompletableFuture<MvcResult>> futures = new ArrayList<>();
+                for (int i = 0; i < numberOfThreads; i++) {
+                        futures.add(CompletableFuture.supplyAsync(() -> {
+                                try {
+                                        return mockMvc.perform(post("/api/booking")
+                                                        .header("Authorization", "Bearer " + userToken)
+                                                        .header("Idempotency-Key", "retry-key-1")
+                                                        .contentType(MediaType.APPLICATION_JSON)
+                                                        .content(body))
+                                                        .andExpect(status().isCreated())
+                                                        .andReturn();
+                                } catch (Exception e) {
+                                        throw new RuntimeException(e);
+                                }
+                        }, executor));
+                }
+                Set<Long> bookingIds = new HashSet<>();
+                int originals = 0;
+                for (CompletableFuture<MvcResult> future : futures) {
+                        MvcResult result = future.get(30, TimeUnit.SECONDS);
+                        bookingIds.add(objectMapper.readTree(result.getResponse().getContentAsString()).get("id").asLong());
+                        if ("false".equals(result.getResponse().getHeader("Idempotent-Replayed"))) {
+                                originals++;
+                        }
+                }
+                executor.shutdown();
+
+                assertEquals(1, bookingIds.size());
+                assertEquals(1, originals);
+                assertEquals(1, bookingRepository.count());
+                verify(hotelServiceClient, times(1)).confirmRoomAvailability(anyLong(), any());
+
+                mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .header("Idempotency-Key", "retry-key-1")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(body))
+                                .andExpect(status().isCreated())
+                                .andExpect(header().string("Idempotent-Replayed", "true"))
+                                .andExpect(jsonPath("$.id").value(bookingIds.iterator().next()));
+
+                bookingRequest.setRoomId(2L);
+                mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .header("Idempotency-Key", "retry-key-1")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(bookingRequest)))
+                                .andExpect(status().isUnprocessableEntity());
+        }
+
+        @Test
+        void testStaleIdempotencyClaimIsTakenOverWithNewRequestId() throws Exception {
+                idempotencyRecordRepository.save(IdempotencyRecord.builder()
+                                .userId(testUser.getId())
+                                .idempotencyKey("stale-key")
+                                .requestHash("0".repeat(64))
+                                .requestId("stale-request-id")
+                                .createdAt(LocalDateTime.now().minusHours(1))
+                                .build());
+                BookingRequest bookingRequest = BookingRequest.builder()
+                                .roomId(1L)
+                                .startDate(LocalDateTime.now().plusDays(1))
+                                .endDate(LocalDateTime.now().plusDays(3))
+                                .autoSelect(false)
+                                .build();
+
+                // The original request never finished; the retry books instead of getting 409 until the purge
+                mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .header("Idempotency-Key", "stale-key")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(bookingRequest)))
+                                .andExpect(status().isCreated())
+                                .andExpect(header().string("Idempotent-Replayed", "false"))
+                                .andExpect(jsonPath("$.status").value("CONFIRMED"));
+
+                IdempotencyRecord claim = idempotencyRecordRepository
+                                .findByUserIdAndIdempotencyKey(testUser.getId(), "stale-key").orElseThrow();
+                assertNotEquals("stale-request-id", claim.getRequestId());
+                assertNotNull(claim.getBookingId());
+                ArgumentCaptor<RoomAvailabilityRequest> sent = ArgumentCaptor.forClass(RoomAvailabilityRequest.class);
+                verify(hotelServiceClient).confirmRoomAvailability(eq(1L), sent.capture());
+                assertEquals(claim.getRequestId(), sent.getValue().getRequestId());
+        }
+
+        @Test
+        void testIdempotencyReplayExpiresWithPurgedRecord() throws Exception {
+                BookingRequest bookingRequest = BookingRequest.builder()
+                                .roomId(1L)
+                                .startDate(LocalDateTime.now().plusDays(1))
+                                .endDate(LocalDateTime.now().plusDays(3))
+                                .autoSelect(false)
+                                .build();
+                String body = objectMapper.writeValueAsString(bookingRequest);
+                MvcResult original = mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .header("Idempotency-Key", "expiring-key")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(body))
+                                .andExpect(status().isCreated())
+                                .andReturn();
+                long originalId = objectMapper.readTree(original.getResponse().getContentAsString()).get("id").asLong();
+
+                // Same fields in another order: the fingerprint comes from the canonical serialization
+                String reordered = objectMapper.writeValueAsString(Map.of(
+                                "autoSelect", false,
+                                "endDate", bookingRequest.getEndDate(),
+                                "startDate", bookingRequest.getStartDate(),
+                                "roomId", 1L));
+                mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .header("Idempotency-Key", "expiring-key")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(reordered))
+                                .andExpect(status().isCreated())
+                                .andExpect(header().string("Idempotent-Replayed", "true"))
+                                .andExpect(jsonPath("$.id").value(originalId));
+
+                // Once the record has been purged the key is free again, in memory as well as in the table
+                ReflectionTestUtils.setField(idempotencyService, "ttlHours", 0L);
+                idempotencyService.purgeExpired();
+                assertTrue(idempotencyRecordRepository.findByUserIdAndIdempotencyKey(testUser.getId(), "expiring-key").isEmpty());
+                MvcResult retried = mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .header("Idempotency-Key", "expiring-key")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(body))
+                                .andExpect(status().isCreated())
+                                .andExpect(header().string("Idempotent-Replayed", "false"))
+                                .andReturn();
+                assertNotEquals(originalId, objectMapper.readTree(retried.getResponse().getContentAsString()).get("id").asLong());
+        }
+
+        @Test
+        void testGroupBookingIsAllOrNothing() throws Exception {
+                GroupBookingRequest groupRequest = GroupBookingRequest.builder()
+                                .roomIds(List.of(1L, 2L, 3L))
+                                .startDate(LocalDateTime.now().plusDays(1))
+                                .endDate(LocalDateTime.now().plusDays(3))
+                                .build();
+
+                when(hotelServiceClient.confirmRoomAvailabilityBatch(any())).thenReturn(true);
+                mockMvc.perform(post("/api/bookings/group")
+                                .header("Authorization", "Bearer " + userToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(groupRequest)))
+                                .andExpect(status().isCreated())
+                                .andExpect(jsonPath("$.length()").value(3))
+                                .andExpect(jsonPath("$[*].status").value(everyItem(is("CONFIRMED"))));
+                verify(hotelServiceClient, times(1)).confirmRoomAvailabilityBatch(any());
+                verify(hotelServiceClient, never()).confirmRoomAvailability(anyLong(), any());
+
+                when(hotelServiceClient.confirmRoomAvailabilityBatch(any())).thenReturn(false);
+                mockMvc.perform(post("/api/bookings/group")
+                                .header("Authorization", "Bearer " + userToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(groupRequest)))
+                                .andExpect(status().isCreated())
+                                .andExpect(jsonPath("$[*].status").value(everyItem(is("CANCELLED"))));
+
+                groupRequest.setRoomIds(List.of(1L, 1L));
+                mockMvc.perform(post("/api/bookings/group")
+                                .header("Authorization", "Bearer " + userToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(groupRequest)))
+                                .andExpect(status().isBadRequest());
+
+                assertEquals(6, bookingRepository.count());
+        }
+
         @Test
         void testBookingCancellation() throws Exception {
                 Booking booking = Booking.builder()
@@ -222,6 +1175,192 @@ class BookingServiceIntegrationTest {
                 assertEquals(Booking.BookingStatus.CANCELLED, cancelledBooking.getStatus());
         }
 
+        @Test
+        void testWaitlistedBookingIsPromotedWhenRoomIsReleased() throws Exception {
+                // The room is free, then taken, then free again after the cancellation
+                when(hotelServiceClient.confirmRoomAvailability(anyLong(), any())).thenReturn(true, false, true);
+                LocalDateTime startDate = LocalDateTime.now().plusDays(5);
+                BookingRequest request = BookingRequest.builder()
+                                .roomId(1L)
+                                .startDate(startDate)
+                                .endDate(startDate.plusDays(2))
+                                .build();
+
+                MvcResult first = mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(request)))
+                                .andExpect(status().isCreated())
+                                .andExpect(jsonPath("$.status").value("CONFIRMED"))
+                                .andReturn();
+                Long firstId = objectMapper.readTree(first.getResponse().getContentAsString()).get("id").asLong();
+
+                request.setStartDate(startDate.plusDays(1));
+                request.setEndDate(startDate.plusDays(3));
+                request.setWaitlist(true);
+                MvcResult second = mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(request)))
+                                .andExpect(status().isCreated())
+                                .andExpect(jsonPath("$.status").value("WAITLISTED"))
+                                .andReturn();
+                Long secondId = objectMapper.readTree(second.getResponse().getContentAsString()).get("id").asLong();
+
+                mockMvc.perform(delete("/api/booking/{id}", firstId)
+                                .header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk());
+
+                // Promotion runs on the waitlist worker, after the cancellation has already answered
+                awaitStatus(secondId, Booking.BookingStatus.CONFIRMED);
+                // Once when the booking was created and once more on promotion
+                verify(hotelServiceClient, times(2)).confirmRoomAvailability(eq(1L), argThat(availability ->
+                                availability.getBookingId().equals(secondId.toString())));
+                mockMvc.perform(get("/api/booking/{id}", secondId)
+                                .header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.status").value("CONFIRMED"));
+        }
+
+        // A waiter this instance never saw, for a room released elsewhere, is found by the sweep
+        @Test
+        void testWaitlistSweepPromotesWaitersFromTheDatabase() throws Exception {
+                LocalDateTime startDate = LocalDateTime.now().plusDays(5);
+                Booking taken = bookingRepository.save(Booking.builder()
+                                .user(testUser)
+                                .roomId(2L)
+                                .startDate(startDate)
+                                .endDate(startDate.plusDays(2))
+                                .status(Booking.BookingStatus.WAITLISTED)
+                                .createdAt(LocalDateTime.now())
+                                .requestId("sweep-taken")
+                                .build());
+                Booking free = bookingRepository.save(Booking.builder()
+                                .user(testUser)
+                                .roomId(3L)
+                                .startDate(startDate)
+                                .endDate(startDate.plusDays(2))
+                                .status(Booking.BookingStatus.WAITLISTED)
+                                .createdAt(LocalDateTime.now())
+                                .requestId("sweep-free")
+                                .build());
+                bookingRepository.save(Booking.builder()
+                                .user(testUser)
+                                .roomId(2L)
+                                .startDate(startDate.plusDays(1))
+                                .endDate(startDate.plusDays(4))
+                                .status(Booking.BookingStatus.CONFIRMED)
+                                .createdAt(LocalDateTime.now())
+                                .requestId("sweep-holder")
+                                .build());
+
+                waitlistService.sweep();
+
+                awaitStatus(free.getId(), Booking.BookingStatus.CONFIRMED);
+                assertEquals(Booking.BookingStatus.WAITLISTED,
+                                bookingRepository.findById(taken.getId()).orElseThrow().getStatus());
+                verify(hotelServiceClient, never()).confirmRoomAvailability(eq(2L), any());
+        }
+
+        // The hotel call holds no lock on the booking, so a cancellation can land meanwhile; the block
+        // the hotel made for it is handed back
+        @Test
+        void testWaitlistPromotionReleasesRoomWhenBookingWasCancelledMeanwhile() {
+                LocalDateTime startDate = LocalDateTime.now().plusDays(5);
+                Booking waiting = bookingRepository.save(Booking.builder()
+                                .user(testUser)
+                                .roomId(4L)
+                                .startDate(startDate)
+                                .endDate(startDate.plusDays(2))
+                                .status(Booking.BookingStatus.WAITLISTED)
+                                .createdAt(LocalDateTime.now())
+                                .requestId("cancelled-meanwhile")
+                                .build());
+                when(hotelServiceClient.confirmRoomAvailability(eq(4L), any())).thenAnswer(invocation -> {
+                        Booking cancelled = bookingRepository.findById(waiting.getId()).orElseThrow();
+                        cancelled.setStatus(Booking.BookingStatus.CANCELLED);
+                        bookingRepository.save(cancelled);
+                        return true;
+                });
+
+                assertEquals(BookingService.WaitlistPromotion.GONE, bookingService.promoteWaitlistedBooking(waiting.getId()));
+                assertEquals(Booking.BookingStatus.CANCELLED,
+                                bookingRepository.findById(waiting.getId()).orElseThrow().getStatus());
+                verify(hotelServiceClient).releaseRoom(4L, "cancelled-meanwhile");
+        }
+
+        private void awaitStatus(Long bookingId, Booking.BookingStatus expected) throws InterruptedException {
+                long deadline = System.currentTimeMillis() + 5000;
+                while (bookingRepository.findById(bookingId).orElseThrow().getStatus() != expected
+                                && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(20);
+                }
+                assertEquals(expected, bookingRepository.findById(bookingId).orElseThrow().getStatus());
+        }
+
+        @Test
+        void testBookingStatusStreamPushesOwnChanges() throws Exception {
+                MvcResult stream = mockMvc.perform(get("/api/bookings/stream")
+                                .header("Authorization", "Bearer " + userToken)
+                                .accept(MediaType.TEXT_EVENT_STREAM))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+
+                // Another user's booking must not reach this stream
+                User otherUser = userRepository.save(User.builder()
+                                .username("otheruser")
+                                .password("$2a$10$N.zmdr9k7uOCQb376NoUnuTJ8iAt6Z5EHsM8lE9lBOsl7iKTVEFDi")
+                                .role(User.Role.USER)
+                                .build());
+                String otherToken = jwtService.generateToken(otherUser.getId(), otherUser.getUsername(), "USER");
+                BookingRequest request = BookingRequest.builder()
+                                .roomId(1L)
+                                .startDate(LocalDateTime.now().plusDays(1))
+                                .endDate(LocalDateTime.now().plusDays(3))
+                                .build();
+                mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + otherToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(request)))
+                                .andExpect(status().isCreated());
+
+                MvcResult created = mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(request)))
+                                .andExpect(status().isCreated())
+                                .andReturn();
+                Long bookingId = objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asLong();
+                mockMvc.perform(delete("/api/booking/{id}", bookingId)
+                                .header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk());
+
+                String body = "";
+                long deadline = System.currentTimeMillis() + 5000;
+                while (!body.contains(bookingId + ":CANCELLED") && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(50);
+                        body = stream.getResponse().getContentAsString();
+                }
+                assertTrue(body.contains("event:booking-status"));
+                assertTrue(body.contains("id:" + bookingId + ":CONFIRMED"));
+                assertTrue(body.contains("id:" + bookingId + ":CANCELLED"));
+                assertEquals(2, body.split("event:booking-status").length - 1);
+        }
+
+        @Test
+        void testMetricsNeedAdminButHealthIsPublic() throws Exception {
+                mockMvc.perform(get("/actuator/health"))
+                                .andExpect(status().isOk());
+                mockMvc.perform(get("/actuator/metrics"))
+                                .andExpect(status().is4xxClientError());
+                mockMvc.perform(get("/actuator/metrics")
+                                .header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isForbidden());
+                mockMvc.perform(get("/actuator/metrics/booking.events.stream.subscribers")
+                                .header("Authorization", "Bearer " + jwtService.generateToken(999L, "admin", "ADMIN")))
+                                .andExpect(status().isOk());
+        }
+
         @Test
         void testUnauthorizedAccess() throws Exception {
                 BookingRequest bookingRequest = BookingRequest.builder()
@@ -243,6 +1382,64 @@ class BookingServiceIntegrationTest {
                                 .andExpect(status().is4xxClientError());
         }
 
+        @Test
+        void testVerifiedTokenCacheOnlyMatchesExactToken() throws Exception {
+                mockMvc.perform(get("/api/bookings")
+                                .header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk());
+                // Served from the verified-token cache this time
+                mockMvc.perform(get("/api/bookings")
+                                .header("Authorization", "Bearer " + userToken))
+                                .andExpect(status().isOk());
+
+                String signature = userToken.substring(userToken.lastIndexOf('.') + 1);
+                char flipped = signature.charAt(0) == 'A' ? 'B' : 'A';
+                String tampered = userToken.substring(0, userToken.lastIndexOf('.') + 1)
+                                + flipped + signature.substring(1);
+                mockMvc.perform(get("/api/bookings")
+                                .header("Authorization", "Bearer " + tampered))
+                                .andExpect(status().isUnauthorized());
+
+                MutableClock clock = new MutableClock(Instant.now());
+                JwtTokenService shortLived = new JwtTokenService(
+                                "TiA+XVEuNl1vL0d9QFJ1RyZqUSEsIg==Zk5LWEtJMklXInF2Y2ZHMnhAejA+JUorJA==",
+                                Duration.ofMinutes(1), Duration.ofHours(1), 16, clock);
+                String token = shortLived.generateToken(testUser.getId(), "testuser", "USER");
+                assertEquals(List.of("USER"), shortLived.verify(token).roles());
+                clock.advance(Duration.ofMinutes(2));
+                assertThrows(ExpiredJwtException.class, () -> shortLived.verify(token));
+        }
+
+        @Test
+        void testGatewayIdentityHeadersAuthenticateWithoutToken() throws Exception {
+                Map<String, String> identity = internalIdentityService.sign(new JwtTokenService.VerifiedToken(
+                                testUser.getId(), "testuser", List.of("USER"), Instant.now().plusSeconds(600),
+                                "identity-test", false));
+
+                MockHttpServletRequestBuilder signed = get("/api/bookings");
+                identity.forEach(signed::header);
+                mockMvc.perform(signed)
+                                .andExpect(status().isOk());
+
+                // A client cannot claim another user or role by editing the headers
+                MockHttpServletRequestBuilder escalated = get("/api/admin/bookings/export")
+                                .param("from", "2026-03-01")
+                                .param("to", "2026-03-31");
+                Map<String, String> forged = new HashMap<>(identity);
+                forged.put(InternalIdentityService.ROLES_HEADER, "ADMIN");
+                forged.forEach(escalated::header);
+                mockMvc.perform(escalated)
+                                .andExpect(status().isUnauthorized());
+
+                Map<String, String> expired = internalIdentityService.sign(new JwtTokenService.VerifiedToken(
+                                testUser.getId(), "testuser", List.of("USER"), Instant.now().minusSeconds(1),
+                                "identity-test", false));
+                MockHttpServletRequestBuilder stale = get("/api/bookings");
+                expired.forEach(stale::header);
+                mockMvc.perform(stale)
+                                .andExpect(status().isUnauthorized());
+        }
+
         @Test
         void testConcurrentBookings() throws Exception {
                 int numberOfThreads = 10;
@@ -305,4 +1502,118 @@ class BookingServiceIntegrationTest {
                                 .content(objectMapper.writeValueAsString(invalidDateRequest)))
                                 .andExpect(status().isBadRequest());
         }
+
+        @Test
+        void testAutoSelectUsesLocalRoomCatalog() throws Exception {
+                RoomDto popularRoom = RoomDto.builder().id(7L).hotelId(1L).number("107").available(true).timesBooked(5).build();
+                RoomDto quietRoom = RoomDto.builder().id(8L).hotelId(1L).number("108").available(true).timesBooked(1).build();
+                when(hotelServiceClient.getRoomCatalogChanges(anyLong(), anyLong(), anyInt()))
+                                .thenReturn(RoomCatalogDelta.builder()
+                                                .rooms(List.of(popularRoom, quietRoom))
+                                                .version(100L)
+                                                .afterId(8L)
+                                                .hasMore(false)
+                                                .build());
+                roomCatalogReplica.sync();
+
+                BookingRequest bookingRequest = BookingRequest.builder()
+                                .startDate(LocalDateTime.now().plusDays(1))
+                                .endDate(LocalDateTime.now().plusDays(3))
+                                .autoSelect(true)
+                                .build();
+
+                mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(bookingRequest)))
+                                .andExpect(status().isCreated())
+                                .andExpect(jsonPath("$.roomId").value(8));
+
+                verify(hotelServiceClient, never()).getRecommendedRooms();
+        }
+
+        @Test
+        void testUnknownRoomRejectedByLocalRoomCatalog() throws Exception {
+                RoomDto room = RoomDto.builder().id(1L).hotelId(1L).number("101").available(true).timesBooked(0).build();
+                when(hotelServiceClient.getRoomCatalogChanges(anyLong(), anyLong(), anyInt()))
+                                .thenReturn(RoomCatalogDelta.builder()
+                                                .rooms(List.of(room))
+                                                .version(100L)
+                                                .afterId(1L)
+                                                .hasMore(false)
+                                                .build());
+                roomCatalogReplica.sync();
+
+                BookingRequest bookingRequest = BookingRequest.builder()
+                                .roomId(42L)
+                                .startDate(LocalDateTime.now().plusDays(1))
+                                .endDate(LocalDateTime.now().plusDays(3))
+                                .autoSelect(false)
+                                .build();
+
+                mockMvc.perform(post("/api/booking")
+                                .header("Authorization", "Bearer " + userToken)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(bookingRequest)))
+                                .andExpect(status().isBadRequest());
+
+                assertEquals(0, bookingRepository.count());
+                verify(hotelServiceClient, never()).confirmRoomAvailability(anyLong(), any());
+        }
+
+        @Test
+        void testRoomCatalogReplicaDropsDeletedRooms() {
+                RoomDto kept = RoomDto.builder().id(11L).hotelId(1L).number("111").available(true).timesBooked(0).build();
+                RoomDto removed = RoomDto.builder().id(12L).hotelId(1L).number("112").available(true).timesBooked(0).build();
+                when(hotelServiceClient.getRoomCatalogChanges(anyLong(), anyLong(), anyInt()))
+                                .thenReturn(RoomCatalogDelta.builder()
+                                                .rooms(List.of(kept, removed))
+                                                .removedRoomIds(List.of())
+                                                .version(200L)
+                                                .afterId(12L)
+                                                .hasMore(false)
+                                                .build(),
+                                                RoomCatalogDelta.builder()
+                                                .rooms(List.of())
+                                                .removedRoomIds(List.of(12L))
+                                                .version(201L)
+                                                .afterId(12L)
+                                                .hasMore(false)
+                                                .build());
+
+                roomCatalogReplica.sync();
+                roomCatalogReplica.sync();
+                assertTrue(roomCatalogReplica.findRoom(11L).isPresent());
+                assertTrue(roomCatalogReplica.findRoom(12L).isEmpty());
+                assertTrue(roomCatalogReplica.getRecommendedRooms().stream().noneMatch(room -> room.getId() == 12L));
+                // The second sync resumes exactly after the last row of the first one
+                verify(hotelServiceClient, atLeastOnce()).getRoomCatalogChanges(eq(200L), eq(12L), anyInt());
+        }
+
+        private static final class MutableClock extends Clock {
+                private Instant now;
+
+                private MutableClock(Instant now) {
+                        this.now = now;
+                }
+
+                private void advance(Duration duration) {
+                        now = now.plus(duration);
+                }
+
+                @Override
+                public ZoneId getZone() {
+                        return ZoneOffset.UTC;
+                }
+
+                @Override
+                public Clock withZone(ZoneId zone) {
+                        return this;
+                }
+
+                @Override
+                public Instant instant() {
+                        return now;
+                }
+        }
 }
@@ -0,0 +1,200 @@
+package ru.javabruse.booking;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.server.ResponseStatusException;
+import ru.javabruse.booking.dto.BookingDto;
+import ru.javabruse.booking.entity.User;
+import ru.javabruse.booking.event.BookingStatusChangedEvent;
+import ru.javabruse.booking.repository.UserRepository;
+import ru.javabruse.booking.service.BookingStatusBroadcaster;
+import ru.javabruse.service.JwtTokenService;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:booking-stream;DB_CLOSE_DELAY=-1",
+        "booking.events.sender-threads=1",
+        "booking.events.send-timeout-ms=300",
+        "booking.events.stall-check-interval-ms=100"
+})
+@ActiveProfiles("test")
+class BookingStatusStreamTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private BookingStatusBroadcaster broadcaster;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private JwtTokenService jwtService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void testConcurrentSubscribesStayWithinPerUserLimit() throws Exception {
+        BookingStatusBroadcaster limited = new BookingStatusBroadcaster(32, 10_000, 5, 60_000, 10_000, 1_000, 1,
+                new SimpleMeterRegistry());
+        ExecutorService clients = Executors.newFixedThreadPool(20);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Boolean>> subscribes = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                subscribes.add(clients.submit(() -> {
+                    start.await();
+                    try {
+                        limited.subscribe(1L);
+                        return true;
+                    } catch (ResponseStatusException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+            int accepted = 0;
+            for (Future<Boolean> subscribe : subscribes) {
+                if (subscribe.get(5, TimeUnit.SECONDS)) {
+                    accepted++;
+                }
+            }
+            assertEquals(5, accepted);
+            assertEquals(5, limited.getSubscriberCount());
+        } finally {
+            clients.shutdownNow();
+            limited.shutdown();
+        }
+    }
+
+    // With a single sender thread stuck writing to a client that stopped reading, another stream of the
+    // same user must still get its events once the stuck one has been dropped
+    @Test
+    void testClientThatStopsReadingIsDroppedWithoutStallingOthers() throws Exception {
+        User user = userRepository.save(User.builder()
+                .username("streamuser")
+                .password("$2a$10$N.zmdr9k7uOCQb376NoUnuTJ8iAt6Z5EHsM8lE9lBOsl7iKTVEFDi")
+                .role(User.Role.USER)
+                .build());
+        String token = jwtService.generateToken(user.getId(), user.getUsername(), "USER");
+        double stalledBefore = meterRegistry.counter("booking.events.stream.stalled").count();
+
+        try (Socket stuck = openStream(token)) {
+            awaitSubscribers(1);
+
+            fillUntilStalled(user.getId(), stalledBefore + 1);
+            assertEquals(0, broadcaster.getSubscriberCount());
+
+            HttpClient httpClient = HttpClient.newHttpClient();
+            CompletableFuture<HttpResponse<InputStream>> response = httpClient.sendAsync(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/bookings/stream"))
+                            .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                            .header(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE)
+                            .build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            awaitSubscribers(1);
+            broadcaster.onBookingStatusChanged(event(user.getId(), -1L, "DONE"));
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    response.get(5, TimeUnit.SECONDS).body(), StandardCharsets.UTF_8))) {
+                CompletableFuture<Boolean> received = CompletableFuture.supplyAsync(() -> reader.lines()
+                        .anyMatch(line -> line.equals("id:-1:DONE")));
+                assertTrue(received.get(5, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    // One sender thread allows two stand-ins; the third stuck client is dropped without another thread
+    @Test
+    void testStandInSendersAreCapped() throws Exception {
+        User user = userRepository.save(User.builder()
+                .username("stuckuser")
+                .password("$2a$10$N.zmdr9k7uOCQb376NoUnuTJ8iAt6Z5EHsM8lE9lBOsl7iKTVEFDi")
+                .role(User.Role.USER)
+                .build());
+        String token = jwtService.generateToken(user.getId(), user.getUsername(), "USER");
+        double stalledBefore = meterRegistry.counter("booking.events.stream.stalled").count();
+
+        try (Socket first = openStream(token); Socket second = openStream(token); Socket third = openStream(token)) {
+            awaitSubscribers(3);
+
+            fillUntilStalled(user.getId(), stalledBefore + 3);
+            assertEquals(0, broadcaster.getSubscriberCount());
+            long senders = Thread.getAllStackTraces().keySet().stream()
+                    .filter(thread -> thread.getName().startsWith("booking-sse-") && !thread.getName().endsWith("watchdog"))
+                    .count();
+            assertTrue(senders <= 3, "sender threads: " + senders);
+        }
+    }
+
+    private Socket openStream(String token) throws Exception {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("localhost", port));
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /api/bookings/stream HTTP/1.1\r\nHost: localhost\r\n"
+                + "Authorization: Bearer " + token + "\r\nAccept: text/event-stream\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    // Events big enough to fill the socket buffers quickly, which the clients never read
+    private void fillUntilStalled(Long userId, double stalled) throws InterruptedException {
+        String padding = "X".repeat(16 * 1024);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        long id = 0;
+        while (meterRegistry.counter("booking.events.stream.stalled").count() < stalled && System.nanoTime() < deadline) {
+            broadcaster.onBookingStatusChanged(event(userId, ++id, padding));
+            Thread.sleep(1);
+        }
+        assertEquals(stalled, meterRegistry.counter("booking.events.stream.stalled").count());
+    }
+
+    private void awaitSubscribers(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (broadcaster.getSubscriberCount() != count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, broadcaster.getSubscriberCount());
+    }
+
+    private static BookingStatusChangedEvent event(Long userId, Long bookingId, String status) {
+        return new BookingStatusChangedEvent(BookingDto.builder()
+                .id(bookingId)
+                .userId(userId)
+                .roomId(1L)
+                .status(status)
+                .build(), "CONFIRMED");
+    }
+}
@@ -0,0 +1,52 @@
+package ru.javabruse.booking;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.h2.jdbc.JdbcConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.javabruse.config.ConcurrencyLimitedDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrencyLimitedDataSourceTest {
+
+    private HikariDataSource pool;
+
+    @BeforeEach
+    void setUp() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:limited;DB_CLOSE_DELAY=-1");
+        config.setMaximumPoolSize(2);
+        pool = new HikariDataSource(config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void testPermitIsHeldUntilCloseAndUnwrapStaysOnProxy() throws Exception {
+        ConcurrencyLimitedDataSource limited = new ConcurrencyLimitedDataSource(pool, 1, 100);
+
+        Connection connection = limited.getConnection();
+        assertEquals(0, limited.getAvailablePermits());
+        assertThrows(SQLTransientConnectionException.class, limited::getConnection);
+
+        assertSame(connection, connection.unwrap(Connection.class));
+        assertTrue(connection.isWrapperFor(Connection.class));
+        // Driver-specific interfaces still reach the pooled connection
+        assertTrue(connection.isWrapperFor(JdbcConnection.class));
+        assertNotNull(connection.unwrap(JdbcConnection.class));
+        assertEquals(connection, connection);
+
+        connection.close();
+        connection.close();
+        assertEquals(1, limited.getAvailablePermits());
+    }
+}
@@ -12,7 +12,9 @@ import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.context.WebApplicationContext;
@@ -23,13 +25,15 @@ import ru.javabruse.booking.entity.Booking;
 import ru.javabruse.booking.entity.User;
 import ru.javabruse.booking.repository.BookingRepository;
 import ru.javabruse.booking.repository.UserRepository;
-import ru.javabruse.booking.service.JwtService;
 import ru.javabruse.dto.RoomDto;
+import ru.javabruse.service.JwtTokenService;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -60,7 +64,7 @@ class ConcurrentBookingTest {
     private BookingRepository bookingRepository;
 
     @Autowired
-    private JwtService jwtService;
+    private JwtTokenService jwtService;
 
     @MockitoBean
     private HotelServiceClient hotelServiceClient;
@@ -215,29 +219,31 @@ class ConcurrentBookingTest {
     void testConcurrentAutoSelectBookings() throws Exception {
         int numberOfThreads = 8;
         ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        List<CompletableFuture<MvcResult>> futures = new ArrayList<>();
         List<RoomDto> mockRooms = List.of(
                 createRoomDto(1L, "101"),
                 createRoomDto(2L, "102"));
         when(hotelServiceClient.getRecommendedRooms())
                 .thenReturn(mockRooms);
+        // Like hotel-service, a room is blocked for the period by the first request only
+        Set<Long> blockedRooms = ConcurrentHashMap.newKeySet();
         when(hotelServiceClient.confirmRoomAvailability(anyLong(), any()))
-                .thenReturn(true);
+                .thenAnswer(invocation -> blockedRooms.add(invocation.getArgument(0)));
         for (int i = 0; i < numberOfThreads; i++) {
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+            CompletableFuture<MvcResult> future = CompletableFuture.supplyAsync(() -> {
                 try {
                     BookingRequest bookingRequest = BookingRequest.builder()
                             .startDate(LocalDateTime.now().plusDays(1))
                             .endDate(LocalDateTime.now().plusDays(3))
                             .autoSelect(true)
                             .build();
-                    mockMvc.perform(post("/api/booking")
+                    return mockMvc.perform(post("/api/booking")
                             .header("Authorization", "Bearer " + userToken)
                             .contentType(MediaType.APPLICATION_JSON)
                             .content(objectMapper.writeValueAsString(bookingRequest)))
-                            .andExpect(status().isCreated());
+                            .andReturn();
                 } catch (Exception e) {
-                    System.out.println("Auto-select booking failed: " + e.getMessage());
+                    throw new IllegalStateException("Auto-select booking failed", e);
                 }
             }, executor);
             futures.add(future);
@@ -247,8 +253,26 @@ class ConcurrentBookingTest {
                 .get(30, TimeUnit.SECONDS);
         executor.shutdown();
 
-        List<Booking> bookings = bookingRepository.findAll();
-        assertTrue(bookings.size() > 0, "At least some bookings should be created");
+        // Whichever room a request picked first, the two rooms go to exactly two of them
+        int created = 0;
+        int rejected = 0;
+        for (CompletableFuture<MvcResult> future : futures) {
+            MockHttpServletResponse response = future.get().getResponse();
+            if (response.getStatus() == 201
+                    && objectMapper.readTree(response.getContentAsString()).get("status").asText().equals("CONFIRMED")) {
+                created++;
+            } else {
+                rejected++;
+            }
+        }
+        assertEquals(2, created);
+        assertEquals(6, rejected);
+        List<Long> confirmedRooms = bookingRepository.findAll().stream()
+                .filter(booking -> booking.getStatus() == Booking.BookingStatus.CONFIRMED)
+                .map(Booking::getRoomId)
+                .sorted()
+                .toList();
+        assertEquals(List.of(1L, 2L), confirmedRooms);
     }
 
     private RoomDto createRoomDto(Long id, String number) {
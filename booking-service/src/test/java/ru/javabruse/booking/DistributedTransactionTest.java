@@ -22,7 +22,7 @@ import ru.javabruse.booking.entity.Booking;
 import ru.javabruse.booking.entity.User;
 import ru.javabruse.booking.repository.BookingRepository;
 import ru.javabruse.booking.repository.UserRepository;
-import ru.javabruse.booking.service.JwtService;
+import ru.javabruse.service.JwtTokenService;
 
 import java.time.LocalDateTime;
 import java.util.concurrent.CompletableFuture;
@@ -55,7 +55,7 @@ class DistributedTransactionTest {
     private BookingRepository bookingRepository;
 
     @Autowired
-    private JwtService jwtService;
+    private JwtTokenService jwtService;
 
     @MockitoBean
     private HotelServiceClient hotelServiceClient;
@@ -0,0 +1,163 @@
+package ru.javabruse.booking;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.javabruse.booking.client.HttpAsyncHotelServiceClient;
+import ru.javabruse.dto.RoomAvailabilityRequest;
+import ru.javabruse.loadbalancer.InstanceLoadTracker;
+import ru.javabruse.service.InternalIdentityService;
+import ru.javabruse.service.JwtTokenService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class HttpAsyncHotelServiceClientTest {
+
+    private static final String SECRET = "e41ImV13ZMZwr/DhupjyJkui4gMXVIczzuRDRIl8ytVnZ5mHGgz0+jUT6RBAvm6y";
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final InternalIdentityService identity = new InternalIdentityService(SECRET);
+    private final InstanceLoadTracker loadTracker = new InstanceLoadTracker(10_000_000_000L, 1_000_000_000L);
+    private final Map<String, Received> received = new ConcurrentHashMap<>();
+    private final Map<String, Integer> statuses = new ConcurrentHashMap<>();
+    private final CountDownLatch slowRelease = new CountDownLatch(1);
+
+    private HttpServer hotelService;
+    private ServiceInstance instance;
+    private HttpAsyncHotelServiceClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        hotelService = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        hotelService.createContext("/", this::handle);
+        hotelService.setExecutor(Executors.newCachedThreadPool());
+        hotelService.start();
+
+        instance = new DefaultServiceInstance("hotel-1", "hotel-management-service", "localhost",
+                hotelService.getAddress().getPort(), false);
+        LoadBalancerClient loadBalancer = mock(LoadBalancerClient.class);
+        when(loadBalancer.choose("hotel-management-service")).thenReturn(instance);
+        DefaultListableBeanFactory beans = new DefaultListableBeanFactory();
+        beans.registerSingleton("instanceLoadTracker", loadTracker);
+
+        client = new HttpAsyncHotelServiceClient(loadBalancer, beans.getBeanProvider(InstanceLoadTracker.class),
+                objectMapper, identity, "booking-service", 2000, 2000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        slowRelease.countDown();
+        hotelService.stop(0);
+    }
+
+    @Test
+    void testConfirmSendsJsonWithServiceIdentity() throws Exception {
+        RoomAvailabilityRequest request = RoomAvailabilityRequest.builder()
+                .roomId(7L)
+                .startDate(LocalDateTime.of(2030, 5, 1, 14, 0))
+                .endDate(LocalDateTime.of(2030, 5, 3, 12, 0))
+                .bookingId("41")
+                .requestId("r-41")
+                .build();
+
+        assertTrue(client.confirmRoomAvailability(7L, request).get(5, TimeUnit.SECONDS));
+
+        Received call = received.get("POST /api/rooms/7/confirm-availability");
+        assertNotNull(call);
+        assertEquals(request, objectMapper.readValue(call.body(), RoomAvailabilityRequest.class));
+        JwtTokenService.VerifiedToken caller = identity.verify(call.headers()::getFirst);
+        assertEquals("booking-service", caller.username());
+        assertEquals(List.of(InternalIdentityService.SERVICE_ROLE), caller.roles());
+        assertEquals(0, loadTracker.get(instance).inFlight());
+        assertTrue(loadTracker.latencyNanos(instance) > 0);
+    }
+
+    @Test
+    void testReleaseEncodesRequestIdAndFailsOnErrorStatus() throws Exception {
+        assertNull(client.releaseRoom(3L, "r 1&x").get(5, TimeUnit.SECONDS));
+        assertEquals("requestId=r%201%26x", received.get("POST /api/rooms/3/release").rawQuery());
+
+        statuses.put("/api/rooms/4/release", 500);
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> client.releaseRoom(4L, "r-2").get(5, TimeUnit.SECONDS));
+        assertTrue(failure.getCause().getMessage().contains("status 500"));
+        assertEquals(0, loadTracker.get(instance).inFlight());
+    }
+
+    // Calls run side by side without a caller thread each, which is what reconciliation relies on
+    @Test
+    void testCallsRunConcurrentlyWithoutBlockingTheCaller() throws Exception {
+        statuses.put("/api/rooms/9/release", -1);
+        List<CompletableFuture<Void>> calls = List.of(
+                client.releaseRoom(9L, "a"), client.releaseRoom(9L, "b"), client.releaseRoom(9L, "c"));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (loadTracker.get(instance).inFlight() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, loadTracker.get(instance).inFlight());
+        assertTrue(calls.stream().noneMatch(CompletableFuture::isDone));
+
+        slowRelease.countDown();
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertEquals(0, loadTracker.get(instance).inFlight());
+    }
+
+    // Answers confirm with true and everything else with an empty 200; a status of -1 holds the answer back
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readAllBytes();
+        }
+        String path = exchange.getRequestURI().getPath();
+        Headers headers = new Headers();
+        headers.putAll(exchange.getRequestHeaders());
+        received.put(exchange.getRequestMethod() + " " + path,
+                new Received(headers, body, exchange.getRequestURI().getRawQuery()));
+
+        int status = statuses.getOrDefault(path, 200);
+        if (status == -1) {
+            try {
+                slowRelease.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            status = 200;
+        }
+        byte[] response = path.endsWith("/confirm-availability") ? "true".getBytes(StandardCharsets.UTF_8) : new byte[0];
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length == 0 ? -1 : response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private record Received(Headers headers, byte[] body, String rawQuery) {
+    }
+}
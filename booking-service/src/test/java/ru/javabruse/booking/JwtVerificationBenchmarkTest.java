@@ -0,0 +1,119 @@
+package ru.javabruse.booking;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import ru.javabruse.service.JwtTokenService;
+import ru.javabruse.util.RevocationSet;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Run with -Dbenchmark=true. Compares the old per-request key and parser construction with the
+// shared JwtTokenService, without and with the verified-token cache, over a set of active users,
+// and measures the revocation check that runs on every authenticated request. A hand-rolled warm-up and
+// timed loop rather than JMH, so the numbers are for comparing the variants against each other.
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class JwtVerificationBenchmarkTest {
+
+    private static final String SECRET =
+            "TiA+XVEuNl1vL0d9QFJ1RyZqUSEsIg==Zk5LWEtJMklXInF2Y2ZHMnhAejA+JUorJA==IHVrdVVyQ15fRXFwZjVnRV5BJn5XfDE4YQ==";
+    private static final int ACTIVE_USERS = 1_000;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int MEASURED_ROUNDS = 200;
+
+    @Test
+    void compareVerificationCost() {
+        JwtTokenService uncached = new JwtTokenService(SECRET, Duration.ofHours(1), Duration.ofDays(1), 0,
+                Clock.systemUTC());
+        JwtTokenService cached = new JwtTokenService(SECRET, Duration.ofHours(1), Duration.ofDays(1), ACTIVE_USERS * 2,
+                Clock.systemUTC());
+
+        List<String> tokens = new ArrayList<>();
+        for (long i = 0; i < ACTIVE_USERS; i++) {
+            tokens.add(uncached.generateToken(i, "user" + i, "USER"));
+        }
+
+        Verifier rebuilt = token -> {
+            Claims claims = Jwts.parserBuilder()
+                    .setSigningKey(Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8)))
+                    .build()
+                    .parseClaimsJws(token)
+                    .getBody();
+            return claims.get("userId", Long.class);
+        };
+        Verifier shared = token -> uncached.verify(token).userId();
+        Verifier sharedWithCache = token -> cached.verify(token).userId();
+
+        double rebuiltNanos = measure(rebuilt, tokens);
+        double sharedNanos = measure(shared, tokens);
+        double cachedNanos = measure(sharedWithCache, tokens);
+
+        log.info("per-request parser: {} ns/op, shared parser: {} ns/op, shared + cache: {} ns/op",
+                Math.round(rebuiltNanos), Math.round(sharedNanos), Math.round(cachedNanos));
+    }
+
+    @Test
+    void measureRevocationCheck() {
+        RevocationSet revoked = new RevocationSet(Duration.ofMinutes(5), 65536);
+        Instant expiresAt = Instant.now().plus(Duration.ofMinutes(15));
+        List<String> tokenIds = new ArrayList<>();
+        for (int i = 0; i < ACTIVE_USERS; i++) {
+            tokenIds.add(UUID.randomUUID().toString());
+            // Every tenth active token is revoked, far more than a real deployment would see
+            if (i % 10 == 0) {
+                revoked.revoke(tokenIds.get(i), expiresAt);
+            }
+        }
+
+        Verifier check = tokenId -> revoked.isRevoked(tokenId, expiresAt) ? 1 : 0;
+        long hits = 0;
+        for (String tokenId : tokenIds) {
+            hits += check.userId(tokenId);
+        }
+        assertEquals(ACTIVE_USERS / 10, hits);
+
+        // The check is cheap enough that it needs far more rounds than verification to reach compiled code
+        double nanos = measure(check, tokenIds, ACTIVE_USERS / 10, WARMUP_ROUNDS * 40, MEASURED_ROUNDS * 10);
+        log.info("revocation check: {} ns/op", Math.round(nanos));
+    }
+
+    private double measure(Verifier verifier, List<String> tokens) {
+        return measure(verifier, tokens, (long) ACTIVE_USERS * (ACTIVE_USERS - 1) / 2, WARMUP_ROUNDS, MEASURED_ROUNDS);
+    }
+
+    private double measure(Verifier verifier, List<String> tokens, long expectedPerRound,
+                           int warmupRounds, int measuredRounds) {
+        long checksum = 0;
+        for (int round = 0; round < warmupRounds; round++) {
+            for (String token : tokens) {
+                checksum += verifier.userId(token);
+            }
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < measuredRounds; round++) {
+            for (String token : tokens) {
+                checksum += verifier.userId(token);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long expected = (warmupRounds + measuredRounds) * expectedPerRound;
+        assertEquals(expected, checksum);
+        return (double) elapsed / ((long) measuredRounds * tokens.size());
+    }
+
+    private interface Verifier {
+        long userId(String token);
+    }
+}
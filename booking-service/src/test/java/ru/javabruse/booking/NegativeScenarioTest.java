@@ -24,7 +24,7 @@ import ru.javabruse.booking.entity.Booking;
 import ru.javabruse.booking.entity.User;
 import ru.javabruse.booking.repository.BookingRepository;
 import ru.javabruse.booking.repository.UserRepository;
-import ru.javabruse.booking.service.JwtService;
+import ru.javabruse.service.JwtTokenService;
 
 import java.time.LocalDateTime;
 
@@ -53,7 +53,7 @@ class NegativeScenarioTest {
         private BookingRepository bookingRepository;
 
         @Autowired
-        private JwtService jwtService;
+        private JwtTokenService jwtService;
 
         @MockitoBean
         private HotelServiceClient hotelServiceClient;
@@ -0,0 +1,176 @@
+package ru.javabruse.booking;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.javabruse.booking.dto.AuthResponse;
+import ru.javabruse.booking.dto.BookingRequest;
+import ru.javabruse.booking.dto.UserRegistrationRequest;
+import ru.javabruse.util.InternalMediaTypes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Run with -Dbenchmark=true; the virtual-thread half needs Java 21+. Starts booking-service with platform and
+// then virtual Tomcat threads in front of a stub hotel-service that answers confirm-availability after
+// REMOTE_CALL_MS, and drives POST /api/booking over HTTP, so Tomcat, security, the transaction, the Feign
+// call and the inserts are all on the measured path. Not JMH: one warmed-up timed pass per mode, logged.
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class VirtualThreadBenchmarkTest {
+
+    private static final int CLIENTS = 1_000;
+    private static final int REQUESTS = 5_000;
+    private static final int WARMUP_REQUESTS = 500;
+    private static final int PLATFORM_THREADS = 200;
+    private static final int DB_CONNECTIONS = 10;
+    private static final long REMOTE_CALL_MS = 50;
+
+    private final ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private HttpServer hotelService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        byte[] confirmed = Jackson2ObjectMapperBuilder.smile().build().writeValueAsBytes(Boolean.TRUE);
+        hotelService = HttpServer.create(new InetSocketAddress("localhost", 0), 4096);
+        hotelService.createContext("/", exchange -> answer(exchange, confirmed));
+        hotelService.setExecutor(Executors.newCachedThreadPool());
+        hotelService.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        hotelService.stop(0);
+    }
+
+    @Test
+    void compareThroughput() throws Exception {
+        double platform = run(false);
+        if (Runtime.version().feature() < 21) {
+            log.info("platform({} Tomcat threads): {} req/s; virtual threads skipped, they need Java 21+",
+                    PLATFORM_THREADS, Math.round(platform));
+            return;
+        }
+        double virtual = run(true);
+        log.info("platform({} Tomcat threads): {} req/s, virtual: {} req/s",
+                PLATFORM_THREADS, Math.round(platform), Math.round(virtual));
+    }
+
+    private double run(boolean virtualThreads) throws Exception {
+        String mode = virtualThreads ? "virtual" : "platform";
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(BookingServiceApplication.class)
+                .profiles("test")
+                .properties(
+                        "spring.threads.virtual.enabled=" + virtualThreads,
+                        "server.tomcat.threads.max=" + PLATFORM_THREADS,
+                        "spring.datasource.url=jdbc:h2:mem:benchmark-" + mode + ";DB_CLOSE_DELAY=-1",
+                        "spring.datasource.hikari.maximum-pool-size=" + DB_CONNECTIONS,
+                        "spring.cloud.discovery.client.simple.instances.hotel-management-service[0].uri=http://localhost:"
+                                + hotelService.getAddress().getPort(),
+                        // Quiet per-request logging without silencing the results of this and other benchmarks
+                        "logging.level.ru.javabruse.booking.service=WARN",
+                        "logging.level.ru.javabruse.booking.config=ERROR",
+                        "logging.level.ru.javabruse.booking.client=WARN")
+                .run()) {
+            String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            String token = register(baseUrl, "benchmark-" + mode);
+
+            ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+            try {
+                send(clients, baseUrl, token, 0, WARMUP_REQUESTS);
+                long start = System.nanoTime();
+                send(clients, baseUrl, token, WARMUP_REQUESTS, REQUESTS);
+                return REQUESTS / ((System.nanoTime() - start) / 1_000_000_000.0);
+            } finally {
+                clients.shutdownNow();
+            }
+        }
+    }
+
+    // Every booking is for a room of its own, so none of them is turned away by an earlier one
+    private void send(ExecutorService clients, String baseUrl, String token, int firstRoom, int count) throws Exception {
+        List<Future<Integer>> statuses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long roomId = firstRoom + i + 1;
+            statuses.add(clients.submit(() -> post(baseUrl + "/api/booking", token, BookingRequest.builder()
+                    .roomId(roomId)
+                    .startDate(LocalDateTime.now().plusDays(1))
+                    .endDate(LocalDateTime.now().plusDays(3))
+                    .build()).statusCode()));
+        }
+        int created = 0;
+        for (Future<Integer> status : statuses) {
+            if (status.get(5, TimeUnit.MINUTES) == 201) {
+                created++;
+            }
+        }
+        assertEquals(count, created);
+    }
+
+    private String register(String baseUrl, String username) throws Exception {
+        HttpResponse<String> response = post(baseUrl + "/api/user/register", null,
+                UserRegistrationRequest.builder().username(username).password("benchmark").build());
+        return json.readValue(response.body(), AuthResponse.class).getToken();
+    }
+
+    private HttpResponse<String> post(String url, String token, Object body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMinutes(1))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(json.writeValueAsBytes(body)));
+        if (token != null) {
+            request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        }
+        return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    // confirm-availability waits like a real remote call and confirms; anything else, e.g. the catalog replica's
+    // polling, gets a 404 so the booking path does not depend on it
+    private static void answer(HttpExchange exchange, byte[] confirmed) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            in.readAllBytes();
+        }
+        if (!exchange.getRequestURI().getPath().endsWith("/confirm-availability")) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        try {
+            Thread.sleep(REMOTE_CALL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, InternalMediaTypes.SMILE_VALUE);
+        exchange.sendResponseHeaders(200, confirmed.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(confirmed);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ru.javabruse.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    // With virtual threads the request thread count no longer bounds DB load, so a semaphore does.
+    // It is sized from the pool itself; db.concurrency.limit can only lower it, never exceed it.
+    @Bean
+    public static BeanPostProcessor dataSourceConcurrencyLimiter(
+            @Value("${db.concurrency.limit:0}") int configuredLimit,
+            @Value("${db.concurrency.acquire-timeout-ms:5000}") long acquireTimeoutMs) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof ConcurrencyLimitedDataSource)) {
+                    int limit = limitFor(dataSource, configuredLimit);
+                    log.info("Limiting DataSource '{}' to {} concurrent connections", beanName, limit);
+                    return new ConcurrencyLimitedDataSource(dataSource, limit, acquireTimeoutMs);
+                }
+                return bean;
+            }
+        };
+    }
+
+    static int limitFor(DataSource dataSource, int configuredLimit) {
+        if (!(dataSource instanceof HikariDataSource hikari)) {
+            if (configuredLimit <= 0) {
+                throw new IllegalStateException("db.concurrency.limit is required for a non-Hikari DataSource");
+            }
+            return configuredLimit;
+        }
+        int poolSize = hikari.getMaximumPoolSize();
+        if (configuredLimit <= 0) {
+            return poolSize;
+        }
+        if (configuredLimit > poolSize) {
+            log.warn("db.concurrency.limit {} exceeds the pool's maximum of {}, using the pool size", configuredLimit, poolSize);
+            return poolSize;
+        }
+        return configuredLimit;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.javabruse.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RevokedTokenDto {
+    private Long id;
+    private String tokenId;
+    private Instant expiresAt;
+    // Position in the feed, passed back as is by the reader
+    private LocalDateTime revokedAt;
+}
@@ -0,0 +1,21 @@
+package ru.javabruse.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RoomAvailabilityBatchRequest {
+    @NotEmpty(message = "At least one room is required")
+    @Size(max = 50, message = "At most 50 rooms can be confirmed at once")
+    private List<@Valid RoomAvailabilityRequest> requests;
+}
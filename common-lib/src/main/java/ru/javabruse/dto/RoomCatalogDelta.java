@@ -0,0 +1,24 @@
+package ru.javabruse.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RoomCatalogDelta {
+    private List<RoomDto> rooms;
+    
+    private List<Long> removedRoomIds;
+    
+    private Long version;
+    
+    private Long afterId;
+    
+    private Boolean hasMore;
+}
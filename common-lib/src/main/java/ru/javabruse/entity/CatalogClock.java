@@ -0,0 +1,20 @@
+package ru.javabruse.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Single-row counter behind Room.catalogVersion; see RoomCatalogClock
+@Entity
+@Table(name = "catalog_clock")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogClock {
+    @Id
+    private Long id;
+    
+    @Column(nullable = false)
+    private Long version;
+}
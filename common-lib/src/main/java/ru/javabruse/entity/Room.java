@@ -13,8 +13,10 @@ import java.util.List;
     @Index(name = "idx_room_hotel_id", columnList = "hotel_id"),
     @Index(name = "idx_room_available", columnList = "available"),
     @Index(name = "idx_room_times_booked", columnList = "times_booked"),
-    @Index(name = "idx_room_number", columnList = "number")
+    @Index(name = "idx_room_number", columnList = "number"),
+    @Index(name = "idx_room_catalog_version", columnList = "catalog_version, id")
 })
+@EntityListeners(RoomCatalogVersionListener.class)
 @Data
 @Builder
 @NoArgsConstructor
@@ -38,6 +40,14 @@ public class Room {
     @Builder.Default
     private Integer timesBooked = 0;
     
+    // Null from a write until its commit has been stamped; see RoomCatalogClock
+    private Long catalogVersion;
+    
+    // Tombstone: a deleted room keeps its row, so the catalog delta can tell replicas to drop it
+    @Column(nullable = false)
+    @Builder.Default
+    private Boolean deleted = false;
+    
     @OneToMany(mappedBy = "room", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     private List<RoomAvailability> availabilityBlocks;
 }
@@ -9,7 +9,9 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "room_availability")
+@Table(name = "room_availability", indexes = {
+    @Index(name = "idx_availability_request_id", columnList = "request_id")
+})
 @Data
 @Builder
 @NoArgsConstructor
@@ -37,4 +39,14 @@ public class RoomAvailability {
     
     @Column
     private String requestId;
+    
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+    
+    @PrePersist
+    void initCreatedAt() {
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
+    }
 }
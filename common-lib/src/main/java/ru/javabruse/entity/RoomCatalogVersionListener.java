@@ -0,0 +1,31 @@
+package ru.javabruse.entity;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostUpdate;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import ru.javabruse.service.RoomCatalogClock;
+
+// Created by Hibernate through Spring, so every room write is stamped from the shared clock after commit
+public class RoomCatalogVersionListener {
+
+    private final RoomCatalogClock clock;
+
+    public RoomCatalogVersionListener(RoomCatalogClock clock) {
+        this.clock = clock;
+    }
+
+    // Unstamped until the write commits, so replicas cannot pick the room up under its old version
+    @PrePersist
+    @PreUpdate
+    void clearCatalogVersion(Room room) {
+        room.setCatalogVersion(null);
+    }
+
+    // The id of a new room is only known once it is inserted
+    @PostPersist
+    @PostUpdate
+    void stampCatalogVersion(Room room) {
+        clock.stampAfterCommit(room.getId());
+    }
+}
@@ -0,0 +1,114 @@
+package ru.javabruse.loadbalancer;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.CompletionContext;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerLifecycle;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.client.loadbalancer.TimedRequestContext;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// In-flight requests and a decaying latency average per instance, fed by the load balancer lifecycle
+// (gateway lb:// routes, Feign) and by clients that call an instance directly
+public class InstanceLoadTracker implements LoadBalancerLifecycle<Object, Object, ServiceInstance> {
+
+    private final ConcurrentHashMap<String, InstanceLoad> loads = new ConcurrentHashMap<>();
+    private final long decayNanos;
+    private final long failurePenaltyNanos;
+
+    public InstanceLoadTracker(long decayNanos, long failurePenaltyNanos) {
+        this.decayNanos = decayNanos;
+        this.failurePenaltyNanos = failurePenaltyNanos;
+    }
+
+    public InstanceLoad get(ServiceInstance instance) {
+        return loads.computeIfAbsent(instance.getHost() + ':' + instance.getPort(), key -> new InstanceLoad());
+    }
+
+    public void started(ServiceInstance instance) {
+        get(instance).inFlight.incrementAndGet();
+    }
+
+    // A negative latency means the call was not timed and leaves the average as it is
+    public void finished(ServiceInstance instance, long latencyNanos, boolean success) {
+        InstanceLoad load = get(instance);
+        load.inFlight.updateAndGet(current -> Math.max(0, current - 1));
+        if (latencyNanos >= 0) {
+            load.record(success ? latencyNanos : Math.max(latencyNanos, failurePenaltyNanos), System.nanoTime(),
+                    decayNanos);
+        }
+    }
+
+    public double latencyNanos(ServiceInstance instance) {
+        return get(instance).latencyNanos(System.nanoTime(), decayNanos);
+    }
+
+    @Override
+    public void onStart(Request<Object> request) {
+    }
+
+    @Override
+    public void onStartRequest(Request<Object> request, Response<ServiceInstance> lbResponse) {
+        if (lbResponse == null || !lbResponse.hasServer()) {
+            return;
+        }
+        if (request.getContext() instanceof TimedRequestContext timed) {
+            timed.setRequestStartTime(System.nanoTime());
+        }
+        started(lbResponse.getServer());
+    }
+
+    @Override
+    public void onComplete(CompletionContext<Object, ServiceInstance, Object> completionContext) {
+        Response<ServiceInstance> lbResponse = completionContext.getLoadBalancerResponse();
+        if (lbResponse == null || !lbResponse.hasServer()) {
+            return;
+        }
+        // A discarded call (e.g. the losing side of a hedge) still shows the instance took at least this long
+        long latency = -1;
+        if (completionContext.getLoadBalancerRequest().getContext() instanceof TimedRequestContext timed
+                && timed.getRequestStartTime() > 0) {
+            latency = System.nanoTime() - timed.getRequestStartTime();
+        }
+        finished(lbResponse.getServer(), latency, completionContext.status() != CompletionContext.Status.FAILED);
+    }
+
+    public static final class InstanceLoad {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicReference<Sample> latency = new AtomicReference<>();
+
+        public int inFlight() {
+            return inFlight.get();
+        }
+
+        // Peak-sensitive: a slower sample is taken at once, faster ones pull the average down over the decay time.
+        // Older samples also fade on their own, so an instance that was slow once is tried again after a while
+        private void record(long sample, long now, long decayNanos) {
+            latency.updateAndGet(previous -> {
+                if (previous == null) {
+                    return new Sample(sample, now);
+                }
+                double weight = Math.exp(-(double) Math.max(0, now - previous.at()) / decayNanos);
+                double current = previous.nanos() * weight;
+                if (sample >= current) {
+                    return new Sample(sample, now);
+                }
+                return new Sample(current + sample * (1 - weight), now);
+            });
+        }
+
+        private double latencyNanos(long now, long decayNanos) {
+            Sample sample = latency.get();
+            return sample == null ? -1 : sample.decayed(now, decayNanos);
+        }
+    }
+
+    private record Sample(double nanos, long at) {
+        double decayed(long now, long decayNanos) {
+            return nanos * Math.exp(-(double) Math.max(0, now - at) / decayNanos);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ru.javabruse.loadbalancer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Power of two choices: of two random instances, take the one with the lower expected wait,
+// its recent latency times the requests already queued on it, scaled by the load it advertises
+@Slf4j
+public class LeastLoadedLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+    // Optional eureka.instance.metadata-map entry; 0 is idle, 1 means twice as expensive as an idle peer
+    public static final String LOAD_HINT_METADATA = "load";
+
+    private final ObjectProvider<ServiceInstanceListSupplier> suppliers;
+    private final String serviceId;
+    private final InstanceLoadTracker tracker;
+
+    public LeastLoadedLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> suppliers, String serviceId,
+                                   InstanceLoadTracker tracker) {
+        this.suppliers = suppliers;
+        this.serviceId = serviceId;
+        this.tracker = tracker;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        ServiceInstanceListSupplier supplier = suppliers.getIfAvailable(NoopServiceInstanceListSupplier::new);
+        return supplier.get(request).next().map(this::choose);
+    }
+
+    Response<ServiceInstance> choose(List<ServiceInstance> instances) {
+        if (instances.isEmpty()) {
+            log.warn("No servers available for service: {}", serviceId);
+            return new EmptyResponse();
+        }
+        if (instances.size() == 1) {
+            return new DefaultResponse(instances.get(0));
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(instances.size());
+        int second = random.nextInt(instances.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        ServiceInstance a = instances.get(first);
+        ServiceInstance b = instances.get(second);
+        double latencyA = tracker.latencyNanos(a);
+        double latencyB = tracker.latencyNanos(b);
+        // An instance that was never timed gets an idle call first, then it is assumed as fast as its peer
+        if (latencyA < 0 && tracker.get(a).inFlight() == 0) {
+            return new DefaultResponse(a);
+        }
+        if (latencyB < 0 && tracker.get(b).inFlight() == 0) {
+            return new DefaultResponse(b);
+        }
+        if (latencyA < 0) {
+            latencyA = latencyB;
+        }
+        if (latencyB < 0) {
+            latencyB = latencyA;
+        }
+        return new DefaultResponse(cost(a, latencyA) <= cost(b, latencyB) ? a : b);
+    }
+
+    private double cost(ServiceInstance instance, double latencyNanos) {
+        return Math.max(latencyNanos, 1) * (tracker.get(instance).inFlight() + 1) * (1 + loadHint(instance));
+    }
+
+    private static double loadHint(ServiceInstance instance) {
+        String hint = instance.getMetadata() == null ? null : instance.getMetadata().get(LOAD_HINT_METADATA);
+        if (hint == null) {
+            return 0;
+        }
+        try {
+            double value = Double.parseDouble(hint);
+            return Double.isFinite(value) ? Math.max(0, value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
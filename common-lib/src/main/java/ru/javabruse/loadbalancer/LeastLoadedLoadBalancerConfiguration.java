@@ -0,0 +1,21 @@
+package ru.javabruse.loadbalancer;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+// Per-service child context configuration; deliberately not a @Configuration so component scanning skips it
+public class LeastLoadedLoadBalancerConfiguration {
+
+    @Bean
+    public ReactorLoadBalancer<ServiceInstance> leastLoadedLoadBalancer(Environment environment,
+                                                                        LoadBalancerClientFactory clientFactory,
+                                                                        InstanceLoadTracker tracker) {
+        String serviceId = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        return new LeastLoadedLoadBalancer(
+                clientFactory.getLazyProvider(serviceId, ServiceInstanceListSupplier.class), serviceId, tracker);
+    }
+}
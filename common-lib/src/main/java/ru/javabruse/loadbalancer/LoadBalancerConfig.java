@@ -0,0 +1,24 @@
+package ru.javabruse.loadbalancer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClients;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+// Replaces round robin for every load-balanced client of the application (lb:// routes, Feign, LoadBalancerClient)
+@Configuration
+@ConditionalOnProperty(name = "loadbalancer.least-loaded.enabled", havingValue = "true", matchIfMissing = true)
+@LoadBalancerClients(defaultConfiguration = LeastLoadedLoadBalancerConfiguration.class)
+public class LoadBalancerConfig {
+
+    @Bean
+    public InstanceLoadTracker instanceLoadTracker(
+            @Value("${loadbalancer.least-loaded.decay-ms:10000}") long decayMs,
+            @Value("${loadbalancer.least-loaded.failure-penalty-ms:1000}") long failurePenaltyMs) {
+        return new InstanceLoadTracker(TimeUnit.MILLISECONDS.toNanos(Math.max(1, decayMs)),
+                TimeUnit.MILLISECONDS.toNanos(failurePenaltyMs));
+    }
+}
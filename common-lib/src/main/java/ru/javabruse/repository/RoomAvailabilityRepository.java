@@ -1,12 +1,15 @@
 package ru.javabruse.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.javabruse.dto.RoomBlockDto;
 import ru.javabruse.entity.RoomAvailability;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -22,5 +25,15 @@ public interface RoomAvailabilityRepository extends JpaRepository<RoomAvailabili
     
     Optional<RoomAvailability> findByRequestId(String requestId);
     
+    @Query("SELECT new ru.javabruse.dto.RoomBlockDto(ra.requestId, ra.room.id, ra.bookingId, " +
+           "ra.startDate, ra.endDate, ra.createdAt) FROM RoomAvailability ra " +
+           "WHERE ra.requestId > :afterRequestId AND ra.createdAt < :before " +
+           "ORDER BY ra.requestId")
+    List<RoomBlockDto> findBlocksAfter(@Param("afterRequestId") String afterRequestId,
+                                       @Param("before") LocalDateTime before,
+                                       Limit limit);
+    
     void deleteByRequestId(@Param("requestId") String requestId);
+    
+    void deleteByRequestIdIn(Collection<String> requestIds);
 }
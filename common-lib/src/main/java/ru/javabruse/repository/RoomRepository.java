@@ -1,6 +1,9 @@
 package ru.javabruse.repository;
 
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -8,12 +11,17 @@ import ru.javabruse.entity.Room;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface RoomRepository extends JpaRepository<Room, Long> {
     
     List<Room> findByHotelIdAndAvailableTrue(Long hotelId);
     
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT r FROM Room r WHERE r.id = :id")
+    Optional<Room> findByIdForUpdate(@Param("id") Long id);
+    
     @Query("SELECT r FROM Room r WHERE r.available = true ORDER BY r.timesBooked ASC, r.id ASC")
     List<Room> findAvailableRoomsOrderedByTimesBooked();
     
@@ -24,4 +32,11 @@ public interface RoomRepository extends JpaRepository<Room, Long> {
            "ORDER BY r.timesBooked ASC, r.id ASC")
     List<Room> findAvailableRoomsForPeriod(@Param("startDate") LocalDateTime startDate, 
                                           @Param("endDate") LocalDateTime endDate);
+    
+    @Query("SELECT r FROM Room r WHERE r.catalogVersion > :version OR " +
+           "(r.catalogVersion = :version AND r.id > :afterId) " +
+           "ORDER BY r.catalogVersion ASC, r.id ASC")
+    List<Room> findCatalogChanges(@Param("version") Long version,
+                                  @Param("afterId") Long afterId,
+                                  Limit limit);
 }
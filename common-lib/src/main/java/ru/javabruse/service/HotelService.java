@@ -2,10 +2,14 @@ package ru.javabruse.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 import ru.javabruse.dto.HotelDto;
 import ru.javabruse.dto.RoomAvailabilityRequest;
+import ru.javabruse.dto.RoomBlockDto;
+import ru.javabruse.dto.RoomCatalogDelta;
 import ru.javabruse.dto.RoomDto;
 import ru.javabruse.entity.Hotel;
 import ru.javabruse.entity.Room;
@@ -14,6 +18,8 @@ import ru.javabruse.repository.HotelRepository;
 import ru.javabruse.repository.RoomAvailabilityRepository;
 import ru.javabruse.repository.RoomRepository;
 
+import java.time.LocalDateTime;
+import java.util.Comparator;
 import java.util.List;
 
 @Slf4j
@@ -57,6 +63,34 @@ public class HotelService {
                 .toList();
     }
     
+    @Transactional(readOnly = true)
+    public RoomCatalogDelta getRoomCatalogChanges(long sinceVersion, long afterId, int limit) {
+        List<Room> changed = roomRepository.findCatalogChanges(sinceVersion, afterId, Limit.of(limit + 1));
+        boolean hasMore = changed.size() > limit;
+        List<Room> page = hasMore ? changed.subList(0, limit) : changed;
+        
+        long version = sinceVersion;
+        long lastId = afterId;
+        if (!page.isEmpty()) {
+            Room last = page.get(page.size() - 1);
+            version = last.getCatalogVersion();
+            lastId = last.getId();
+        }
+        
+        return RoomCatalogDelta.builder()
+                .rooms(page.stream().filter(room -> !room.getDeleted()).map(this::convertToDto).toList())
+                .removedRoomIds(page.stream().filter(Room::getDeleted).map(Room::getId).toList())
+                .version(version)
+                .afterId(lastId)
+                .hasMore(hasMore)
+                .build();
+    }
+    
+    @Transactional(readOnly = true)
+    public List<RoomBlockDto> getRoomBlocks(String afterRequestId, LocalDateTime before, int limit) {
+        return roomAvailabilityRepository.findBlocksAfter(afterRequestId, before, Limit.of(limit));
+    }
+    
     @Transactional
     public RoomDto createRoom(RoomDto roomDto) {
         Hotel hotel = hotelRepository.findById(roomDto.getHotelId())
@@ -73,6 +107,20 @@ public class HotelService {
         return convertToDto(savedRoom);
     }
     
+    // Existing blocks are kept; the room is only withdrawn from the catalog and from new bookings
+    @Transactional
+    public void deleteRoom(Long roomId) {
+        Room room = roomRepository.findById(roomId)
+                .orElseThrow(() -> new RuntimeException("Room not found"));
+        if (room.getDeleted()) {
+            return;
+        }
+        room.setDeleted(true);
+        room.setAvailable(false);
+        roomRepository.save(room);
+        log.info("Room {} deleted", roomId);
+    }
+    
     @Transactional
     public boolean confirmRoomAvailability(RoomAvailabilityRequest request) {
         log.info("Confirming room availability for room {} with requestId {}", 
@@ -83,6 +131,15 @@ public class HotelService {
             return true;
         }
         
+        // The room row lock serializes confirmations for the same room until commit, so two
+        // overlapping requests cannot both pass the conflict check below
+        Room room = roomRepository.findByIdForUpdate(request.getRoomId())
+                .orElseThrow(() -> new RuntimeException("Room not found"));
+        if (room.getDeleted()) {
+            log.warn("Room {} is deleted", request.getRoomId());
+            return false;
+        }
+        
         List<RoomAvailability> conflicts = roomAvailabilityRepository.findConflictingBlocks(
                 request.getRoomId(), request.getStartDate(), request.getEndDate());
         
@@ -92,9 +149,6 @@ public class HotelService {
             return false;
         }
         
-        Room room = roomRepository.findById(request.getRoomId())
-                .orElseThrow(() -> new RuntimeException("Room not found"));
-        
         RoomAvailability availability = RoomAvailability.builder()
                 .room(room)
                 .startDate(request.getStartDate())
@@ -111,6 +165,33 @@ public class HotelService {
         return true;
     }
     
+    @Transactional
+    public boolean confirmRoomAvailabilityBatch(List<RoomAvailabilityRequest> requests) {
+        log.info("Confirming availability for {} rooms", requests.size());
+        
+        // Room locks are taken in ascending id order, so two group requests sharing rooms
+        // wait on each other instead of deadlocking
+        List<RoomAvailabilityRequest> ordered = requests.stream()
+                .sorted(Comparator.comparing(RoomAvailabilityRequest::getRoomId))
+                .toList();
+        for (RoomAvailabilityRequest request : ordered) {
+            if (!confirmRoomAvailability(request)) {
+                // All or nothing: blocks already saved for this batch are rolled back
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                log.warn("Batch confirmation rejected because room {} is not available", request.getRoomId());
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Transactional
+    public void releaseRooms(List<String> requestIds) {
+        log.info("Releasing {} room blocks", requestIds.size());
+        
+        roomAvailabilityRepository.deleteByRequestIdIn(requestIds);
+    }
+    
     @Transactional
     public void releaseRoom(String requestId) {
         log.info("Releasing room for requestId {}", requestId);
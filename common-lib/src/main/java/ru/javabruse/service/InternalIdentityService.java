@@ -0,0 +1,124 @@
+package ru.javabruse.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Identity the gateway derived from a verified JWT, passed to services as HMAC-signed headers
+@Service
+public class InternalIdentityService {
+
+    public static final String USER_ID_HEADER = "X-Internal-User-Id";
+    public static final String USERNAME_HEADER = "X-Internal-Username";
+    public static final String ROLES_HEADER = "X-Internal-Roles";
+    public static final String EXPIRES_HEADER = "X-Internal-Expires";
+    public static final String TOKEN_ID_HEADER = "X-Internal-Token-Id";
+    public static final String SIGNATURE_HEADER = "X-Internal-Signature";
+    public static final List<String> HEADERS =
+            List.of(USER_ID_HEADER, USERNAME_HEADER, ROLES_HEADER, EXPIRES_HEADER, TOKEN_ID_HEADER, SIGNATURE_HEADER);
+
+    // Role of a service calling another service on its own behalf, e.g. booking-service confirming a room
+    public static final String SERVICE_ROLE = "INTERNAL";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Duration SERVICE_IDENTITY_TTL = Duration.ofMinutes(1);
+
+    private final Mac prototype;
+    private final Clock clock;
+
+    @Autowired
+    public InternalIdentityService(@Value("${internal-identity.secret}") String secret) {
+        this(secret, Clock.systemUTC());
+    }
+
+    public InternalIdentityService(String secret, Clock clock) {
+        try {
+            this.prototype = Mac.getInstance(ALGORITHM);
+            this.prototype.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialize internal identity signing", e);
+        }
+        this.clock = clock;
+    }
+
+    public Map<String, String> sign(JwtTokenService.VerifiedToken token) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(USER_ID_HEADER, String.valueOf(token.userId()));
+        headers.put(USERNAME_HEADER, URLEncoder.encode(String.valueOf(token.username()), StandardCharsets.UTF_8));
+        headers.put(ROLES_HEADER, String.join(",", token.roles()));
+        headers.put(EXPIRES_HEADER, String.valueOf(token.expiresAt().getEpochSecond()));
+        // Forwarded so the issuing service can still check its revocation list
+        headers.put(TOKEN_ID_HEADER, token.tokenId() == null ? "" : URLEncoder.encode(token.tokenId(), StandardCharsets.UTF_8));
+        headers.put(SIGNATURE_HEADER, signature(headers.get(USER_ID_HEADER), headers.get(USERNAME_HEADER),
+                headers.get(ROLES_HEADER), headers.get(EXPIRES_HEADER), headers.get(TOKEN_ID_HEADER)));
+        return headers;
+    }
+
+    // Signed like a user identity, so only holders of the shared secret can present it
+    public Map<String, String> signService(String serviceName) {
+        return sign(new JwtTokenService.VerifiedToken(null, serviceName, List.of(SERVICE_ROLE),
+                clock.instant().plus(SERVICE_IDENTITY_TTL), null, false));
+    }
+
+    public boolean isPresent(Function<String, String> headers) {
+        return headers.apply(SIGNATURE_HEADER) != null;
+    }
+
+    public JwtTokenService.VerifiedToken verify(Function<String, String> headers) {
+        String userId = headers.apply(USER_ID_HEADER);
+        String username = headers.apply(USERNAME_HEADER);
+        String roles = headers.apply(ROLES_HEADER);
+        String expires = headers.apply(EXPIRES_HEADER);
+        String tokenId = headers.apply(TOKEN_ID_HEADER);
+        String signature = headers.apply(SIGNATURE_HEADER);
+        if (userId == null || username == null || roles == null || expires == null || tokenId == null
+                || signature == null) {
+            throw new IllegalArgumentException("Incomplete internal identity");
+        }
+
+        byte[] expected = signature(userId, username, roles, expires, tokenId).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.US_ASCII))) {
+            throw new IllegalArgumentException("Invalid internal identity signature");
+        }
+        Instant expiresAt = Instant.ofEpochSecond(Long.parseLong(expires));
+        if (!clock.instant().isBefore(expiresAt)) {
+            throw new IllegalArgumentException("Internal identity expired");
+        }
+
+        return new JwtTokenService.VerifiedToken(
+                "null".equals(userId) ? null : Long.valueOf(userId),
+                URLDecoder.decode(username, StandardCharsets.UTF_8),
+                roles.isEmpty() ? List.of() : List.of(roles.split(",")),
+                expiresAt,
+                tokenId.isEmpty() ? null : URLDecoder.decode(tokenId, StandardCharsets.UTF_8),
+                false);
+    }
+
+    private String signature(String userId, String username, String roles, String expires, String tokenId) {
+        // Header values are URL-safe, so a newline cannot occur inside a field
+        String payload = userId + "\n" + username + "\n" + roles + "\n" + expires + "\n" + tokenId;
+        try {
+            Mac mac = (Mac) prototype.clone();
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("HMAC implementation is not cloneable", e);
+        }
+    }
+}
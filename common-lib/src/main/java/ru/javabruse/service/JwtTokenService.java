@@ -0,0 +1,139 @@
+package ru.javabruse.service;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.UnsupportedJwtException;
+import io.jsonwebtoken.security.Keys;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.javabruse.util.LruCache;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@Service
+public class JwtTokenService {
+
+    private static final String TYPE_CLAIM = "tokenType";
+    private static final String ACCESS_TYPE = "access";
+    private static final String REFRESH_TYPE = "refresh";
+
+    private final SecretKey signingKey;
+    private final JwtParser parser;
+    private final Duration expiration;
+    private final Duration refreshExpiration;
+    private final Clock clock;
+
+    // Null when disabled; keyed by the exact token string, so a hit means these bytes were verified before
+    private final LruCache<String, VerifiedToken> verifiedTokens;
+
+    @Autowired
+    public JwtTokenService(@Value("${jwt.secret}") String secret,
+                           @Value("${jwt.expiration-ms:900000}") long expirationMs,
+                           @Value("${jwt.refresh-expiration-ms:1209600000}") long refreshExpirationMs,
+                           @Value("${jwt.verified-cache-size:0}") int verifiedCacheSize) {
+        this(secret, Duration.ofMillis(expirationMs), Duration.ofMillis(refreshExpirationMs),
+                verifiedCacheSize, Clock.systemUTC());
+    }
+
+    public JwtTokenService(String secret, Duration expiration, Duration refreshExpiration,
+                           int verifiedCacheSize, Clock clock) {
+        this.signingKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .setClock(() -> Date.from(clock.instant()))
+                .build();
+        this.expiration = expiration;
+        this.refreshExpiration = refreshExpiration;
+        this.clock = clock;
+        this.verifiedTokens = verifiedCacheSize > 0 ? new LruCache<>(verifiedCacheSize) : null;
+    }
+
+    public String generateToken(Long userId, String username, String role) {
+        return buildToken(userId, username, role, ACCESS_TYPE, expiration);
+    }
+
+    public String generateRefreshToken(Long userId, String username, String role) {
+        return buildToken(userId, username, role, REFRESH_TYPE, refreshExpiration);
+    }
+
+    public Duration getExpiration() {
+        return expiration;
+    }
+
+    // Throws JwtException for a bad signature, a malformed token, an expired one or a refresh token
+    public VerifiedToken verify(String token) {
+        VerifiedToken verified = verifyAnyType(token);
+        if (verified.refresh()) {
+            throw new UnsupportedJwtException("Refresh tokens cannot authenticate requests");
+        }
+        return verified;
+    }
+
+    public VerifiedToken verifyRefresh(String token) {
+        VerifiedToken verified = verifyAnyType(token);
+        if (!verified.refresh()) {
+            throw new UnsupportedJwtException("Not a refresh token");
+        }
+        return verified;
+    }
+
+    private VerifiedToken verifyAnyType(String token) {
+        if (verifiedTokens != null) {
+            VerifiedToken cached = verifiedTokens.get(token);
+            if (cached != null) {
+                if (clock.instant().isBefore(cached.expiresAt())) {
+                    return cached;
+                }
+                verifiedTokens.remove(token);
+            }
+        }
+
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        String roles = claims.get("roles", String.class);
+        VerifiedToken verified = new VerifiedToken(
+                claims.get("userId", Long.class),
+                claims.get("username", String.class),
+                roles == null ? List.of() : List.of(roles.split(",")).stream().map(String::trim).toList(),
+                claims.getExpiration() == null ? null : claims.getExpiration().toInstant(),
+                claims.getId(),
+                REFRESH_TYPE.equals(claims.get(TYPE_CLAIM, String.class)));
+
+        // Tokens without an expiry could never leave the cache on their own
+        if (verifiedTokens != null && verified.expiresAt() != null) {
+            verifiedTokens.put(token, verified);
+        }
+        return verified;
+    }
+
+    private String buildToken(Long userId, String username, String role, String type, Duration lifetime) {
+        Instant now = clock.instant();
+        return Jwts.builder()
+                .setClaims(Map.of(
+                        "userId", userId,
+                        "username", username,
+                        "roles", role,
+                        TYPE_CLAIM, type
+                ))
+                .setId(UUID.randomUUID().toString())
+                .setSubject(username)
+                .setIssuedAt(Date.from(now))
+                .setExpiration(Date.from(now.plus(lifetime)))
+                .signWith(signingKey)
+                .compact();
+    }
+
+    // tokenId is the jti claim, which revocation is keyed by
+    public record VerifiedToken(Long userId, String username, List<String> roles, Instant expiresAt,
+                                String tokenId, boolean refresh) {
+    }
+}
@@ -0,0 +1,108 @@
+package ru.javabruse.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Room catalog versions in commit order. A room write only clears the room's version; once the write
+// has committed, a short transaction of its own takes the next value of the single counter row and
+// stamps the rooms with it. The counter row is locked for that stamp alone, so room writes no longer
+// queue behind each other, and a version is still only handed out after every smaller one has
+// committed: a reader that saw version N can never later find a room committed with a version below N.
+@Slf4j
+@Component
+public class RoomCatalogClock {
+
+    private static final long CLOCK_ID = 1L;
+
+    private final JdbcTemplate jdbcTemplate;
+    // Looked up on use: the transaction manager needs the entity manager factory, which needs this clock
+    private final ObjectProvider<PlatformTransactionManager> transactionManager;
+
+    public RoomCatalogClock(JdbcTemplate jdbcTemplate, ObjectProvider<PlatformTransactionManager> transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionManager = transactionManager;
+    }
+
+    // Runs after the schema exists and before any CommandLineRunner writes rooms. Rooms left unstamped by
+    // a process that stopped between a commit and its stamp are published here
+    @EventListener(ContextRefreshedEvent.class)
+    public void ensureClockRow() {
+        try {
+            jdbcTemplate.update("INSERT INTO catalog_clock (id, version) SELECT ?, 0 "
+                    + "WHERE NOT EXISTS (SELECT 1 FROM catalog_clock WHERE id = ?)", CLOCK_ID, CLOCK_ID);
+        } catch (DuplicateKeyException e) {
+            // Another instance created it first
+        }
+        requiresNew().executeWithoutResult(status -> {
+            long version = next();
+            jdbcTemplate.update("UPDATE rooms SET catalog_version = ? WHERE catalog_version IS NULL", version);
+        });
+    }
+
+    // Called from Hibernate flush callbacks; the room is stamped after the writing transaction commits
+    @SuppressWarnings("unchecked")
+    public void stampAfterCommit(Long roomId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Room writes need a transaction");
+        }
+        Set<Long> roomIds = (Set<Long>) TransactionSynchronizationManager.getResource(this);
+        if (roomIds == null) {
+            Set<Long> pending = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    stamp(pending);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(RoomCatalogClock.this);
+                }
+            });
+            roomIds = pending;
+        }
+        roomIds.add(roomId);
+    }
+
+    private void stamp(Set<Long> roomIds) {
+        try {
+            requiresNew().executeWithoutResult(status -> {
+                long version = next();
+                for (Long roomId : roomIds) {
+                    jdbcTemplate.update("UPDATE rooms SET catalog_version = ? WHERE id = ? AND catalog_version IS NULL",
+                            version, roomId);
+                }
+            });
+        } catch (RuntimeException e) {
+            // The rooms keep no version, so replicas do not see them until the next startup stamps them
+            log.error("Failed to stamp catalog version of rooms {}: {}", roomIds, e.getMessage());
+        }
+    }
+
+    private TransactionTemplate requiresNew() {
+        TransactionTemplate template = new TransactionTemplate(transactionManager.getObject());
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return template;
+    }
+
+    private long next() {
+        if (jdbcTemplate.update("UPDATE catalog_clock SET version = version + 1 WHERE id = ?", CLOCK_ID) == 0) {
+            throw new IllegalStateException("Catalog clock row is missing");
+        }
+        return jdbcTemplate.queryForObject("SELECT version FROM catalog_clock WHERE id = ?", Long.class, CLOCK_ID);
+    }
+}
@@ -0,0 +1,11 @@
+package ru.javabruse.util;
+
+// Content types negotiated on internal booking-service <-> hotel-service routes
+public final class InternalMediaTypes {
+
+    // Jackson Smile: the JSON data model in a compact binary encoding
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+
+    private InternalMediaTypes() {
+    }
+}
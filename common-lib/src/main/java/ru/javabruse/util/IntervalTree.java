@@ -0,0 +1,188 @@
+package ru.javabruse.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// AVL tree of closed intervals ordered by (start, id); every node keeps the largest end
+// in its subtree so overlap queries skip whole branches. Not thread-safe.
+public class IntervalTree<K extends Comparable<? super K>, V> {
+
+    private Node<K, V> root;
+    private int size;
+    private boolean removed;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void put(K start, K end, long id, V value) {
+        if (start.compareTo(end) > 0) {
+            throw new IllegalArgumentException("Interval start must not be after its end");
+        }
+        root = insert(root, start, end, id, value);
+    }
+
+    public boolean remove(K start, long id) {
+        removed = false;
+        root = delete(root, start, id);
+        if (removed) {
+            size--;
+        }
+        return removed;
+    }
+
+    // Values of all intervals overlapping [from, to], in (start, id) order
+    public List<V> findOverlapping(K from, K to) {
+        List<V> result = new ArrayList<>();
+        collect(root, from, to, result);
+        return result;
+    }
+
+    private void collect(Node<K, V> node, K from, K to, List<V> result) {
+        if (node == null || node.maxEnd.compareTo(from) < 0) {
+            return;
+        }
+        collect(node.left, from, to, result);
+        if (node.start.compareTo(to) > 0) {
+            // This node and its right subtree start after the query ends
+            return;
+        }
+        if (node.end.compareTo(from) >= 0) {
+            result.add(node.value);
+        }
+        collect(node.right, from, to, result);
+    }
+
+    private Node<K, V> insert(Node<K, V> node, K start, K end, long id, V value) {
+        if (node == null) {
+            size++;
+            return new Node<>(start, end, id, value);
+        }
+        int order = compare(start, id, node);
+        if (order < 0) {
+            node.left = insert(node.left, start, end, id, value);
+        } else if (order > 0) {
+            node.right = insert(node.right, start, end, id, value);
+        } else {
+            node.end = end;
+            node.value = value;
+        }
+        return rebalance(node);
+    }
+
+    private Node<K, V> delete(Node<K, V> node, K start, long id) {
+        if (node == null) {
+            return null;
+        }
+        int order = compare(start, id, node);
+        if (order < 0) {
+            node.left = delete(node.left, start, id);
+        } else if (order > 0) {
+            node.right = delete(node.right, start, id);
+        } else {
+            removed = true;
+            if (node.left == null) {
+                return node.right;
+            }
+            if (node.right == null) {
+                return node.left;
+            }
+            Node<K, V> successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            successor.right = deleteMin(node.right);
+            successor.left = node.left;
+            node = successor;
+        }
+        return rebalance(node);
+    }
+
+    private Node<K, V> deleteMin(Node<K, V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = deleteMin(node.left);
+        return rebalance(node);
+    }
+
+    private Node<K, V> rebalance(Node<K, V> node) {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private Node<K, V> rotateRight(Node<K, V> node) {
+        Node<K, V> pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private Node<K, V> rotateLeft(Node<K, V> node) {
+        Node<K, V> pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private void update(Node<K, V> node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        K maxEnd = node.end;
+        if (node.left != null && node.left.maxEnd.compareTo(maxEnd) > 0) {
+            maxEnd = node.left.maxEnd;
+        }
+        if (node.right != null && node.right.maxEnd.compareTo(maxEnd) > 0) {
+            maxEnd = node.right.maxEnd;
+        }
+        node.maxEnd = maxEnd;
+    }
+
+    private int compare(K start, long id, Node<K, V> node) {
+        int order = start.compareTo(node.start);
+        return order != 0 ? order : Long.compare(id, node.id);
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static final class Node<K, V> {
+        private final K start;
+        private final long id;
+        private K end;
+        private K maxEnd;
+        private V value;
+        private int height = 1;
+        private Node<K, V> left;
+        private Node<K, V> right;
+
+        private Node(K start, K end, long id, V value) {
+            this.start = start;
+            this.end = end;
+            this.maxEnd = end;
+            this.id = id;
+            this.value = value;
+        }
+    }
+}
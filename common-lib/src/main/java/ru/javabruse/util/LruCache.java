@@ -0,0 +1,60 @@
+package ru.javabruse.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded access-ordered map; a lock instead of synchronized keeps virtual threads unpinned
+public class LruCache<K, V> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, V> entries;
+
+    public LruCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public V get(K key) {
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        lock.lock();
+        try {
+            entries.put(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(K key) {
+        lock.lock();
+        try {
+            entries.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ru.javabruse.util;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Revoked token ids grouped by when their token expires. A token id can only sit in the bucket of its
+// own expiry, so a check is one map lookup plus a Bloom probe; the exact ids behind the filter rule out
+// false positives, and a whole bucket is dropped once every token in it has expired anyway.
+public class RevocationSet {
+
+    private static final int HASHES = 3;
+
+    private final long bucketSeconds;
+    private final int bloomMask;
+    private final Map<Long, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public RevocationSet(Duration bucketWidth, int bloomBitsPerBucket) {
+        if (bucketWidth.getSeconds() < 1) {
+            throw new IllegalArgumentException("Bucket width must be at least one second");
+        }
+        if (bloomBitsPerBucket < 64 || Integer.bitCount(bloomBitsPerBucket) != 1) {
+            throw new IllegalArgumentException("Bloom filter size must be a power of two of at least 64 bits");
+        }
+        this.bucketSeconds = bucketWidth.getSeconds();
+        this.bloomMask = bloomBitsPerBucket - 1;
+    }
+
+    // Returns false when the id was already revoked, which lets callers make one-time use atomic
+    public boolean revoke(String tokenId, Instant expiresAt) {
+        Bucket bucket = buckets.computeIfAbsent(bucketOf(expiresAt), index -> new Bucket(bloomMask + 1));
+        if (!bucket.ids.add(tokenId)) {
+            return false;
+        }
+        int hash = tokenId.hashCode();
+        int step = mix(hash);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (hash + i * step) & bloomMask;
+            bucket.bits.getAndAccumulate(bit >>> 6, 1L << bit, (word, mask) -> word | mask);
+        }
+        size.incrementAndGet();
+        return true;
+    }
+
+    public boolean isRevoked(String tokenId, Instant expiresAt) {
+        Bucket bucket = buckets.get(bucketOf(expiresAt));
+        if (bucket == null) {
+            return false;
+        }
+        int hash = tokenId.hashCode();
+        int step = mix(hash);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (hash + i * step) & bloomMask;
+            if ((bucket.bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return bucket.ids.contains(tokenId);
+    }
+
+    public int purgeExpired(Instant now) {
+        int removed = 0;
+        Iterator<Map.Entry<Long, Bucket>> entries = buckets.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Long, Bucket> entry = entries.next();
+            // Every token in the bucket expires before its upper bound
+            if ((entry.getKey() + 1) * bucketSeconds <= now.getEpochSecond()) {
+                entries.remove();
+                removed += entry.getValue().ids.size();
+            }
+        }
+        size.addAndGet(-removed);
+        return removed;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private long bucketOf(Instant expiresAt) {
+        return Math.floorDiv(expiresAt.getEpochSecond(), bucketSeconds);
+    }
+
+    // Second, independent hash for double hashing; odd so every step visits distinct bits
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash | 1;
+    }
+
+    private static final class Bucket {
+        private final AtomicLongArray bits;
+        private final Set<String> ids = ConcurrentHashMap.newKeySet();
+
+        private Bucket(int bloomBits) {
+            this.bits = new AtomicLongArray(bloomBits >>> 6);
+        }
+    }
+}
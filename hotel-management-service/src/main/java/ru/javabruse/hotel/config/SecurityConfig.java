@@ -11,6 +11,7 @@ import org.springframework.security.config.annotation.web.configurers.AbstractHt
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import ru.javabruse.service.InternalIdentityService;
 
 @Configuration
 @EnableWebSecurity
@@ -30,8 +31,12 @@ public class SecurityConfig {
                         .requestMatchers(HttpMethod.GET, "/api/hotels").permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/rooms").permitAll()
                         .requestMatchers("/api/rooms/recommend").permitAll()
-                        .requestMatchers("/api/rooms/*/confirm-availability").permitAll()
-                        .requestMatchers("/api/rooms/*/release").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/api/rooms/changes").permitAll()
+                        // Called by booking-service with its signed service identity; the gateway does not route them
+                        .requestMatchers("/api/rooms/blocks",
+                                "/api/rooms/*/confirm-availability", "/api/rooms/*/release",
+                                "/api/rooms/confirm-availability/batch", "/api/rooms/release/batch")
+                        .hasAnyRole(InternalIdentityService.SERVICE_ROLE, "ADMIN")
                         .requestMatchers("/api/hotels").hasRole("ADMIN")
                         .requestMatchers("/api/rooms").hasRole("ADMIN")
                         .anyRequest().authenticated()
@@ -4,15 +4,22 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import ru.javabruse.dto.HotelDto;
+import ru.javabruse.dto.RoomAvailabilityBatchRequest;
 import ru.javabruse.dto.RoomAvailabilityRequest;
+import ru.javabruse.dto.RoomBlockDto;
+import ru.javabruse.dto.RoomCatalogDelta;
 import ru.javabruse.dto.RoomDto;
 import ru.javabruse.service.HotelService;
+import ru.javabruse.util.InternalMediaTypes;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController
@@ -45,13 +52,33 @@ public class HotelController {
         return ResponseEntity.ok(rooms);
     }
     
-    @GetMapping("/rooms/recommend")
+    @GetMapping(value = "/rooms/recommend", produces = {MediaType.APPLICATION_JSON_VALUE, InternalMediaTypes.SMILE_VALUE})
     @Operation(summary = "Get recommended rooms", description = "Get rooms sorted by times booked (ascending)")
     public ResponseEntity<List<RoomDto>> getRecommendedRooms() {
         List<RoomDto> rooms = hotelService.getRecommendedRooms();
         return ResponseEntity.ok(rooms);
     }
     
+    @GetMapping(value = "/rooms/changes", produces = {MediaType.APPLICATION_JSON_VALUE, InternalMediaTypes.SMILE_VALUE})
+    @Operation(summary = "Get room catalog changes", description = "Get rooms changed since the given catalog version (INTERNAL)")
+    public ResponseEntity<RoomCatalogDelta> getRoomCatalogChanges(
+            @RequestParam(value = "sinceVersion", defaultValue = "0") long sinceVersion,
+            @RequestParam(value = "afterId", defaultValue = "0") long afterId,
+            @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        RoomCatalogDelta delta = hotelService.getRoomCatalogChanges(sinceVersion, afterId, Math.min(Math.max(limit, 1), 1000));
+        return ResponseEntity.ok(delta);
+    }
+    
+    @GetMapping(value = "/rooms/blocks", produces = {MediaType.APPLICATION_JSON_VALUE, InternalMediaTypes.SMILE_VALUE})
+    @Operation(summary = "Get room blocks", description = "Get room blocks ordered by requestId after the given one (INTERNAL)")
+    public ResponseEntity<List<RoomBlockDto>> getRoomBlocks(
+            @RequestParam(value = "afterRequestId", defaultValue = "") String afterRequestId,
+            @RequestParam("before") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime before,
+            @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        List<RoomBlockDto> blocks = hotelService.getRoomBlocks(afterRequestId, before, Math.min(Math.max(limit, 1), 1000));
+        return ResponseEntity.ok(blocks);
+    }
+    
     @PostMapping("/rooms")
     @PreAuthorize("hasRole('ADMIN')")
     @Operation(summary = "Create room", description = "Create a new room (ADMIN only)")
@@ -60,7 +87,17 @@ public class HotelController {
         return ResponseEntity.status(HttpStatus.CREATED).body(createdRoom);
     }
 
-    @PostMapping("/rooms/{id}/confirm-availability")
+    @DeleteMapping("/rooms/{id}")
+    @PreAuthorize("hasRole('ADMIN')")
+    @Operation(summary = "Delete room", description = "Withdraw a room from the catalog; existing bookings keep their blocks (ADMIN only)")
+    public ResponseEntity<Void> deleteRoom(@PathVariable("id") Long id) {
+        hotelService.deleteRoom(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping(value = "/rooms/{id}/confirm-availability",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, InternalMediaTypes.SMILE_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, InternalMediaTypes.SMILE_VALUE})
     @Operation(summary = "Confirm room availability", description = "Confirm room availability for booking (INTERNAL)")
     public ResponseEntity<Boolean> confirmRoomAvailability(
             @PathVariable("id") Long id,
@@ -70,6 +107,23 @@ public class HotelController {
         return ResponseEntity.ok(confirmed);
     }
 
+    @PostMapping(value = "/rooms/confirm-availability/batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, InternalMediaTypes.SMILE_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, InternalMediaTypes.SMILE_VALUE})
+    @Operation(summary = "Confirm availability of several rooms", description = "Block all requested rooms or none of them (INTERNAL)")
+    public ResponseEntity<Boolean> confirmRoomAvailabilityBatch(
+            @Valid @RequestBody RoomAvailabilityBatchRequest request) {
+        boolean confirmed = hotelService.confirmRoomAvailabilityBatch(request.getRequests());
+        return ResponseEntity.ok(confirmed);
+    }
+
+    @PostMapping("/rooms/release/batch")
+    @Operation(summary = "Release several rooms", description = "Release room blocks by request IDs (INTERNAL)")
+    public ResponseEntity<Void> releaseRooms(@RequestBody List<String> requestIds) {
+        hotelService.releaseRooms(requestIds);
+        return ResponseEntity.ok().build();
+    }
+
     @PostMapping("/rooms/{id}/release")
     @Operation(summary = "Release room", description = "Release room block (INTERNAL)")
     public ResponseEntity<Void> releaseRoom(
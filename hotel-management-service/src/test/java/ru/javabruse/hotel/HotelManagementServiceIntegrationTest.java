@@ -1,5 +1,6 @@
 package ru.javabruse.hotel;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,11 +11,16 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.context.WebApplicationContext;
 import ru.javabruse.dto.HotelDto;
+import ru.javabruse.dto.RoomAvailabilityBatchRequest;
 import ru.javabruse.dto.RoomAvailabilityRequest;
 import ru.javabruse.dto.RoomDto;
 import ru.javabruse.entity.Hotel;
@@ -23,9 +29,14 @@ import ru.javabruse.entity.RoomAvailability;
 import ru.javabruse.repository.HotelRepository;
 import ru.javabruse.repository.RoomAvailabilityRepository;
 import ru.javabruse.repository.RoomRepository;
-import ru.javabruse.hotel.service.JwtService;
+import ru.javabruse.service.InternalIdentityService;
+import ru.javabruse.service.JwtTokenService;
+import ru.javabruse.util.InternalMediaTypes;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -34,6 +45,7 @@ import java.util.concurrent.TimeUnit;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
 
 @SpringBootTest
 @AutoConfigureWebMvc
@@ -53,7 +65,13 @@ class HotelManagementServiceIntegrationTest {
     private RoomAvailabilityRepository roomAvailabilityRepository;
 
     @Autowired
-    private JwtService jwtService;
+    private JwtTokenService jwtService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private InternalIdentityService internalIdentityService;
 
     private MockMvc mockMvc;
     private ObjectMapper objectMapper;
@@ -139,6 +157,108 @@ class HotelManagementServiceIntegrationTest {
                 .andExpect(jsonPath("$[0].timesBooked").value(0));
     }
 
+    @Test
+    void testRoomCatalogChanges() throws Exception {
+        Room secondRoom = roomRepository.save(Room.builder()
+                .hotel(testHotel)
+                .number("102")
+                .available(true)
+                .timesBooked(0)
+                .build());
+        // Versions are stamped after each write commits
+        testRoom = roomRepository.findById(testRoom.getId()).orElseThrow();
+        secondRoom = roomRepository.findById(secondRoom.getId()).orElseThrow();
+        assertTrue(secondRoom.getCatalogVersion() > testRoom.getCatalogVersion());
+
+        mockMvc.perform(get("/api/rooms/changes")
+                        .param("sinceVersion", "0")
+                        .param("afterId", "0")
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.rooms.length()").value(1))
+                .andExpect(jsonPath("$.rooms[0].id").value(testRoom.getId()))
+                .andExpect(jsonPath("$.hasMore").value(true));
+
+        mockMvc.perform(get("/api/rooms/changes")
+                        .param("sinceVersion", testRoom.getCatalogVersion().toString())
+                        .param("afterId", testRoom.getId().toString())
+                        .param("limit", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.rooms.length()").value(1))
+                .andExpect(jsonPath("$.rooms[0].id").value(secondRoom.getId()))
+                .andExpect(jsonPath("$.version").value(secondRoom.getCatalogVersion()))
+                .andExpect(jsonPath("$.hasMore").value(false));
+    }
+
+    // A room write holds no catalog clock lock, so another room can be written while it is still open
+    @Test
+    void testRoomWritesDoNotWaitForEachOther() throws Exception {
+        Room secondRoom = roomRepository.save(Room.builder()
+                .hotel(testHotel)
+                .number("102")
+                .available(true)
+                .timesBooked(0)
+                .build());
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                Room open = roomRepository.findById(testRoom.getId()).orElseThrow();
+                open.setTimesBooked(1);
+                roomRepository.saveAndFlush(open);
+
+                CompletableFuture<Void> other = CompletableFuture.runAsync(() -> {
+                    Room room = roomRepository.findById(secondRoom.getId()).orElseThrow();
+                    room.setTimesBooked(1);
+                    roomRepository.save(room);
+                }, writer);
+                assertDoesNotThrow(() -> other.get(5, TimeUnit.SECONDS));
+            });
+        } finally {
+            writer.shutdownNow();
+        }
+
+        Room first = roomRepository.findById(testRoom.getId()).orElseThrow();
+        Room second = roomRepository.findById(secondRoom.getId()).orElseThrow();
+        // Stamped in commit order: the second write committed first
+        assertTrue(first.getCatalogVersion() > second.getCatalogVersion());
+    }
+
+    @Test
+    void testDeletedRoomIsPublishedAsTombstone() throws Exception {
+        long versionBefore = roomRepository.findById(testRoom.getId()).orElseThrow().getCatalogVersion();
+
+        mockMvc.perform(delete("/api/rooms/" + testRoom.getId()))
+                .andExpect(status().isNoContent());
+
+        Room deleted = roomRepository.findById(testRoom.getId()).orElseThrow();
+        assertTrue(deleted.getDeleted());
+        assertTrue(deleted.getCatalogVersion() > versionBefore);
+
+        mockMvc.perform(get("/api/rooms/changes")
+                        .param("sinceVersion", Long.toString(versionBefore))
+                        .param("afterId", testRoom.getId().toString())
+                        .param("limit", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.rooms.length()").value(0))
+                .andExpect(jsonPath("$.removedRoomIds.length()").value(1))
+                .andExpect(jsonPath("$.removedRoomIds[0]").value(testRoom.getId()))
+                .andExpect(jsonPath("$.version").value(deleted.getCatalogVersion()));
+
+        RoomAvailabilityRequest request = RoomAvailabilityRequest.builder()
+                .roomId(testRoom.getId())
+                .startDate(LocalDateTime.now().plusDays(1))
+                .endDate(LocalDateTime.now().plusDays(3))
+                .bookingId("booking-deleted")
+                .requestId("request-deleted")
+                .build();
+
+        mockMvc.perform(post("/api/rooms/" + testRoom.getId() + "/confirm-availability")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(content().string("false"));
+    }
+
     @Test
     void testRoomAvailabilityConfirmation() throws Exception {
         RoomAvailabilityRequest request = RoomAvailabilityRequest.builder()
@@ -158,6 +278,44 @@ class HotelManagementServiceIntegrationTest {
         assertTrue(roomAvailabilityRepository.findByRequestId("request-123").isPresent());
     }
 
+    @Test
+    void testInternalRoutesNegotiateSmile() throws Exception {
+        // Same mapper setup as the Smile converter Feign uses on the booking side
+        ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+        RoomAvailabilityRequest request = RoomAvailabilityRequest.builder()
+                .roomId(testRoom.getId())
+                .startDate(LocalDateTime.now().plusDays(1).truncatedTo(ChronoUnit.SECONDS))
+                .endDate(LocalDateTime.now().plusDays(3).truncatedTo(ChronoUnit.SECONDS))
+                .bookingId("booking-smile")
+                .requestId("request-smile")
+                .build();
+
+        byte[] confirmed = mockMvc.perform(post("/api/rooms/" + testRoom.getId() + "/confirm-availability")
+                        .contentType(InternalMediaTypes.SMILE_VALUE)
+                        .accept(InternalMediaTypes.SMILE_VALUE)
+                        .content(smileMapper.writeValueAsBytes(request)))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(InternalMediaTypes.SMILE_VALUE))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertTrue(smileMapper.readValue(confirmed, Boolean.class));
+        assertEquals(request.getStartDate(),
+                roomAvailabilityRepository.findByRequestId("request-smile").orElseThrow().getStartDate());
+
+        byte[] recommended = mockMvc.perform(get("/api/rooms/recommend")
+                        .accept(InternalMediaTypes.SMILE_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(InternalMediaTypes.SMILE_VALUE))
+                .andReturn().getResponse().getContentAsByteArray();
+        List<RoomDto> rooms = smileMapper.readValue(recommended, new TypeReference<List<RoomDto>>() {
+        });
+        assertEquals(testRoom.getId(), rooms.get(0).getId());
+
+        // Public clients that accept anything still get JSON
+        mockMvc.perform(get("/api/rooms/recommend"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+    }
+
     @Test
     void testRoomAvailabilityIdempotency() throws Exception {
         RoomAvailabilityRequest request = RoomAvailabilityRequest.builder()
@@ -217,6 +375,124 @@ class HotelManagementServiceIntegrationTest {
         assertEquals(1, roomAvailabilityRepository.count());
     }
 
+    @Test
+    void testBatchAvailabilityIsAllOrNothing() throws Exception {
+        Room secondRoom = roomRepository.save(Room.builder()
+                .hotel(testHotel)
+                .number("102")
+                .available(true)
+                .timesBooked(0)
+                .build());
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        LocalDateTime end = LocalDateTime.now().plusDays(3);
+
+        roomAvailabilityRepository.save(RoomAvailability.builder()
+                .room(secondRoom)
+                .startDate(start)
+                .endDate(end)
+                .isBlocked(true)
+                .bookingId("booking-0")
+                .requestId("request-0")
+                .build());
+
+        RoomAvailabilityBatchRequest conflicting = RoomAvailabilityBatchRequest.builder()
+                .requests(List.of(
+                        RoomAvailabilityRequest.builder().roomId(testRoom.getId()).startDate(start).endDate(end)
+                                .bookingId("booking-1").requestId("request-1").build(),
+                        RoomAvailabilityRequest.builder().roomId(secondRoom.getId()).startDate(start).endDate(end)
+                                .bookingId("booking-2").requestId("request-2").build()))
+                .build();
+
+        mockMvc.perform(post("/api/rooms/confirm-availability/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(conflicting)))
+                .andExpect(status().isOk())
+                .andExpect(content().string("false"));
+
+        // The block for the free room must not survive the failed batch
+        assertFalse(roomAvailabilityRepository.findByRequestId("request-1").isPresent());
+
+        mockMvc.perform(post("/api/rooms/release/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of("request-0"))))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(post("/api/rooms/confirm-availability/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(conflicting)))
+                .andExpect(status().isOk())
+                .andExpect(content().string("true"));
+
+        assertEquals(2, roomAvailabilityRepository.count());
+    }
+
+    @Test
+    void testRoomBlocksPagedByRequestId() throws Exception {
+        for (String requestId : List.of("request-c", "request-a", "request-b")) {
+            roomAvailabilityRepository.save(RoomAvailability.builder()
+                    .room(testRoom)
+                    .startDate(LocalDateTime.now().plusDays(1))
+                    .endDate(LocalDateTime.now().plusDays(3))
+                    .isBlocked(true)
+                    .bookingId("booking-" + requestId)
+                    .requestId(requestId)
+                    .build());
+        }
+        String before = LocalDateTime.now().plusMinutes(1).toString();
+
+        mockMvc.perform(get("/api/rooms/blocks")
+                        .param("before", before)
+                        .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].requestId").value("request-a"))
+                .andExpect(jsonPath("$[1].requestId").value("request-b"))
+                .andExpect(jsonPath("$[0].roomId").value(testRoom.getId()));
+
+        mockMvc.perform(get("/api/rooms/blocks")
+                        .param("afterRequestId", "request-b")
+                        .param("before", before)
+                        .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].requestId").value("request-c"));
+
+        // Blocks created after the cutoff are left for the next run
+        mockMvc.perform(get("/api/rooms/blocks")
+                        .param("before", LocalDateTime.now().minusMinutes(1).toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void testInternalRoutesRequireServiceIdentity() throws Exception {
+        MockMvc secured = MockMvcBuilders.webAppContextSetup(webApplicationContext)
+                .apply(springSecurity())
+                .build();
+        String before = LocalDateTime.now().plusMinutes(1).toString();
+
+        secured.perform(get("/api/rooms/blocks").param("before", before))
+                .andExpect(status().isForbidden());
+        secured.perform(get("/api/rooms/blocks").param("before", before)
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(status().isForbidden());
+        secured.perform(post("/api/rooms/" + testRoom.getId() + "/release").param("requestId", "request-1")
+                        .header("Authorization", "Bearer " + userToken))
+                .andExpect(status().isForbidden());
+        secured.perform(post("/api/rooms/release/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"request-1\"]"))
+                .andExpect(status().isForbidden());
+
+        MockHttpServletRequestBuilder internal = get("/api/rooms/blocks").param("before", before);
+        internalIdentityService.signService("booking-service").forEach(internal::header);
+        secured.perform(internal)
+                .andExpect(status().isOk());
+        secured.perform(get("/api/rooms/blocks").param("before", before)
+                        .header("Authorization", "Bearer " + adminToken))
+                .andExpect(status().isOk());
+    }
+
     @Test
     void testRoomRelease() throws Exception {
         // Create availability block
@@ -248,6 +524,53 @@ class HotelManagementServiceIntegrationTest {
         assertEquals(1, updatedRoom.getTimesBooked());
     }
 
+    @Test
+    void testConcurrentOverlappingBatchesBookRoomsOnce() throws Exception {
+        Room secondRoom = roomRepository.save(Room.builder()
+                .hotel(testHotel)
+                .number("102")
+                .available(true)
+                .timesBooked(0)
+                .build());
+        LocalDateTime start = LocalDateTime.now().plusDays(1);
+        LocalDateTime end = LocalDateTime.now().plusDays(3);
+        int numberOfThreads = 6;
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            final int threadId = i;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                // Half of the callers list the rooms in the opposite order
+                List<Room> rooms = threadId % 2 == 0 ? List.of(testRoom, secondRoom) : List.of(secondRoom, testRoom);
+                RoomAvailabilityBatchRequest batch = RoomAvailabilityBatchRequest.builder()
+                        .requests(rooms.stream()
+                                .map(room -> RoomAvailabilityRequest.builder().roomId(room.getId())
+                                        .startDate(start).endDate(end)
+                                        .bookingId("group-" + threadId)
+                                        .requestId("group-" + threadId + "-" + room.getId())
+                                        .build())
+                                .toList())
+                        .build();
+                try {
+                    return mockMvc.perform(post("/api/rooms/confirm-availability/batch")
+                                    .contentType(MediaType.APPLICATION_JSON)
+                                    .content(objectMapper.writeValueAsString(batch)))
+                            .andExpect(status().isOk())
+                            .andReturn().getResponse().getContentAsString();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, executor));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(1, futures.stream().filter(future -> future.join().equals("true")).count());
+        assertEquals(2, roomAvailabilityRepository.count());
+    }
+
     @Test
     void testConcurrentAvailabilityRequests() throws Exception {
         int numberOfThreads = 5;
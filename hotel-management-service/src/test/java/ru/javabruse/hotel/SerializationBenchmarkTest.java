@@ -0,0 +1,87 @@
+package ru.javabruse.hotel;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.javabruse.dto.RoomAvailabilityRequest;
+import ru.javabruse.dto.RoomDto;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Run with -Dbenchmark=true. Compares the payloads of the internal routes in JSON and Smile,
+// using the same mapper setup as the HTTP message converters on both services. A hand-rolled warm-up and
+// timed loop rather than JMH, so the numbers are for comparing the two formats against each other.
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class SerializationBenchmarkTest {
+
+    private static final int ROOMS = 500;
+    private static final int WARMUP_ROUNDS = 2_000;
+    private static final int MEASURED_ROUNDS = 5_000;
+
+    private final ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+    private final ObjectMapper smile = Jackson2ObjectMapperBuilder.smile().build();
+
+    @Test
+    void compareRecommendResponse() throws Exception {
+        List<RoomDto> rooms = new ArrayList<>();
+        for (long id = 1; id <= ROOMS; id++) {
+            RoomDto room = new RoomDto();
+            room.setId(id);
+            room.setNumber(String.valueOf(100 + id));
+            room.setAvailable(true);
+            room.setTimesBooked((int) (id % 17));
+            room.setHotelId(1 + id % 5);
+            rooms.add(room);
+        }
+        compare("recommend (" + ROOMS + " rooms)", rooms, new TypeReference<List<RoomDto>>() {
+        });
+    }
+
+    @Test
+    void compareConfirmRequest() throws Exception {
+        RoomAvailabilityRequest request = RoomAvailabilityRequest.builder()
+                .roomId(42L)
+                .startDate(LocalDateTime.now().plusDays(10))
+                .endDate(LocalDateTime.now().plusDays(12))
+                .bookingId("12345")
+                .requestId(UUID.randomUUID().toString())
+                .build();
+        compare("confirm-availability request", request, new TypeReference<RoomAvailabilityRequest>() {
+        });
+    }
+
+    private <T> void compare(String payload, T value, TypeReference<T> type) throws Exception {
+        byte[] jsonBytes = json.writeValueAsBytes(value);
+        byte[] smileBytes = smile.writeValueAsBytes(value);
+        assertEquals(value, json.readValue(jsonBytes, type));
+        assertEquals(value, smile.readValue(smileBytes, type));
+
+        long jsonNanos = roundTrip(json, value, type);
+        long smileNanos = roundTrip(smile, value, type);
+        log.info("{}: JSON {} bytes, {} ns/round trip; Smile {} bytes ({}%), {} ns/round trip ({}%)",
+                payload,
+                jsonBytes.length, jsonNanos,
+                smileBytes.length, Math.round(100.0 * smileBytes.length / jsonBytes.length),
+                smileNanos, Math.round(100.0 * smileNanos / jsonNanos));
+    }
+
+    private <T> long roundTrip(ObjectMapper mapper, T value, TypeReference<T> type) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            mapper.readValue(mapper.writeValueAsBytes(value), type);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            mapper.readValue(mapper.writeValueAsBytes(value), type);
+        }
+        return (System.nanoTime() - start) / MEASURED_ROUNDS;
+    }
+}